@@ -1,22 +1,74 @@
 package com.leadboxer.main;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 import javax.naming.Context;
 import javax.naming.InitialContext;
 import javax.naming.NamingException;
+import javax.servlet.ServletContext;
 import javax.servlet.ServletContextEvent;
 import javax.servlet.ServletContextListener;
 
 import me.prettyprint.hector.api.Keyspace;
 
+import org.apache.lucene.cassandra.BlockAccessRecorder;
+import org.apache.lucene.cassandra.CassandraClient;
+import org.apache.lucene.cassandra.CassandraCommitWatcher;
+import org.apache.lucene.cassandra.CassandraDirectory;
+import org.apache.lucene.cassandra.CassandraFile;
+import org.apache.lucene.cassandra.CassandraSegmentWarmer;
+import org.apache.lucene.cassandra.ColumnOrientedDirectory;
+import org.apache.lucene.cassandra.SimpleCassandraDirectory;
+import org.apache.lucene.cassandra.Util;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.SearchService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Opens the index stored in Cassandra once for the whole web application,
+ * and shares a {@link SearchService} over it as the
+ * {@value #SEARCH_SERVICE_ATTRIBUTE} attribute of the servlet context.
+ *
+ * The searcher is refreshed as soon as the {@link CassandraCommitWatcher}
+ * sees a new commit, after a {@link CassandraSegmentWarmer} loaded its files.
+ * The blocks read the most are recorded, saved in the directory, and fetched
+ * again on the next start. The index is given by the context parameters
+ * <code>indexPath</code>, <code>keyspace</code>, <code>columnFamily</code>
+ * and <code>blockSize</code>.
+ */
 public class EngineListener implements ServletContextListener {
 
+    private static Logger logger = LoggerFactory.getLogger(EngineListener.class);
+
+    /** the attribute of the servlet context holding the search service. */
+    public static final String SEARCH_SERVICE_ATTRIBUTE = "searchService";
+
+    /**
+     * time between two scheduled checks for a new commit, only a fallback
+     * for the commits the {@link CassandraCommitWatcher} failed to refresh.
+     */
+    public static final long DEFAULT_FALLBACK_REFRESH_INTERVAL =
+            Long.getLong("lucene.cassandra.search.refresh.fallback.ms", 60000L);
+
+    // what contextInitialized opened, closed in the reverse order.
+    private final List<Closeable> opened = new ArrayList<Closeable>();
+
     @Override
     public void contextDestroyed(ServletContextEvent sce) {
+        sce.getServletContext().removeAttribute(SEARCH_SERVICE_ATTRIBUTE);
+        close();
+
         try {
             Context envCtx = (Context) new InitialContext().lookup("java:comp/env");
-            
+
             Keyspace keyspace = (Keyspace) envCtx.lookup("cassandra/luceneClientFactory");
-            
+
             sce.getServletContext().setAttribute("keyspace_lucene0", keyspace);
         } catch (NamingException e) {
             e.printStackTrace();
@@ -26,7 +78,93 @@ public class EngineListener implements ServletContextListener {
 
     @Override
     public void contextInitialized(ServletContextEvent sce) {
-       
+        ServletContext context = sce.getServletContext();
+        String indexPath = getParameter(context, "indexPath", "index0");
+        String keyspace = getParameter(context, "keyspace", "lucene0");
+        String columnFamily = getParameter(context, "columnFamily", "index0");
+        int blockSize = Integer.parseInt(getParameter(context, "blockSize", "16384"));
+        try {
+            // BLOCKSIZE MINIMUM 16384
+            CassandraDirectory dir = CassandraDirectory.open(new CassandraFile(
+                    null, indexPath, IOContext.DEFAULT, true, keyspace,
+                    columnFamily, blockSize), IOContext.DEFAULT, null, keyspace,
+                    columnFamily, blockSize, blockSize);
+            opened.add(dir);
+
+            // fetch what was read the most before the restart, along with the
+            // term dictionaries, norms and doc values of the latest commit.
+            CassandraSegmentWarmer warmer = new CassandraSegmentWarmer(dir);
+            opened.add(warmer);
+            if (dir instanceof SimpleCassandraDirectory) {
+                final CassandraClient client = new CassandraClient("localhost",
+                        9160, true, keyspace, columnFamily, blockSize);
+                opened.add(new Closeable() {
+                    @Override
+                    public void close() {
+                        client.close();
+                    }
+                });
+                ColumnOrientedDirectory columnOrientedDirectory =
+                        new ColumnOrientedDirectory(client, blockSize);
+                String path = Util.getCassandraPath(dir.getDirectory());
+                BlockAccessRecorder recorder = new BlockAccessRecorder();
+                opened.add(recorder);
+                recorder.load(columnOrientedDirectory, path);
+                recorder.saveEvery(columnOrientedDirectory, path,
+                        BlockAccessRecorder.DEFAULT_SAVE_INTERVAL);
+                ((SimpleCassandraDirectory) dir).setAccessRecorder(recorder);
+                warmer.replay(recorder, CassandraSegmentWarmer.DEFAULT_TOP_BLOCKS);
+            } else {
+                warmer.warmLatestCommit();
+            }
+
+            // the watcher refreshes the searcher on every commit, polling
+            // the directory every second as well would only list it again.
+            final SearchService searchService = new SearchService(dir,
+                    DEFAULT_FALLBACK_REFRESH_INTERVAL,
+                    Collections.<Query> emptyList());
+            opened.add(searchService);
+            searchService.addRefreshListener(warmer);
+
+            CassandraCommitWatcher watcher = CassandraCommitWatcher.open(dir);
+            opened.add(watcher);
+            warmer.watch(watcher);
+            watcher.addListener(new CassandraCommitWatcher.Listener() {
+                @Override
+                public void onCommit(long generation) {
+                    try {
+                        searchService.maybeRefresh();
+                    } catch (IOException e) {
+                        // the scheduled refresh will try again.
+                        logger.error("unable to refresh the searcher", e);
+                    }
+                }
+            });
+
+            context.setAttribute(SEARCH_SERVICE_ATTRIBUTE, searchService);
+            logger.info("searching {} in {}", indexPath, keyspace + "/" + columnFamily);
+        } catch (IOException e) {
+            // servlets fall back to an index of their own.
+            logger.error("unable to open the index " + indexPath, e);
+            close();
+        }
+    }
+
+    private static String getParameter(ServletContext context, String name,
+            String defaultValue) {
+        String value = context.getInitParameter(name);
+        return value == null ? defaultValue : value.trim();
+    }
+
+    private void close() {
+        for (int i = opened.size() - 1; i >= 0; i--) {
+            try {
+                opened.get(i).close();
+            } catch (IOException e) {
+                logger.error("unable to close " + opened.get(i), e);
+            }
+        }
+        opened.clear();
     }
 
 }
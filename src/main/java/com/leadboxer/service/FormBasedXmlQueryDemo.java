@@ -5,9 +5,13 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.Properties;
 import java.util.StringTokenizer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
 
 import javax.servlet.RequestDispatcher;
 import javax.servlet.ServletConfig;
@@ -22,19 +26,18 @@ import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.document.FieldType;
 import org.apache.lucene.document.TextField;
-import org.apache.lucene.index.DirectoryReader;
-import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.queryparser.xml.CorePlusExtensionsParser;
 import org.apache.lucene.queryparser.xml.QueryTemplateManager;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
-import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.store.SearchService;
 import org.apache.lucene.util.Version;
 
+import com.leadboxer.main.EngineListener;
 import com.leadboxer.util.LuceneSettings;
 
 /**
@@ -45,8 +48,12 @@ public class FormBasedXmlQueryDemo extends HttpServlet {
 	
 	private QueryTemplateManager queryTemplateManager;
 	private CorePlusExtensionsParser xmlParser;
-	private IndexSearcher searcher;
+	private SearchService searchService;
+	// whether the search service is the one of the example index
+	private boolean ownsSearchService = false;
 	private Analyzer analyzer = new StandardAnalyzer(LuceneSettings.currentVersion);
+	private QueryCache queryCache;
+	private SearchExecutor searchExecutor;
 	
 
 	/** for instantiation by the servlet container */
@@ -58,7 +65,12 @@ public class FormBasedXmlQueryDemo extends HttpServlet {
         super.init(config);
         
         try {
-            openExampleIndex();
+            // search the index shared by the web application, if it could be opened
+            searchService = (SearchService) getServletContext().getAttribute(EngineListener.SEARCH_SERVICE_ATTRIBUTE);
+            if (searchService == null) {
+                openExampleIndex();
+                ownsSearchService = true;
+            }
             
             // load servlet configuration settings
             String xslFile = config.getInitParameter("xslFile");
@@ -70,6 +82,18 @@ public class FormBasedXmlQueryDemo extends HttpServlet {
             // initialize an XML query Parser for use by all threads
             xmlParser = new CorePlusExtensionsParser(defaultStandardQueryParserField, analyzer);
             
+            // cache parsed queries and their results, the sizes are optional
+            queryCache = new QueryCache(
+                    getIntParameter(config, "queryCacheSize", QueryCache.DEFAULT_QUERY_CACHE_SIZE),
+                    getIntParameter(config, "resultCacheSize", QueryCache.DEFAULT_RESULT_CACHE_SIZE));
+            searchService.addRefreshListener(queryCache);
+            
+            // run searches on threads of their own, the sizes are optional
+            searchExecutor = new SearchExecutor(
+                    getIntParameter(config, "searchThreads", SearchExecutor.DEFAULT_THREADS),
+                    getIntParameter(config, "searchQueueSize", SearchExecutor.DEFAULT_QUEUE_SIZE),
+                    getIntParameter(config, "searchTimeoutMs", (int) SearchExecutor.DEFAULT_TIMEOUT));
+            
         } catch (Exception e) {
             throw new ServletException("Error loading query template", e);
         }
@@ -77,10 +101,28 @@ public class FormBasedXmlQueryDemo extends HttpServlet {
      
 	}
 
+    @Override
+    public void destroy() {
+        if (searchExecutor != null) {
+            searchExecutor.close();
+        }
+        if (queryCache != null) {
+            searchService.removeRefreshListener(queryCache);
+        }
+        if (ownsSearchService) {
+            try {
+                searchService.close();
+            } catch (IOException e) {
+                log("Error closing the example index", e);
+            }
+        }
+        super.destroy();
+    }
+
     @Override
 	protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
         // take all completed form fields and add to a properties object
-        Properties completedFormFields = new Properties();
+        final Properties completedFormFields = new Properties();
         Enumeration<?> pNames = request.getParameterNames();
         while (pNames.hasMoreElements()) {
             String propName = (String) pNames.nextElement();
@@ -90,33 +132,71 @@ public class FormBasedXmlQueryDemo extends HttpServlet {
             }
         }
         
+        // search on a thread of the executor, for slow reads from the index
+        // not to hold on to the threads of the container
+        QueryCache.Results results;
         try {
+            results = searchExecutor.execute(new Callable<QueryCache.Results>() {
+                @Override
+                public QueryCache.Results call() throws Exception {
+                    return search(completedFormFields);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            response.setHeader("Retry-After", "1");
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Too many searches waiting");
+            return;
+        } catch (TimeoutException e) {
+            response.setHeader("Retry-After", "1");
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Search timed out");
+            return;
+        } catch (IOException e) {
+            throw new ServletException("Error processing query", e);
+        }
+        
+        // package the results and forward to jsp
+        if (results.documents.length > 0) {
+            request.setAttribute("results", results.documents);
+        }
+        RequestDispatcher dispatcher = getServletContext().getRequestDispatcher("/index.jsp");
+        dispatcher.forward(request, response);
+	}
+	
+	private QueryCache.Results search(Properties completedFormFields) throws Exception {
+        // the same form fields give the same query
+        String queryKey = QueryCache.getKey(completedFormFields);
+        Query query = queryCache.getQuery(queryKey);
+        if (query == null) {
             // create an XML query by populating template with given user criteria
             org.w3c.dom.Document xmlQuery = queryTemplateManager.getQueryAsDOM(completedFormFields);
             
             // Parse the XML to produce a Lucene query
-            Query query = xmlParser.getQuery(xmlQuery.getDocumentElement());
-            
-            // Run the query 
-            TopDocs topDocs = searcher.search(query, 10);
-            
-            // and package the results and forward to jsp
-            if (topDocs != null) {
-                ScoreDoc[] sd = topDocs.scoreDocs;
-                Document[] results = new Document[sd.length];
-                for (int i = 0; i < results.length; i++) {
-                    results[i] = searcher.doc(sd[i].doc);
-                    request.setAttribute("results", results);
-                }
+            query = xmlParser.getQuery(xmlQuery.getDocumentElement());
+            queryCache.putQuery(queryKey, query);
+        }
+        
+        IndexSearcher searcher = searchService.acquire();
+        try {
+            QueryCache.Results results = queryCache.getResults(searcher, query, 10);
+            if (results == null) {
+                // Run the query 
+                TopDocs topDocs = searcher.search(query, 10);
+                
+                // and load the stored documents of the page of hits at once
+                results = new QueryCache.Results(topDocs, SearchService.loadDocuments(searcher, topDocs.scoreDocs));
+                queryCache.putResults(searcher, query, 10, results);
             }
-            RequestDispatcher dispatcher = getServletContext().getRequestDispatcher("/index.jsp");
-            dispatcher.forward(request, response);
-            
-        } catch (Exception e) {
-            throw new ServletException("Error processing query", e);
+            return results;
+        } finally {
+            searchService.release(searcher);
         }
 	}
 	
+	private static int getIntParameter(ServletConfig config, String name, int defaultValue) {
+	    String value = config.getInitParameter(name);
+	    return value == null ? defaultValue : Integer.parseInt(value.trim());
+	}
+	
 	private void openExampleIndex() throws IOException {
 	    // create a ram based index from our test data file.
 	    RAMDirectory rd = new RAMDirectory();
@@ -143,10 +223,8 @@ public class FormBasedXmlQueryDemo extends HttpServlet {
 	    }
 	    writer.close();
 	    
-	    // open searcher
-	    // this example never closes it reader!
-	    IndexReader reader = DirectoryReader.open(rd);
-	    searcher = new IndexSearcher(reader);
+	    // the example index does not change, no need to check for commits
+	    searchService = new SearchService(rd, 0, Collections.<Query> emptyList());
 	}
 
 }
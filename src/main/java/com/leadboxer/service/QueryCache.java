@@ -0,0 +1,191 @@
+package com.leadboxer.service;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ReferenceManager;
+import org.apache.lucene.search.TopDocs;
+
+/**
+ * Caches of the queries parsed from the search form, and of the hits of
+ * those queries, so identical submissions skip parsing and searching.
+ *
+ * <p>
+ * Queries are cached by the completed form fields, in any order. Hits are
+ * cached along with their stored documents for the reader they were found
+ * in only: the results of another reader replace them all, and
+ * {@link #afterRefresh(boolean)} drops them as soon as the searcher is
+ * refreshed. Both caches drop their least recently used entries beyond
+ * their size.
+ * </p>
+ */
+public class QueryCache implements ReferenceManager.RefreshListener {
+
+    /** the most parsed queries kept. */
+    public static final int DEFAULT_QUERY_CACHE_SIZE =
+            Integer.getInteger("leadboxer.search.cache.queries", 1024);
+
+    /** the most results kept. */
+    public static final int DEFAULT_RESULT_CACHE_SIZE =
+            Integer.getInteger("leadboxer.search.cache.results", 1024);
+
+    /**
+     * The hits of a query and their stored documents.
+     */
+    public static class Results {
+        public final TopDocs topDocs;
+        public final Document[] documents;
+
+        public Results(TopDocs topDocs, Document[] documents) {
+            this.topDocs = topDocs;
+            this.documents = documents;
+        }
+    }
+
+    private final LinkedHashMap<String, Query> queries;
+
+    private final LinkedHashMap<ResultKey, Results> results;
+
+    // the reader the cached results were found in, guarded by results.
+    private Object reader;
+
+    public QueryCache() {
+        this(DEFAULT_QUERY_CACHE_SIZE, DEFAULT_RESULT_CACHE_SIZE);
+    }
+
+    /**
+     * @param queryCacheSize
+     *            the most parsed queries kept
+     * @param resultCacheSize
+     *            the most results kept, 0 not to cache any
+     */
+    public QueryCache(final int queryCacheSize, final int resultCacheSize) {
+        this.queries = new LinkedHashMap<String, Query>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Query> eldest) {
+                return size() > queryCacheSize;
+            }
+        };
+        this.results = new LinkedHashMap<ResultKey, Results>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ResultKey, Results> eldest) {
+                return size() > resultCacheSize;
+            }
+        };
+    }
+
+    /**
+     * @return the key of the given form fields, the same whatever their
+     *         order and the blanks around their values.
+     */
+    public static String getKey(Properties formFields) {
+        Map<String, String> sorted = new TreeMap<String, String>();
+        for (String name : formFields.stringPropertyNames()) {
+            sorted.put(name, formFields.getProperty(name).trim());
+        }
+        StringBuilder key = new StringBuilder();
+        for (Map.Entry<String, String> field : sorted.entrySet()) {
+            // lengths first, for no value to be taken for another field.
+            key.append(field.getKey().length()).append(':').append(field.getKey())
+                    .append(field.getValue().length()).append(':')
+                    .append(field.getValue());
+        }
+        return key.toString();
+    }
+
+    /**
+     * @return the query parsed from the form fields with the given key, or
+     *         null if not cached
+     */
+    public Query getQuery(String key) {
+        synchronized (queries) {
+            return queries.get(key);
+        }
+    }
+
+    public void putQuery(String key, Query query) {
+        synchronized (queries) {
+            queries.put(key, query);
+        }
+    }
+
+    /**
+     * @return the top <code>n</code> hits of the query found by the given
+     *         searcher, or null if not cached
+     */
+    public Results getResults(IndexSearcher searcher, Query query, int n) {
+        synchronized (results) {
+            if (reader != searcher.getIndexReader().getCombinedCoreAndDeletesKey()) {
+                return null;
+            }
+            return results.get(new ResultKey(query, n));
+        }
+    }
+
+    public void putResults(IndexSearcher searcher, Query query, int n,
+            Results hits) {
+        Object current = searcher.getIndexReader().getCombinedCoreAndDeletesKey();
+        synchronized (results) {
+            if (reader != current) {
+                results.clear();
+                reader = current;
+            }
+            results.put(new ResultKey(query, n), hits);
+        }
+    }
+
+    /**
+     * Drop all the cached results.
+     */
+    public void clearResults() {
+        synchronized (results) {
+            results.clear();
+            reader = null;
+        }
+    }
+
+    @Override
+    public void beforeRefresh() throws IOException {
+    }
+
+    @Override
+    public void afterRefresh(boolean didRefresh) throws IOException {
+        if (didRefresh) {
+            clearResults();
+        }
+    }
+
+    private static class ResultKey {
+        private final Query query;
+        private final int n;
+
+        ResultKey(Query query, int n) {
+            this.query = query;
+            this.n = n;
+        }
+
+        @Override
+        public int hashCode() {
+            return query.hashCode() * 31 + n;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof ResultKey)) {
+                return false;
+            }
+            ResultKey other = (ResultKey) obj;
+            return n == other.n && query.equals(other.query);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.leadboxer.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.cassandra.concurrent.NamedThreadFactory;
+import org.apache.monitor.Counter;
+import org.apache.monitor.OpentrackerClientMonitor;
+
+/**
+ * Runs searches on a bounded pool of threads of its own rather than on the
+ * threads of the servlet container.
+ *
+ * <p>
+ * At most <code>queueSize</code> searches wait for one of the
+ * <code>threads</code>: beyond that, searches are turned away at once with a
+ * {@link RejectedExecutionException}, which servlets answer with a 503, so
+ * that a slow index does not take every thread of the connector. A caller
+ * waits at most <code>timeoutMs</code> for its search. A search that timed
+ * out is dropped if it has not started yet, otherwise it finishes and its
+ * result is discarded. Searches are not interrupted, as an interrupt may
+ * close the files of the readers they share. The time spent waiting and
+ * searching is recorded in {@link SearchMonitor}.
+ * </p>
+ */
+public class SearchExecutor implements Closeable {
+
+    /** number of searches run at once. */
+    public static final int DEFAULT_THREADS =
+            Integer.getInteger("leadboxer.search.threads", 16);
+
+    /** the most searches waiting for a thread. */
+    public static final int DEFAULT_QUEUE_SIZE =
+            Integer.getInteger("leadboxer.search.queue", 64);
+
+    /** the longest time a caller waits for its search. */
+    public static final long DEFAULT_TIMEOUT =
+            Long.getLong("leadboxer.search.timeout.ms", 5000L);
+
+    private final ThreadPoolExecutor executor;
+
+    private final long timeoutMs;
+
+    private final OpentrackerClientMonitor monitor = SearchMonitor.getMonitor();
+
+    public SearchExecutor() {
+        this(DEFAULT_THREADS, DEFAULT_QUEUE_SIZE, DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * @param threads
+     *            number of searches run at once
+     * @param queueSize
+     *            the most searches waiting for a thread
+     * @param timeoutMs
+     *            the longest time a caller waits for its search
+     */
+    public SearchExecutor(int threads, int queueSize, long timeoutMs) {
+        threads = Math.max(1, threads);
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L,
+                TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(Math.max(
+                        1, queueSize)), new NamedThreadFactory("SearchExecutor"));
+        this.timeoutMs = timeoutMs;
+    }
+
+    /**
+     * Run the search on a thread of the pool and wait for its result.
+     *
+     * @return the result of the search
+     * @throws RejectedExecutionException
+     *             if too many searches are waiting already
+     * @throws TimeoutException
+     *             if the search did not complete in time
+     * @throws IOException
+     *             if the search failed, wrapping what it threw unless it was
+     *             an IOException
+     */
+    public <T> T execute(final Callable<T> search) throws IOException,
+            TimeoutException {
+        final long submitted = System.currentTimeMillis();
+        Future<T> future;
+        try {
+            future = executor.submit(new Callable<T>() {
+                @Override
+                public T call() throws Exception {
+                    long start = System.currentTimeMillis();
+                    monitor.addCounter(Counter.METRIC_SEARCH_QUEUE_TIME, start - submitted);
+                    monitor.setCounter(Counter.METRIC_SEARCH_QUEUED, executor.getQueue().size());
+                    try {
+                        return search.call();
+                    } finally {
+                        monitor.incCounter(Counter.METRIC_SEARCH_COUNT);
+                        monitor.addCounter(Counter.METRIC_SEARCH_TIME,
+                                System.currentTimeMillis() - start);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            monitor.incCounter(Counter.METRIC_SEARCH_REJECTED);
+            throw e;
+        }
+        monitor.setCounter(Counter.METRIC_SEARCH_QUEUED, executor.getQueue().size());
+        try {
+            return future.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // give the place in the queue to another search.
+            future.cancel(false);
+            executor.purge();
+            monitor.incCounter(Counter.METRIC_SEARCH_TIMEOUTS);
+            throw e;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            future.cancel(false);
+            throw new InterruptedIOException();
+        }
+    }
+
+    /**
+     * @return the number of searches waiting for a thread.
+     */
+    public int getQueueLength() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * Stop taking searches, the ones already taken are still run.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,46 @@
+package com.leadboxer.service;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.monitor.Counter;
+import org.apache.monitor.JmxMonitor;
+import org.apache.monitor.MonitorType;
+import org.apache.monitor.OpentrackerClientMonitor;
+
+/**
+ * The search metrics of the servlets of this JVM: searches done, time spent
+ * in them and waiting for a thread, searches waiting, and searches turned
+ * away because too many were waiting or timed out. Mean latencies follow
+ * from these and are exposed over JMX along with them.
+ */
+public class SearchMonitor implements MonitorType {
+
+    private static final SearchMonitor INSTANCE = new SearchMonitor();
+
+    /**
+     * @return the monitor shared by the search executors.
+     */
+    public static OpentrackerClientMonitor getMonitor() {
+        return JmxMonitor.getInstance().getCassandraMonitor(INSTANCE);
+    }
+
+    @Override
+    public Map<Counter, AtomicLong> getCounters() {
+        Map<Counter, AtomicLong> counters = new EnumMap<Counter, AtomicLong>(Counter.class);
+        counters.put(Counter.METRIC_SEARCH_COUNT, new AtomicLong(0));
+        counters.put(Counter.METRIC_SEARCH_TIME, new AtomicLong(0));
+        counters.put(Counter.METRIC_SEARCH_QUEUE_TIME, new AtomicLong(0));
+        counters.put(Counter.METRIC_SEARCH_QUEUED, new AtomicLong(0));
+        counters.put(Counter.METRIC_SEARCH_REJECTED, new AtomicLong(0));
+        counters.put(Counter.METRIC_SEARCH_TIMEOUTS, new AtomicLong(0));
+        return counters;
+    }
+
+    @Override
+    public String getMonitorName() {
+        return getClass().getName();
+    }
+
+}
@@ -339,7 +339,7 @@ public class ACassandraFile implements File, Closeable, MonitorType, Path {
             if (columnOrientedDirectory == null) {
                 return files;
             }
-            files = columnOrientedDirectory.getFileNames();
+            files = columnOrientedDirectory.getFileNames(name);
             logger.info("files length " + files.length);
         } catch (IOException e) {
             logger.error("unable to list ", e);
@@ -357,7 +357,7 @@ public class ACassandraFile implements File, Closeable, MonitorType, Path {
         long ms = System.currentTimeMillis();
         String[] files = {};
         try {
-            files = columnOrientedDirectory.getFileNames();
+            files = columnOrientedDirectory.getFileNames(name);
         } catch (IOException e) {
             logger.error("unable to list ", e);
         }
@@ -401,6 +401,7 @@ public class ACassandraFile implements File, Closeable, MonitorType, Path {
                 columnOrientedDirectory.setFileDescriptor(fd);
                 cassandraClient.setColumns(ByteBufferUtil.bytes(fd.getName()),
                         null);
+                columnOrientedFile.deleteFileData(fd);
             } catch (IOException e) {
                 logger.error("unable to delete file " + name, e);
                 deleteTime += System.currentTimeMillis() - ms;
@@ -982,8 +983,26 @@ public class ACassandraFile implements File, Closeable, MonitorType, Path {
         return totalRead;
     }
 
+    /**
+     * Persist the descriptor of this file if it was changed since it was
+     * last persisted. Blocks are written as they come, only the descriptor
+     * is held back, see {@link ColumnOrientedFile#writeFileBlocks}.
+     * 
+     * @throws IOException
+     */
+    public void sync() throws IOException {
+        if (fd != null && !fd.isDeleted()) {
+            columnOrientedFile.flushFileDescriptor(fd);
+        }
+    }
+
     @Override
     public void close() {
+        try {
+            sync();
+        } catch (IOException e) {
+            logger.error("unable to save the descriptor of " + name, e);
+        }
         cassandraClient.close();
         cassandraClient = null;
     }
@@ -1092,8 +1111,14 @@ public class ACassandraFile implements File, Closeable, MonitorType, Path {
             return false;
         }
         try {
-            return columnOrientedFile.renameFile(this.getFileDescriptor(),
-                    dest.getFileDescriptor());
+            boolean renamed =
+                    columnOrientedFile.renameFile(this.getFileDescriptor(),
+                            dest.getFileDescriptor());
+            // the blocks now belong to dest, this file must not delete them.
+            if (renamed) {
+                fd = null;
+            }
+            return renamed;
         } catch (Exception e) {
             logger.error("unable to rename file " + e);
             return false;
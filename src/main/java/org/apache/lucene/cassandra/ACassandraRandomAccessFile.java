@@ -68,7 +68,11 @@ public class ACassandraRandomAccessFile implements RandomAccessFile,
         if (channel != null) {
             channel.close();
         }
-        file.close();
+        try {
+            file.sync();
+        } finally {
+            file.close();
+        }
     }
 
     // Writes n bytes from the specified byte array starting at offset to this
@@ -169,34 +173,8 @@ public class ACassandraRandomAccessFile implements RandomAccessFile,
         synchronized (lock) {
             syncCount++;
             long ms = System.currentTimeMillis();
-
-            FileDescriptor fd = file.getFD();
-
-            String existingFD = FileDescriptorUtils.toString(fd);
-
-            ColumnOrientedFile cof =
-                    new ColumnOrientedFile(file.getCassandraClient());
-            FileDescriptor cassandraFD =
-                    cof.getFileDescriptor(file.getAbsolutePath(), file.getBlockSize());
-
-            logger.info("cassandra file "  + cassandraFD.getName());
-            logger.info("existing file "  + fd.getName());
-
-            if (cassandraFD != null) {
-
-                String cassandraFDString =
-                        FileDescriptorUtils.toString(cassandraFD);
-
-                if (!cassandraFDString.equals(existingFD)) {
-                    logger.error("existing fd {}", FileDescriptorUtils.toString(fd));
-                    logger.error("cassandra fd {}",
-                            FileDescriptorUtils.toString(cassandraFD));
-                }
-            }
-
-            cof.setFileDescriptor(file.getAbsolutePath(), fd);
+            file.sync();
             syncTime += System.currentTimeMillis() - ms;
-
         }
     }
 
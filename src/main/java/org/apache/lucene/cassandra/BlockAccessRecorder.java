@@ -0,0 +1,418 @@
+package org.apache.lucene.cassandra;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.cassandra.concurrent.NamedThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps track of the blocks of a directory read the most, so they can be
+ * fetched again right after a restart instead of one cold read at a time.
+ *
+ * <p>
+ * Only one read in <code>sampleRate</code> is recorded, which keeps the cost
+ * on the read path to a random number for the others. Sampled reads are
+ * counted in a count-min sketch, which overestimates but never misses a hot
+ * block, and the blocks with the highest estimates are kept as candidates,
+ * at most <code>capacity</code> of them. All counts are halved every
+ * <code>10 * capacity</code> samples, so blocks that are not read anymore
+ * give way to new ones.
+ * </p>
+ *
+ * <p>
+ * The candidates are saved as lines of text, <code>name block count</code>,
+ * either in a local file or in a row of the directory, and added back to the
+ * counts when loaded. {@link CassandraSegmentWarmer#replay} fetches the
+ * blocks loaded.
+ * </p>
+ */
+public class BlockAccessRecorder implements Closeable {
+
+    private static Logger logger = LoggerFactory.getLogger(BlockAccessRecorder.class);
+
+    /** one read in that many is recorded. */
+    public static final int DEFAULT_SAMPLE_RATE =
+            Integer.getInteger("lucene.cassandra.access.sample", 16);
+
+    /** the most blocks kept track of. */
+    public static final int DEFAULT_CAPACITY =
+            Integer.getInteger("lucene.cassandra.access.capacity", 4096);
+
+    /** time between two saves started with one of the saveEvery methods. */
+    public static final long DEFAULT_SAVE_INTERVAL =
+            Long.getLong("lucene.cassandra.access.save.ms", 60000L);
+
+    // number of hash functions of the sketch.
+    private static final int DEPTH = 4;
+
+    private final int sampleRate;
+
+    private final int capacity;
+
+    // counts of the sketch, guarded by this.
+    private final int[][] sketch;
+
+    // estimated counts of the blocks read the most, guarded by this.
+    private final Map<Block, Integer> candidates = new HashMap<Block, Integer>();
+
+    private long samples = 0;
+
+    private ScheduledExecutorService saver;
+
+    public BlockAccessRecorder() {
+        this(DEFAULT_SAMPLE_RATE, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param sampleRate
+     *            one read in that many is recorded, 1 to record all of them
+     * @param capacity
+     *            the most blocks kept track of
+     */
+    public BlockAccessRecorder(int sampleRate, int capacity) {
+        this.sampleRate = Math.max(1, sampleRate);
+        this.capacity = Math.max(1, capacity);
+        this.sketch = new int[DEPTH][Integer.highestOneBit(this.capacity) * 4];
+    }
+
+    /**
+     * Called for every read of a block, which is recorded if sampled.
+     *
+     * @param name
+     *            the name of the file in the directory
+     * @param block
+     *            the number of the block in the file
+     */
+    public void record(String name, int block) {
+        if (sampleRate > 1
+                && ThreadLocalRandom.current().nextInt(sampleRate) != 0) {
+            return;
+        }
+        add(new Block(name, block), 1);
+    }
+
+    private synchronized void add(Block block, int count) {
+        int estimate = Integer.MAX_VALUE;
+        int hash = block.hashCode();
+        for (int i = 0; i < DEPTH; i++) {
+            int[] row = sketch[i];
+            int j = index(hash, i, row.length);
+            row[j] += count;
+            estimate = Math.min(estimate, row[j]);
+        }
+        candidates.put(block, estimate);
+        if (candidates.size() > 2 * capacity) {
+            prune();
+        }
+        samples += count;
+        if (samples >= 10L * capacity) {
+            age();
+        }
+    }
+
+    private static int index(int hash, int i, int length) {
+        int h = hash * (0x9E3779B1 + 2 * i);
+        return (h ^ (h >>> 16)) & (length - 1);
+    }
+
+    // keep the candidates with the highest counts only.
+    private void prune() {
+        List<Map.Entry<Block, Integer>> entries = sortedCandidates();
+        for (Map.Entry<Block, Integer> entry : entries.subList(capacity,
+                entries.size())) {
+            candidates.remove(entry.getKey());
+        }
+    }
+
+    private void age() {
+        for (int[] row : sketch) {
+            for (int j = 0; j < row.length; j++) {
+                row[j] >>>= 1;
+            }
+        }
+        Iterator<Map.Entry<Block, Integer>> it = candidates.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Block, Integer> entry = it.next();
+            if (entry.getValue() <= 1) {
+                it.remove();
+            } else {
+                entry.setValue(entry.getValue() >>> 1);
+            }
+        }
+        samples = 0;
+    }
+
+    private List<Map.Entry<Block, Integer>> sortedCandidates() {
+        List<Map.Entry<Block, Integer>> entries =
+                new ArrayList<Map.Entry<Block, Integer>>(candidates.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<Block, Integer>>() {
+            @Override
+            public int compare(Map.Entry<Block, Integer> e1,
+                    Map.Entry<Block, Integer> e2) {
+                return e2.getValue().compareTo(e1.getValue());
+            }
+        });
+        return entries;
+    }
+
+    /**
+     * @param n
+     *            the most blocks returned
+     * @return the numbers of the blocks read the most, by file name
+     */
+    public synchronized Map<String, Set<Integer>> getTopBlocks(int n) {
+        Map<String, Set<Integer>> top = new HashMap<String, Set<Integer>>();
+        List<Map.Entry<Block, Integer>> entries = sortedCandidates();
+        for (Map.Entry<Block, Integer> entry : entries.subList(0,
+                Math.min(n, entries.size()))) {
+            Set<Integer> blocks = top.get(entry.getKey().name);
+            if (blocks == null) {
+                blocks = new TreeSet<Integer>();
+                top.put(entry.getKey().name, blocks);
+            }
+            blocks.add(entry.getKey().block);
+        }
+        return top;
+    }
+
+    /**
+     * Write the blocks kept track of, the ones read the most first.
+     *
+     * @throws IOException
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        List<String> lines = new ArrayList<String>();
+        synchronized (this) {
+            for (Map.Entry<Block, Integer> entry : sortedCandidates()) {
+                lines.add(entry.getKey().name + " " + entry.getKey().block
+                        + " " + entry.getValue());
+            }
+        }
+        Writer writer = new OutputStreamWriter(out, "UTF-8");
+        for (String line : lines) {
+            writer.write(line + "\n");
+        }
+        writer.flush();
+    }
+
+    /**
+     * Add the counts of the blocks written by {@link #writeTo(OutputStream)}
+     * to the ones recorded. Lines that cannot be parsed are skipped.
+     *
+     * @return the number of blocks read
+     * @throws IOException
+     */
+    public int readFrom(InputStream in) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in,
+                "UTF-8"));
+        int count = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            String[] fields = line.trim().split(" ");
+            if (fields.length != 3) {
+                continue;
+            }
+            try {
+                add(new Block(fields[0], Integer.parseInt(fields[1])),
+                        Integer.parseInt(fields[2]));
+                count++;
+            } catch (NumberFormatException e) {
+                logger.warn("skipping hot block {}", line);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Save the blocks kept track of to a local file, replacing it only once
+     * written.
+     *
+     * @throws IOException
+     */
+    public void save(File file) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(tmp);
+        try {
+            writeTo(out);
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(file) && !(file.delete() && tmp.renameTo(file))) {
+            throw new IOException("unable to replace " + file);
+        }
+    }
+
+    /**
+     * Load the blocks saved to a local file, if it exists.
+     *
+     * @return the number of blocks read
+     * @throws IOException
+     */
+    public int load(File file) throws IOException {
+        if (!file.exists()) {
+            return 0;
+        }
+        FileInputStream in = new FileInputStream(file);
+        try {
+            return readFrom(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Save the blocks kept track of to the hot blocks row of the given
+     * directory.
+     *
+     * @throws IOException
+     */
+    public void save(ColumnOrientedDirectory columnOrientedDirectory,
+            String directory) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeTo(out);
+        columnOrientedDirectory.setHotBlocks(directory, out.toByteArray());
+    }
+
+    /**
+     * Load the blocks saved to the hot blocks row of the given directory, if
+     * any.
+     *
+     * @return the number of blocks read
+     * @throws IOException
+     */
+    public int load(ColumnOrientedDirectory columnOrientedDirectory,
+            String directory) throws IOException {
+        byte[] hotBlocks = columnOrientedDirectory.getHotBlocks(directory);
+        if (hotBlocks == null) {
+            return 0;
+        }
+        return readFrom(new ByteArrayInputStream(hotBlocks));
+    }
+
+    /**
+     * Save the blocks kept track of to a local file every
+     * <code>intervalMs</code>, until closed.
+     */
+    public void saveEvery(final File file, long intervalMs) {
+        schedule(new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+                save(file);
+                return null;
+            }
+        }, intervalMs);
+    }
+
+    /**
+     * Save the blocks kept track of to the hot blocks row of the given
+     * directory every <code>intervalMs</code>, until closed.
+     */
+    public void saveEvery(final ColumnOrientedDirectory columnOrientedDirectory,
+            final String directory, long intervalMs) {
+        schedule(new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+                save(columnOrientedDirectory, directory);
+                return null;
+            }
+        }, intervalMs);
+    }
+
+    private synchronized void schedule(final Callable<Void> save,
+            long intervalMs) {
+        if (saver == null) {
+            saver = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory(
+                    "BlockAccessRecorder"));
+        }
+        saver.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    save.call();
+                } catch (Exception e) {
+                    // keep recording, the next save may succeed.
+                    logger.error("unable to save the hot blocks", e);
+                }
+            }
+        }, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop saving. Saves already started are not waited for.
+     */
+    @Override
+    public synchronized void close() {
+        if (saver != null) {
+            saver.shutdownNow();
+            saver = null;
+        }
+    }
+
+    private static class Block {
+        private final String name;
+        private final int block;
+
+        Block(String name, int block) {
+            this.name = name;
+            this.block = block;
+        }
+
+        @Override
+        public int hashCode() {
+            return name.hashCode() * 31 + block;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Block)) {
+                return false;
+            }
+            Block other = (Block) obj;
+            return block == other.block && name.equals(other.name);
+        }
+    }
+}
@@ -0,0 +1,569 @@
+package org.apache.lucene.cassandra;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.apache.lucene.store.AlreadyClosedException;
+import org.apache.lucene.store.IndexInput;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An {@link IndexInput} reading straight from the blocks of a Cassandra
+ * file, in the manner of Lucene's <code>ByteBufferIndexInput</code>.
+ *
+ * <p>
+ * Blocks are fetched on first access, a few at a time, and kept as the
+ * buffers Thrift received them in. Reads are then served from a view of the
+ * current block, without copying the data into an intermediate buffer
+ * first. Clones and slices share the descriptor and the fetched blocks, and
+ * only own their position, so they are cheap to create. The blocks kept can
+ * be bounded by a {@link BufferCache} shared by the inputs of a directory,
+ * a block dropped from it is fetched again when read. Blocks already
+ * fetched are read without locking, while fetches are serialized on the
+ * connection of the file, which is not thread safe.
+ * </p>
+ */
+public class CassandraBlockIndexInput extends IndexInput {
+
+    private static Logger logger = LoggerFactory.getLogger(CassandraBlockIndexInput.class);
+
+    /** number of blocks fetched in a single request on a cache miss. */
+    public static final int DEFAULT_READ_AHEAD_BLOCKS =
+            Integer.getInteger("lucene.cassandra.readahead.blocks", 4);
+
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    // descriptor and blocks, shared by this input, its clones and slices.
+    private final Blocks blocks;
+
+    // start and length of the part of the file visible through this input.
+    private final long offset;
+    private final long length;
+
+    // index of the current block, and a private view of it whose position
+    // is the file pointer and whose limit is the end of this input.
+    private int blockIndex;
+    private ByteBuffer current;
+
+    private boolean isClone = false;
+
+    /**
+     * @param resourceDescription
+     *            description of the file, used in exception messages
+     * @param fileDescriptor
+     *            the descriptor of the file to read
+     * @param columnOrientedFile
+     *            where the blocks are read from
+     * @param readAheadBlocks
+     *            number of blocks fetched in a single request
+     * @param owner
+     *            closed along with this input, or null
+     */
+    public CassandraBlockIndexInput(String resourceDescription,
+            FileDescriptor fileDescriptor,
+            ColumnOrientedFile columnOrientedFile, int readAheadBlocks,
+            Closeable owner) throws IOException {
+        this(resourceDescription, fileDescriptor, columnOrientedFile,
+                readAheadBlocks, owner, null, null);
+    }
+
+    /**
+     * @param prefetched
+     *            blocks of the file fetched ahead of time by block name, as
+     *            returned by {@link ColumnOrientedFile#readFileBlockBuffers},
+     *            or null
+     * @param recorder
+     *            where the reads of blocks are recorded, or null
+     * @see #CassandraBlockIndexInput(String, FileDescriptor,
+     *      ColumnOrientedFile, int, Closeable)
+     */
+    public CassandraBlockIndexInput(String resourceDescription,
+            FileDescriptor fileDescriptor,
+            ColumnOrientedFile columnOrientedFile, int readAheadBlocks,
+            Closeable owner, Map<byte[], ByteBuffer> prefetched,
+            BlockAccessRecorder recorder) throws IOException {
+        this(resourceDescription, fileDescriptor, columnOrientedFile,
+                readAheadBlocks, owner, prefetched, recorder, null);
+    }
+
+    /**
+     * @param bufferCache
+     *            bounds the bytes of the blocks kept by this input, or null
+     *            to keep every block fetched until closed
+     * @see #CassandraBlockIndexInput(String, FileDescriptor,
+     *      ColumnOrientedFile, int, Closeable, Map, BlockAccessRecorder)
+     */
+    public CassandraBlockIndexInput(String resourceDescription,
+            FileDescriptor fileDescriptor,
+            ColumnOrientedFile columnOrientedFile, int readAheadBlocks,
+            Closeable owner, Map<byte[], ByteBuffer> prefetched,
+            BlockAccessRecorder recorder, BufferCache bufferCache)
+            throws IOException {
+        this(resourceDescription, new Blocks(fileDescriptor,
+                columnOrientedFile, readAheadBlocks, owner, prefetched,
+                recorder, bufferCache), 0L, fileDescriptor.getLength());
+    }
+
+    private CassandraBlockIndexInput(String resourceDescription,
+            Blocks blocks, long offset, long length) throws IOException {
+        super(resourceDescription);
+        this.blocks = blocks;
+        this.offset = offset;
+        this.length = length;
+        seek(0L);
+    }
+
+    /**
+     * Create an input over <code>length</code> bytes of this file starting
+     * at <code>offset</code>, sharing the blocks fetched so far.
+     *
+     * @param sliceDescription
+     *            description of the slice, used in exception messages
+     * @param offset
+     *            start of the slice, relative to this input
+     * @param length
+     *            length of the slice
+     * @return the slice, positioned at its start
+     * @throws IOException
+     */
+    public CassandraBlockIndexInput slice(String sliceDescription,
+            long offset, long length) throws IOException {
+        if (offset < 0 || length < 0 || offset + length > this.length) {
+            throw new IllegalArgumentException("slice() " + sliceDescription
+                    + " out of bounds: offset=" + offset + ",length=" + length
+                    + ",fileLength=" + this.length + ": " + this);
+        }
+        CassandraBlockIndexInput slice =
+                new CassandraBlockIndexInput(toString() + " [slice="
+                        + sliceDescription + "]", blocks, this.offset
+                        + offset, length);
+        slice.isClone = true;
+        return slice;
+    }
+
+    @Override
+    public byte readByte() throws IOException {
+        if (!current.hasRemaining()) {
+            nextBlock();
+        }
+        return current.get();
+    }
+
+    @Override
+    public void readBytes(byte[] b, int offset, int len) throws IOException {
+        int remaining = current.remaining();
+        while (len > remaining) {
+            current.get(b, offset, remaining);
+            offset += remaining;
+            len -= remaining;
+            nextBlock();
+            remaining = current.remaining();
+        }
+        current.get(b, offset, len);
+    }
+
+    @Override
+    public short readShort() throws IOException {
+        if (current.remaining() >= 2) {
+            return current.getShort();
+        }
+        return super.readShort();
+    }
+
+    @Override
+    public int readInt() throws IOException {
+        if (current.remaining() >= 4) {
+            return current.getInt();
+        }
+        return super.readInt();
+    }
+
+    @Override
+    public long readLong() throws IOException {
+        if (current.remaining() >= 8) {
+            return current.getLong();
+        }
+        return super.readLong();
+    }
+
+    @Override
+    public long getFilePointer() {
+        return blocks.starts[blockIndex] + current.position() - offset;
+    }
+
+    @Override
+    public void seek(long pos) throws IOException {
+        if (pos < 0 || pos > length) {
+            throw new EOFException("seek past EOF: pos=" + pos + " vs length="
+                    + length + ": " + this);
+        }
+        long filePointer = offset + pos;
+        int index = Arrays.binarySearch(blocks.starts, filePointer);
+        if (index < 0) {
+            // the block that filePointer falls in, starts[] has one more
+            // entry than there are blocks.
+            index = -index - 2;
+        }
+        if (index > 0 && filePointer == offset + length
+                && blocks.starts[index] == filePointer) {
+            // stay at the end of the last block of this input rather than
+            // fetching the one after it.
+            index--;
+        }
+        index = Math.min(index, blocks.count() - 1);
+        setBlock(Math.max(index, 0), filePointer);
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    @Override
+    public CassandraBlockIndexInput clone() {
+        CassandraBlockIndexInput clone = (CassandraBlockIndexInput) super.clone();
+        clone.current = current.duplicate();
+        clone.isClone = true;
+        return clone;
+    }
+
+    /**
+     * Only the input that was opened releases the resources, clones and
+     * slices have nothing to close.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!isClone) {
+            blocks.close();
+        }
+    }
+
+    private void nextBlock() throws IOException {
+        if (blockIndex + 1 >= blocks.count()
+                || blocks.starts[blockIndex + 1] >= offset + length) {
+            throw new EOFException("read past EOF: " + this);
+        }
+        setBlock(blockIndex + 1, blocks.starts[blockIndex + 1]);
+    }
+
+    /**
+     * Make the block of the given index the current one, positioned at the
+     * given file pointer and limited to the end of this input.
+     */
+    private void setBlock(int index, long filePointer) throws IOException {
+        if (blocks.count() == 0) {
+            blockIndex = 0;
+            current = EMPTY;
+            return;
+        }
+        ByteBuffer block = blocks.get(index).duplicate();
+        long start = blocks.starts[index];
+        long end = Math.min(blocks.starts[index + 1], offset + length);
+        if (filePointer - start > block.capacity()) {
+            throw new EOFException("block " + index + " is shorter than "
+                    + "described: " + this);
+        }
+        block.limit((int) Math.min(end - start, block.capacity()));
+        block.position((int) (filePointer - start));
+        blockIndex = index;
+        current = block;
+    }
+
+    /**
+     * The descriptor of a file and the blocks of it fetched so far. The
+     * slot of a block is set once it has been fetched, fetches lock the
+     * blocks as they share the connection of the file.
+     */
+    private static class Blocks implements Closeable {
+
+        private final FileDescriptor fileDescriptor;
+
+        private final ColumnOrientedFile columnOrientedFile;
+
+        private final int readAheadBlocks;
+
+        private final Closeable owner;
+
+        private final List<FileBlock> fileBlocks;
+
+        // file pointer of the first byte of each block, followed by the end
+        // of the last block.
+        private final long[] starts;
+
+        private final AtomicReferenceArray<ByteBuffer> buffers;
+
+        private final BlockAccessRecorder recorder;
+
+        private final BufferCache bufferCache;
+
+        // the name of the file within its directory, as recorded.
+        private final String name;
+
+        private volatile boolean closed = false;
+
+        Blocks(FileDescriptor fileDescriptor,
+                ColumnOrientedFile columnOrientedFile, int readAheadBlocks,
+                Closeable owner, Map<byte[], ByteBuffer> prefetched,
+                BlockAccessRecorder recorder, BufferCache bufferCache) {
+            this.fileDescriptor = fileDescriptor;
+            this.recorder = recorder;
+            this.bufferCache = bufferCache;
+            String path = fileDescriptor.getName();
+            this.name = path == null ? null : path.substring(path.lastIndexOf('/') + 1);
+            this.columnOrientedFile = columnOrientedFile;
+            this.readAheadBlocks = Math.max(readAheadBlocks, 1);
+            this.owner = owner;
+            this.fileBlocks = new ArrayList<FileBlock>(fileDescriptor.getBlocks());
+            this.starts = new long[fileBlocks.size() + 1];
+            int i = 0;
+            for (FileBlock fileBlock : fileBlocks) {
+                starts[i + 1] = starts[i] + fileBlock.getDataLength();
+                i++;
+            }
+            this.buffers = new AtomicReferenceArray<ByteBuffer>(fileBlocks.size());
+            if (prefetched != null) {
+                for (i = 0; i < fileBlocks.size(); i++) {
+                    ByteBuffer buffer = prefetched.get(fileBlocks.get(i)
+                            .getBlockName().getBytes());
+                    if (buffer != null) {
+                        buffers.set(i, buffer.slice());
+                        if (bufferCache != null) {
+                            bufferCache.add(this, i, buffer.remaining());
+                        }
+                    }
+                }
+            }
+        }
+
+        int count() {
+            return buffers.length();
+        }
+
+        ByteBuffer get(int index) throws IOException {
+            if (recorder != null && name != null) {
+                recorder.record(name, index);
+            }
+            ByteBuffer buffer = buffers.get(index);
+            if (buffer != null && bufferCache != null) {
+                bufferCache.touch(this, index);
+            }
+            if (buffer == null) {
+                if (closed) {
+                    throw new AlreadyClosedException("Already closed: "
+                            + fileDescriptor.getName());
+                }
+                buffer = fetch(index);
+                if (buffer == null) {
+                    throw new EOFException("block " + index + " of "
+                            + fileDescriptor.getName() + " is missing");
+                }
+            }
+            return buffer;
+        }
+
+        /**
+         * Fetch the given block, along with the blocks following it that
+         * have not been fetched yet, in a single request, unless another
+         * thread fetched it in the meantime.
+         * 
+         * @return the block, or null if it is missing
+         */
+        private synchronized ByteBuffer fetch(int index) throws IOException {
+            ByteBuffer fetched = buffers.get(index);
+            if (fetched != null) {
+                return fetched;
+            }
+            if (closed) {
+                throw new AlreadyClosedException("Already closed: "
+                        + fileDescriptor.getName());
+            }
+            Set<byte[]> blockNames = new TreeSet<byte[]>(BlockMap.BYTE_ARRAY_COMPARATOR);
+            int last = index;
+            while (last < count() && last - index < readAheadBlocks
+                    && (last == index || buffers.get(last) == null)) {
+                blockNames.add(fileBlocks.get(last).getBlockName().getBytes());
+                last++;
+            }
+            logger.trace("fetching {} blocks of {}", blockNames.size(),
+                    fileDescriptor.getName());
+            Map<byte[], ByteBuffer> blockMap =
+                    columnOrientedFile.readFileBlockBuffers(fileDescriptor,
+                            blockNames);
+            for (int i = index; i < last; i++) {
+                ByteBuffer buffer = blockMap.get(fileBlocks.get(i)
+                        .getBlockName().getBytes());
+                if (buffer != null) {
+                    buffer = buffer.slice();
+                    buffers.set(i, buffer);
+                    if (i == index) {
+                        // kept even if the cache drops it right away.
+                        fetched = buffer;
+                    }
+                    if (bufferCache != null) {
+                        bufferCache.add(this, i, buffer.remaining());
+                    }
+                }
+            }
+            return fetched;
+        }
+
+        /**
+         * Drop the given block, which is fetched again on its next read.
+         */
+        void evict(int index) {
+            buffers.set(index, null);
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            closed = true;
+            if (bufferCache != null) {
+                bufferCache.remove(this);
+            }
+            for (int i = 0; i < count(); i++) {
+                buffers.set(i, null);
+            }
+            if (owner != null) {
+                owner.close();
+            }
+        }
+    }
+
+    /**
+     * Bounds the bytes of fetched blocks kept by the inputs sharing it,
+     * dropping the blocks read least recently beyond its size. Inputs still
+     * positioned in a dropped block keep reading it, the others fetch it
+     * again.
+     */
+    public static class BufferCache {
+
+        // the bytes of the blocks kept, by input and block index, in the
+        // order they were read, guarded by itself.
+        private final LinkedHashMap<Slot, Integer> slots =
+                new LinkedHashMap<Slot, Integer>(16, 0.75f, true);
+
+        // the most bytes of blocks kept.
+        private final long size;
+
+        // the bytes of blocks kept, guarded by slots.
+        private long cachedBytes;
+
+        /**
+         * @param size
+         *            the most bytes of blocks kept
+         */
+        public BufferCache(long size) {
+            this.size = size;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * @return the bytes of blocks kept
+         */
+        public long getCachedBytes() {
+            synchronized (slots) {
+                return cachedBytes;
+            }
+        }
+
+        void add(Blocks blocks, int index, int length) {
+            Slot added = new Slot(blocks, index);
+            synchronized (slots) {
+                Integer previous = slots.put(added, length);
+                cachedBytes += length - (previous == null ? 0 : previous);
+                Iterator<Map.Entry<Slot, Integer>> eldest =
+                        slots.entrySet().iterator();
+                while (cachedBytes > size && eldest.hasNext()) {
+                    Map.Entry<Slot, Integer> entry = eldest.next();
+                    if (entry.getKey().equals(added)) {
+                        break;
+                    }
+                    cachedBytes -= entry.getValue();
+                    eldest.remove();
+                    entry.getKey().blocks.evict(entry.getKey().index);
+                }
+            }
+        }
+
+        void touch(Blocks blocks, int index) {
+            synchronized (slots) {
+                slots.get(new Slot(blocks, index));
+            }
+        }
+
+        void remove(Blocks blocks) {
+            synchronized (slots) {
+                Iterator<Map.Entry<Slot, Integer>> entries =
+                        slots.entrySet().iterator();
+                while (entries.hasNext()) {
+                    Map.Entry<Slot, Integer> entry = entries.next();
+                    if (entry.getKey().blocks == blocks) {
+                        cachedBytes -= entry.getValue();
+                        entries.remove();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * A block of a file, as kept by a {@link BufferCache}.
+     */
+    private static class Slot {
+
+        private final Blocks blocks;
+
+        private final int index;
+
+        Slot(Blocks blocks, int index) {
+            this.blocks = blocks;
+            this.index = index;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Slot)) {
+                return false;
+            }
+            Slot other = (Slot) obj;
+            return blocks == other.blocks && index == other.index;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(blocks) * 31 + index;
+        }
+    }
+}
@@ -4,7 +4,9 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -25,6 +27,7 @@ import org.apache.cassandra.thrift.KsDef;
 import org.apache.cassandra.thrift.Mutation;
 import org.apache.cassandra.thrift.SlicePredicate;
 import org.apache.cassandra.thrift.SliceRange;
+import org.apache.cassandra.thrift.TokenRange;
 import org.apache.cassandra.utils.ByteBufferUtil;
 import org.apache.thrift.protocol.TBinaryProtocol;
 import org.apache.thrift.transport.TFramedTransport;
@@ -33,7 +36,19 @@ import org.apache.thrift.transport.TTransport;
 import org.apache.thrift.transport.TTransportException;
 
 public class CassandraClient {
+    /**
+     * The consistency level blocks and descriptors are written at while a
+     * file is being written, unless the client is given a level of its own
+     * with {@link #setWriteConsistency(ConsistencyLevel)}. The outputs of a
+     * {@link CassandraDirectory} write at the level of its commits, see
+     * {@link CassandraDirectory#DEFAULT_SYNC_CONSISTENCY}.
+     */
+    public static final ConsistencyLevel DEFAULT_WRITE_CONSISTENCY =
+            ConsistencyLevel.valueOf(System.getProperty(
+                    "lucene.cassandra.write.consistency", "ALL"));
+
     protected Cassandra.Client thriftClient;
+    private ConsistencyLevel writeConsistency = DEFAULT_WRITE_CONSISTENCY;
     String keyspace;
     String columnFamily;
     int blockSize;
@@ -113,33 +128,10 @@ public class CassandraClient {
     public byte[][] getKeys(List<byte[]> columnNames, int count, boolean getAll) throws IOException {
 
         try {
-            List<ByteBuffer> converter = new ArrayList<ByteBuffer>();
-            for (byte[] b : columnNames) {
-                converter.add(ByteBuffer.wrap(b));
-            }
-            List<KeySlice> keySlices =
-                    thriftClient
-                            .get_range_slices(
-                                    new ColumnParent()
-                                            .setColumn_family(columnFamily),
-                                    new SlicePredicate()
-                                            .setColumn_names(converter),
-                                    new KeyRange(count).setStart_key(
-                                            ByteBufferUtil.EMPTY_BYTE_BUFFER).setEnd_key(
-                                            ByteBufferUtil.EMPTY_BYTE_BUFFER),
-                                    ConsistencyLevel.ALL);
             List<byte[]> keys = new ArrayList<byte[]>();
-            for (KeySlice keySlice : keySlices) {
-                List<ColumnOrSuperColumn> coscs = keySlice.getColumns();
-                if (coscs != null && coscs.size() == 1) {
-                    ColumnOrSuperColumn cosc = coscs.get(0);
-                    Column column = cosc.getColumn();
-                    FileDescriptor fileDescriptor =
-                            FileDescriptorUtils
-                                    .fromBytes(column.getValue(), this.blockSize);
-                    if ((fileDescriptor == null || fileDescriptor.isDeleted()) && !getAll) {
-                        continue;
-                    }
+            for (KeySlice keySlice : getKeySlices(columnNames,
+                    new byte[0], count)) {
+                if (isListed(keySlice, getAll)) {
                     keys.add(ByteBufferUtil.getArray(keySlice.key));
                 }
             }
@@ -150,6 +142,58 @@ public class CassandraClient {
         }
     }
 
+    /**
+     * Return one page of the rows of the column family, with the given
+     * columns only.
+     * 
+     * @param columnNames
+     *            the names of the columns
+     * @param startKey
+     *            the key of the first row of the page, inclusive, or an
+     *            empty key to start from the first row
+     * @param count
+     *            the maximum number of rows in the page
+     * @return the rows, in the order of the partitioner
+     * @throws IOException
+     */
+    public List<KeySlice> getKeySlices(List<byte[]> columnNames,
+            byte[] startKey, int count) throws IOException {
+        try {
+            List<ByteBuffer> converter = new ArrayList<ByteBuffer>();
+            for (byte[] b : columnNames) {
+                converter.add(ByteBuffer.wrap(b));
+            }
+            return thriftClient.get_range_slices(
+                    new ColumnParent().setColumn_family(columnFamily),
+                    new SlicePredicate().setColumn_names(converter),
+                    new KeyRange(count).setStart_key(startKey).setEnd_key(
+                            ByteBufferUtil.EMPTY_BYTE_BUFFER),
+                    ConsistencyLevel.ALL);
+        } catch (Exception e) {
+            throw new IOException("Unable to list files in " + keyspace, e);
+        }
+    }
+
+    /**
+     * @return true if the row holds a file descriptor, and the file is not
+     *         deleted unless <code>getAll</code> is set
+     * @throws IOException
+     */
+    public boolean isListed(KeySlice keySlice, boolean getAll)
+            throws IOException {
+        List<ColumnOrSuperColumn> coscs = keySlice.getColumns();
+        if (coscs == null || coscs.size() != 1) {
+            return false;
+        }
+        if (getAll) {
+            return true;
+        }
+        Column column = coscs.get(0).getColumn();
+        FileDescriptor fileDescriptor =
+                FileDescriptorUtils.fromBytes(column.getValue(), this.blockSize);
+        return fileDescriptor != null && !fileDescriptor.isDeleted();
+    }
+
     /**
      * Get all the columns which belong to the key.
      *
@@ -221,6 +265,157 @@ public class CassandraClient {
         }
     }
 
+    /**
+     * Get the given set of columns for all the rows specified by the given
+     * keys, in a single request.
+     * 
+     * @param keys
+     *            the keys to the rows to read from
+     * @param columnNames
+     *            the names of the columns to fetch
+     * @return the values for those columns in those rows, by row key
+     * @throws IOException
+     */
+    public Map<ByteBuffer, Map<byte[], byte[]>> getColumns(List<byte[]> keys,
+            Set<byte[]> columnNames) throws IOException {
+        try {
+            List<ByteBuffer> converter = new ArrayList<ByteBuffer>();
+            for (byte[] b : columnNames) {
+                converter.add(ByteBuffer.wrap(b));
+            }
+            List<ByteBuffer> rowKeys = new ArrayList<ByteBuffer>();
+            for (byte[] key : keys) {
+                rowKeys.add(ByteBuffer.wrap(key));
+            }
+            Map<ByteBuffer, List<ColumnOrSuperColumn>> rows =
+                    thriftClient.multiget_slice(rowKeys,
+                            new ColumnParent(columnFamily),
+                            new SlicePredicate().setColumn_names(converter),
+                            ConsistencyLevel.ALL);
+            Map<ByteBuffer, Map<byte[], byte[]>> result =
+                    new HashMap<ByteBuffer, Map<byte[], byte[]>>();
+            for (Map.Entry<ByteBuffer, List<ColumnOrSuperColumn>> row : rows
+                    .entrySet()) {
+                Map<byte[], byte[]> columns = new HashMap<byte[], byte[]>();
+                for (ColumnOrSuperColumn cosc : row.getValue()) {
+                    Column column = cosc.getColumn();
+                    columns.put(column.getName(), column.getValue());
+                }
+                result.put(row.getKey(), columns);
+            }
+            return result;
+        } catch (Exception e) {
+            throw new IOException("Could not read from columns of "
+                    + keys.size() + " rows", e);
+        }
+    }
+
+    /**
+     * Get the given set of columns for the row specified by the given key,
+     * without copying their values out of the buffers Thrift read them
+     * into.
+     * 
+     * @param key
+     *            the key to the row to read from
+     * @param columnNames
+     *            the names of the columns to fetch
+     * @return read-only views of the values for those columns in that row
+     * @throws IOException
+     */
+    public Map<byte[], ByteBuffer> getColumnBuffers(byte[] key,
+            Set<byte[]> columnNames) throws IOException {
+        return getColumnBuffers(Arrays.asList(key), columnNames).get(
+                ByteBuffer.wrap(key));
+    }
+
+    /**
+     * Get the given set of columns for all the rows specified by the given
+     * keys, in a single request, without copying their values out of the
+     * buffers Thrift read them into.
+     * 
+     * @param keys
+     *            the keys to the rows to read from
+     * @param columnNames
+     *            the names of the columns to fetch
+     * @return read-only views of the values for those columns in those rows,
+     *         by row key
+     * @throws IOException
+     */
+    public Map<ByteBuffer, Map<byte[], ByteBuffer>> getColumnBuffers(
+            List<byte[]> keys, Set<byte[]> columnNames) throws IOException {
+        try {
+            List<ByteBuffer> converter = new ArrayList<ByteBuffer>();
+            for (byte[] b : columnNames) {
+                converter.add(ByteBuffer.wrap(b));
+            }
+            List<ByteBuffer> rowKeys = new ArrayList<ByteBuffer>();
+            for (byte[] key : keys) {
+                rowKeys.add(ByteBuffer.wrap(key));
+            }
+            Map<ByteBuffer, List<ColumnOrSuperColumn>> rows =
+                    thriftClient.multiget_slice(rowKeys,
+                            new ColumnParent(columnFamily),
+                            new SlicePredicate().setColumn_names(converter),
+                            ConsistencyLevel.ALL);
+            Map<ByteBuffer, Map<byte[], ByteBuffer>> result =
+                    new HashMap<ByteBuffer, Map<byte[], ByteBuffer>>();
+            for (ByteBuffer rowKey : rowKeys) {
+                Map<byte[], ByteBuffer> columns = new HashMap<byte[], ByteBuffer>();
+                List<ColumnOrSuperColumn> coscs = rows.get(rowKey);
+                if (coscs != null) {
+                    for (ColumnOrSuperColumn cosc : coscs) {
+                        Column column = cosc.getColumn();
+                        // bufferForValue() is a view of the response,
+                        // getValue() would copy it.
+                        columns.put(column.getName(), column.bufferForValue()
+                                .asReadOnlyBuffer());
+                    }
+                }
+                result.put(rowKey, columns);
+            }
+            return result;
+        } catch (Exception e) {
+            throw new IOException("Could not read from columns of "
+                    + keys.size() + " rows", e);
+        }
+    }
+
+    /**
+     * Get one page of the columns of the row specified by the given key, in
+     * the order of their names.
+     * 
+     * @param key
+     *            the key to the row to read from
+     * @param startColumn
+     *            the name of the first column of the page, inclusive, or an
+     *            empty name to start from the first column
+     * @param count
+     *            the maximum number of columns in the page
+     * @return the columns of the page
+     * @throws IOException
+     */
+    public List<Column> getColumns(byte[] key, byte[] startColumn, int count)
+            throws IOException {
+        try {
+            SliceRange sliceRange =
+                    new SliceRange(ByteBuffer.wrap(startColumn),
+                            ByteBufferUtil.EMPTY_BYTE_BUFFER, false, count);
+            List<ColumnOrSuperColumn> coscs =
+                    thriftClient.get_slice(ByteBuffer.wrap(key),
+                            new ColumnParent(columnFamily),
+                            new SlicePredicate().setSlice_range(sliceRange),
+                            ConsistencyLevel.ALL);
+            List<Column> columns = new ArrayList<Column>();
+            for (ColumnOrSuperColumn cosc : coscs) {
+                columns.add(cosc.getColumn());
+            }
+            return columns;
+        } catch (Exception e) {
+            throw new IOException("Could not read from columns for file "
+                    + Util.hexToAscii(Util.bytesToHex(key)), e);
+        }
+    }
+
     /**
      * Get the column value for the row specified by the given key and columnName
      * 
@@ -268,101 +463,216 @@ public class CassandraClient {
      */
     public void setColumns(ByteBuffer key,
             Map<byte[], byte[]> columnValues) throws IOException {
+        Map<ByteBuffer, Map<byte[], byte[]>> rows =
+                new HashMap<ByteBuffer, Map<byte[], byte[]>>();
+        rows.put(key, columnValues);
+        setColumns(rows);
+    }
+
+    /**
+     * Set the values for the given columns in the given rows, all in a
+     * single batch. As for a single row, no values means the row is deleted
+     * and a null value means the column is deleted.
+     * 
+     * @param rows
+     *            the values for the columns being updated, by row key
+     * @throws IOException
+     */
+    public void setColumns(Map<ByteBuffer, Map<byte[], byte[]>> rows)
+            throws IOException {
+        setColumns(rows, writeConsistency);
+    }
+
+    /**
+     * @return the consistency level the writes without a level of their own
+     *         are acknowledged at
+     */
+    public ConsistencyLevel getWriteConsistency() {
+        return writeConsistency;
+    }
+
+    /**
+     * Acknowledge the writes without a level of their own at the given
+     * level rather than at {@link #DEFAULT_WRITE_CONSISTENCY}.
+     * 
+     * @param writeConsistency
+     *            the number of replicas that must acknowledge a write
+     */
+    public void setWriteConsistency(ConsistencyLevel writeConsistency) {
+        this.writeConsistency = writeConsistency;
+    }
+
+    /**
+     * Set the values for the given columns in the given rows, all in a
+     * single batch acknowledged at the given consistency level.
+     * 
+     * @param rows
+     *            the values for the columns being updated, by row key
+     * @param consistencyLevel
+     *            the number of replicas that must acknowledge the batch
+     * @throws IOException
+     */
+    public void setColumns(Map<ByteBuffer, Map<byte[], byte[]>> rows,
+            ConsistencyLevel consistencyLevel) throws IOException {
         Map<ByteBuffer, Map<String, List<Mutation>>> mutationMap =
                 new HashMap<ByteBuffer, Map<String, List<Mutation>>>();
 
-        Map<String, List<Mutation>> cfMutation =
-                new HashMap<String, List<Mutation>>();
-        // System.out.println("key => " + ByteBufferUtil.string(key));
-        mutationMap.put(key, cfMutation);
+        for (Map.Entry<ByteBuffer, Map<byte[], byte[]>> row : rows.entrySet()) {
+            ByteBuffer key = row.getKey();
+            Map<byte[], byte[]> columnValues = row.getValue();
 
-        List<Mutation> mutationList = new ArrayList<Mutation>();
-        cfMutation.put(columnFamily, mutationList);
-
-        if (columnValues == null || columnValues.size() == 0) {
-            Mutation mutation = new Mutation();
-            Deletion deletion = new Deletion();
-            // try to delete column in cassandra 1.0.8
-            // deletion.predicate = new SlicePredicate();
-            // deletion.predicate.column_names =
-            deletion.setTimestamp(System.currentTimeMillis());
-            /**
-             * Currently, we cannot delete rows from a column family. This
-             * issue is being tracked at
-             * https://issues.apache.org/jira/browse/CASSANDRA-293. When
-             * that issue that resolved, we may at that time choose to
-             * revive the code shown below.
-             * 
-             * deletion.setPredicate(new SlicePredicate().setSlice_range(new
-             * SliceRange(new byte[] {}, new byte[] {}, false,
-             * Integer.MAX_VALUE)));
-             */
-            mutation.setDeletion(deletion);
-            mutationList.add(mutation);
-
-        } else {
-            for (Map.Entry<byte[], byte[]> columnValue : columnValues
-                    .entrySet()) {
+            Map<String, List<Mutation>> cfMutation =
+                    new HashMap<String, List<Mutation>>();
+            mutationMap.put(key, cfMutation);
+
+            List<Mutation> mutationList = new ArrayList<Mutation>();
+            cfMutation.put(columnFamily, mutationList);
+
+            if (columnValues == null || columnValues.size() == 0) {
                 Mutation mutation = new Mutation();
-                byte[] column = columnValue.getKey(), value =
-                        columnValue.getValue();
-                boolean isDelete = false;
-                if (value == null || isDelete) {
-                    Deletion deletion = new Deletion();
-                    deletion.setTimestamp(System.currentTimeMillis());
-                    // try to delete column in cassandra 1.0.8
-                    deletion.predicate = new SlicePredicate();
-                    deletion.predicate.column_names =
-                            Arrays.asList(ByteBuffer.wrap(column));
-
-                    if (column != null) {
-                        List<ByteBuffer> converter =
-                                new ArrayList<ByteBuffer>();
-                        converter.add(ByteBuffer.wrap(column));
-                        // deletion.setPredicate(new
-                        // SlicePredicate().setColumn_names(Arrays
-                        // .asList(new byte[][] {column})));
-                        deletion.setPredicate(new SlicePredicate()
-                                .setColumn_names(converter));
-                    } else {
-                        /*
-                         * deletion.setPredicate(new SlicePredicate()
-                         * .setSlice_range(new SliceRange(new byte[] {}, new
-                         * byte[] {}, false, Integer.MAX_VALUE)));
-                         */
-                        deletion.setPredicate(new SlicePredicate()
-                                .setSlice_range(new SliceRange(
-                                        ByteBufferUtil.EMPTY_BYTE_BUFFER,
-                                        ByteBufferUtil.EMPTY_BYTE_BUFFER,
-                                        false, Integer.MAX_VALUE)));
+                Deletion deletion = new Deletion();
+                // try to delete column in cassandra 1.0.8
+                // deletion.predicate = new SlicePredicate();
+                // deletion.predicate.column_names =
+                deletion.setTimestamp(System.currentTimeMillis());
+                /**
+                 * Currently, we cannot delete rows from a column family. This
+                 * issue is being tracked at
+                 * https://issues.apache.org/jira/browse/CASSANDRA-293. When
+                 * that issue that resolved, we may at that time choose to
+                 * revive the code shown below.
+                 * 
+                 * deletion.setPredicate(new SlicePredicate().setSlice_range(new
+                 * SliceRange(new byte[] {}, new byte[] {}, false,
+                 * Integer.MAX_VALUE)));
+                 */
+                mutation.setDeletion(deletion);
+                mutationList.add(mutation);
 
-                    }
+            } else {
+                for (Map.Entry<byte[], byte[]> columnValue : columnValues
+                        .entrySet()) {
+                    Mutation mutation = new Mutation();
+                    byte[] column = columnValue.getKey(), value =
+                            columnValue.getValue();
+                    boolean isDelete = false;
+                    if (value == null || isDelete) {
+                        Deletion deletion = new Deletion();
+                        deletion.setTimestamp(System.currentTimeMillis());
+                        // try to delete column in cassandra 1.0.8
+                        deletion.predicate = new SlicePredicate();
+                        deletion.predicate.column_names =
+                                Arrays.asList(ByteBuffer.wrap(column));
+
+                        if (column != null) {
+                            List<ByteBuffer> converter =
+                                    new ArrayList<ByteBuffer>();
+                            converter.add(ByteBuffer.wrap(column));
+                            // deletion.setPredicate(new
+                            // SlicePredicate().setColumn_names(Arrays
+                            // .asList(new byte[][] {column})));
+                            deletion.setPredicate(new SlicePredicate()
+                                    .setColumn_names(converter));
+                        } else {
+                            /*
+                             * deletion.setPredicate(new SlicePredicate()
+                             * .setSlice_range(new SliceRange(new byte[] {}, new
+                             * byte[] {}, false, Integer.MAX_VALUE)));
+                             */
+                            deletion.setPredicate(new SlicePredicate()
+                                    .setSlice_range(new SliceRange(
+                                            ByteBufferUtil.EMPTY_BYTE_BUFFER,
+                                            ByteBufferUtil.EMPTY_BYTE_BUFFER,
+                                            false, Integer.MAX_VALUE)));
 
-                    mutation.setDeletion(deletion);
+                        }
 
-                } else {
-                    ColumnOrSuperColumn cosc = new ColumnOrSuperColumn();
+                        mutation.setDeletion(deletion);
 
-                    Column nColumn = new Column();
-                    nColumn.setName(ByteBuffer.wrap(column));
-                    nColumn.setValue(ByteBuffer.wrap(value));
-                    nColumn.setTimestamp(System.currentTimeMillis());
-                    cosc.setColumn(nColumn);
+                    } else {
+                        ColumnOrSuperColumn cosc = new ColumnOrSuperColumn();
 
-                    mutation.setColumn_or_supercolumn(cosc);
-                }
+                        Column nColumn = new Column();
+                        nColumn.setName(ByteBuffer.wrap(column));
+                        nColumn.setValue(ByteBuffer.wrap(value));
+                        nColumn.setTimestamp(System.currentTimeMillis());
+                        cosc.setColumn(nColumn);
 
-                mutationList.add(mutation);
+                        mutation.setColumn_or_supercolumn(cosc);
+                    }
+
+                    mutationList.add(mutation);
+                }
             }
         }
         try {
-            thriftClient.batch_mutate(mutationMap, ConsistencyLevel.ALL);
+            thriftClient.batch_mutate(mutationMap, consistencyLevel);
         } catch (Exception e) {
-            throw new IOException("Unable to mutate columns for file "
-                    + new String(key.array(), "UTF-8"), e);
+            List<String> keys = new ArrayList<String>();
+            for (ByteBuffer key : rows.keySet()) {
+                keys.add(new String(key.array(), "UTF-8"));
+            }
+            throw new IOException("Unable to mutate columns for files "
+                    + keys, e);
         }
     }
     
+    /**
+     * Delete the given columns of the given row in a single mutation,
+     * without reading them first, at the same level as the writes.
+     * 
+     * @param key
+     *            the key to the row being written to
+     * @param columnNames
+     *            the names of the columns being deleted
+     * @throws IOException
+     */
+    public void deleteColumns(ByteBuffer key, Collection<byte[]> columnNames)
+            throws IOException {
+        if (columnNames.isEmpty()) {
+            return;
+        }
+        List<ByteBuffer> converter = new ArrayList<ByteBuffer>();
+        for (byte[] b : columnNames) {
+            converter.add(ByteBuffer.wrap(b));
+        }
+        Deletion deletion = new Deletion();
+        deletion.setTimestamp(System.currentTimeMillis());
+        deletion.setPredicate(new SlicePredicate().setColumn_names(converter));
+        Mutation mutation = new Mutation();
+        mutation.setDeletion(deletion);
+
+        Map<String, List<Mutation>> cfMutation =
+                new HashMap<String, List<Mutation>>();
+        cfMutation.put(columnFamily, Arrays.asList(mutation));
+        Map<ByteBuffer, Map<String, List<Mutation>>> mutationMap =
+                new HashMap<ByteBuffer, Map<String, List<Mutation>>>();
+        mutationMap.put(key, cfMutation);
+        try {
+            thriftClient.batch_mutate(mutationMap, writeConsistency);
+        } catch (Exception e) {
+            throw new IOException("Unable to delete columns for file "
+                    + new String(key.array(), "UTF-8"), e);
+        }
+    }
+
+    /**
+     * @return the number of nodes holding replicas of the keyspace.
+     * @throws IOException
+     */
+    public int getNodeCount() throws IOException {
+        Set<String> endpoints = new HashSet<String>();
+        try {
+            for (TokenRange range : thriftClient.describe_ring(keyspace)) {
+                endpoints.addAll(range.getEndpoints());
+            }
+        } catch (Exception e) {
+            throw new IOException("Unable to describe the ring of keyspace "
+                    + keyspace, e);
+        }
+        return endpoints.size();
+    }
+
     public boolean truncate(String cfname) throws IOException {
         try {
             thriftClient.truncate(cfname);
@@ -0,0 +1,205 @@
+package org.apache.lucene.cassandra;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.cassandra.concurrent.NamedThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tells the readers of an index stored in Cassandra when it has a new
+ * commit.
+ *
+ * <p>
+ * {@link CassandraDirectory#sync} publishes the generation of each segments
+ * file it syncs in a row of its own. This watcher reads that single column
+ * every <code>pollIntervalMs</code>, which is far cheaper than reading the
+ * descriptor and a block of <code>segments.gen</code>, and wakes up the
+ * threads waiting in {@link #awaitGeneration(long, long)} and the listeners
+ * once it changes. However many readers wait, there is a single poll per
+ * interval.
+ * </p>
+ */
+public class CassandraCommitWatcher implements Closeable {
+
+    private static Logger logger = LoggerFactory.getLogger(CassandraCommitWatcher.class);
+
+    /** time between two reads of the commit generation. */
+    public static final long DEFAULT_POLL_INTERVAL =
+            Long.getLong("lucene.cassandra.commit.poll.ms", 500L);
+
+    /**
+     * Notified of the commits of the watched directory.
+     */
+    public interface Listener {
+        /**
+         * Called from the thread of the watcher after the generation
+         * changed, once per change seen.
+         *
+         * @param generation
+         *            the generation of the new commit
+         */
+        void onCommit(long generation);
+    }
+
+    private final ColumnOrientedDirectory columnOrientedDirectory;
+
+    private final String directory;
+
+    private final CopyOnWriteArrayList<Listener> listeners =
+            new CopyOnWriteArrayList<Listener>();
+
+    private final ScheduledExecutorService poller;
+
+    private final Object lock = new Object();
+
+    private long generation = -1;
+
+    /**
+     * @param columnOrientedDirectory
+     *            where the generation is read from
+     * @param directory
+     *            the path the files of the index are stored under, as given
+     *            by {@link Util#getCassandraPath(CassandraFile)}
+     * @param pollIntervalMs
+     *            time between two reads of the generation
+     * @throws IOException
+     *             if the current generation could not be read
+     */
+    public CassandraCommitWatcher(
+            ColumnOrientedDirectory columnOrientedDirectory, String directory,
+            long pollIntervalMs) throws IOException {
+        this.columnOrientedDirectory = columnOrientedDirectory;
+        this.directory = directory;
+        this.generation = columnOrientedDirectory.getCommitGeneration(directory);
+        this.poller = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory(
+                "CassandraCommitWatcher"));
+        poller.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    poll();
+                } catch (IOException e) {
+                    logger.error("unable to read the commit generation of "
+                            + CassandraCommitWatcher.this.directory, e);
+                }
+            }
+        }, pollIntervalMs, pollIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Watch the index stored in the given directory.
+     */
+    public static CassandraCommitWatcher open(CassandraDirectory directory)
+            throws IOException {
+        final CassandraClient client =
+                new CassandraClient("localhost", 9160, true,
+                        directory.keyspace, directory.columnFamily,
+                        directory.blockSize);
+        return new CassandraCommitWatcher(new ColumnOrientedDirectory(client,
+                directory.blockSize), Util.getCassandraPath(directory
+                .getDirectory()), DEFAULT_POLL_INTERVAL) {
+            @Override
+            public void close() {
+                super.close();
+                client.close();
+            }
+        };
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * @return the generation of the last commit seen, or -1 if there was
+     *         none.
+     */
+    public long getGeneration() {
+        synchronized (lock) {
+            return generation;
+        }
+    }
+
+    /**
+     * Wait until a commit after the given generation is seen.
+     *
+     * @param after
+     *            the generation the caller has already seen
+     * @param timeoutMs
+     *            the longest time to wait
+     * @return the generation of the last commit, which is still
+     *         <code>after</code> if the time ran out
+     * @throws InterruptedException
+     */
+    public long awaitGeneration(long after, long timeoutMs)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        synchronized (lock) {
+            long remaining = timeoutMs;
+            while (generation <= after && remaining > 0) {
+                lock.wait(remaining);
+                remaining = deadline - System.currentTimeMillis();
+            }
+            return generation;
+        }
+    }
+
+    /**
+     * Read the generation now and notify the waiters and listeners if it
+     * changed.
+     *
+     * @return the generation read
+     * @throws IOException
+     */
+    public long poll() throws IOException {
+        long current = columnOrientedDirectory.getCommitGeneration(directory);
+        synchronized (lock) {
+            if (current == generation) {
+                return current;
+            }
+            generation = current;
+            lock.notifyAll();
+        }
+        logger.debug("new commit {} in {}", current, directory);
+        for (Listener listener : listeners) {
+            try {
+                listener.onCommit(current);
+            } catch (RuntimeException e) {
+                logger.error("commit listener failed", e);
+            }
+        }
+        return current;
+    }
+
+    @Override
+    public void close() {
+        poller.shutdownNow();
+    }
+}
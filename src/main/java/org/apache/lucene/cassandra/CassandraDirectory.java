@@ -24,11 +24,20 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Future;
 
+import org.apache.cassandra.thrift.ConsistencyLevel;
+import org.apache.lucene.index.IndexFileNames;
+import org.apache.lucene.index.SegmentInfos;
 import org.apache.lucene.store.BaseDirectory;
 import org.apache.lucene.store.BufferedIndexInput;
 import org.apache.lucene.store.BufferedIndexOutput;
@@ -38,7 +47,10 @@ import org.apache.lucene.store.IndexInput;
 import org.apache.lucene.store.IndexOutput;
 import org.apache.lucene.store.LockFactory;
 import org.apache.lucene.store.NoSuchDirectoryException;
+import org.apache.lucene.store.RateLimiter;
 import org.apache.lucene.util.ThreadInterruptedException;
+import org.apache.monitor.Counter;
+import org.apache.monitor.OpentrackerClientMonitor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -140,8 +152,20 @@ public abstract class CassandraDirectory extends BaseDirectory {
 
   protected final CassandraFile directory; // The underlying filesystem directory
   protected final Set<String> staleFiles = synchronizedSet(new HashSet<String>()); // Files written, but not yet sync'ed
+  protected final Map<String, FileDescriptor> pendingDescriptors = new ConcurrentHashMap<String, FileDescriptor>(); // Descriptors of the stale files
+  private CassandraClient syncClient; // Writes the commits of sync, guarded by this
   private int chunkSize = DEFAULT_READ_CHUNK_SIZE;
 
+  /** Default limit of the write rate of merges in MB/sec, 0 for no limit. */
+  public static final double DEFAULT_MAX_MERGE_WRITE_MB_PER_SEC =
+      Double.parseDouble(System.getProperty("lucene.cassandra.merge.write.mbpersec", "0"));
+
+  /** The consistency level the files are written, and committed by sync, at. */
+  public static final ConsistencyLevel DEFAULT_SYNC_CONSISTENCY =
+      ConsistencyLevel.valueOf(System.getProperty("lucene.cassandra.sync.consistency", "ALL"));
+
+  private volatile RateLimiter mergeWriteRateLimiter;
+
   // returns the canonical version of the directory, creating it if it doesn't exist.
   private static CassandraFile getCanonicalPath(CassandraFile file, IOContext mode, String keyspace, String columnFamily, int blockSize) throws IOException {
     return new CassandraFile(Util.getCassandraPath(file), Util.getFileName(file), mode, true, keyspace, columnFamily, blockSize);
@@ -171,8 +195,15 @@ public abstract class CassandraDirectory extends BaseDirectory {
     if (directory.exists() && !directory.isDirectory())
       throw new NoSuchDirectoryException("file '" + directory + "' exists but is not a directory");
 
+    // before any file is written, so a directory that predates the index
+    // is never listed with only its new files.
+    directory.completeIndex();
+
     setLockFactory(lockFactory);
 
+    if (DEFAULT_MAX_MERGE_WRITE_MB_PER_SEC > 0) {
+      setMaxMergeWriteMBPerSec(DEFAULT_MAX_MERGE_WRITE_MB_PER_SEC);
+    }
   }
 
   /** Creates an CassandraDirectory instance, trying to pick the
@@ -332,6 +363,7 @@ public abstract class CassandraDirectory extends BaseDirectory {
     if (!isDeleted)
       throw new IOException("Cannot delete " + file);
     staleFiles.remove(name);
+    pendingDescriptors.remove(name);
   }
 
   /** Creates an IndexOutput for the file with the given name. */
@@ -340,7 +372,37 @@ public abstract class CassandraDirectory extends BaseDirectory {
     ensureOpen();
     logger.trace("createOutput {}", name);
     ensureCanWrite(name);
-    return new FSIndexOutput(this, name);
+    return new FSIndexOutput(this, name, context);
+  }
+
+  /** Sets the maximum (approx) MB/sec allowed by all write
+   *  IO performed by merging.  Pass null to have no limit.
+   *
+   *  <p>Merges read and write every byte over the network, and at
+   *  a consistency level that involves all the replicas, so an
+   *  unthrottled merge competes with searches for the whole
+   *  cluster.  Time spent waiting is recorded in the
+   *  {@link CassandraMergeMonitor}.
+   *
+   *  <p><b>NOTE</b>: this is only applied to outputs created after
+   *  it is called. */
+  public void setMaxMergeWriteMBPerSec(Double mbPerSec) {
+    RateLimiter limiter = mergeWriteRateLimiter;
+    if (mbPerSec == null || mbPerSec <= 0) {
+      mergeWriteRateLimiter = null;
+    } else if (limiter != null) {
+      limiter.setMbPerSec(mbPerSec);
+    } else {
+      mergeWriteRateLimiter = new RateLimiter.SimpleRateLimiter(mbPerSec);
+    }
+  }
+
+  /** See {@link #setMaxMergeWriteMBPerSec}.
+   *
+   * @return the limit in MB/sec, or null if merges are not throttled */
+  public Double getMaxMergeWriteMBPerSec() {
+    RateLimiter limiter = mergeWriteRateLimiter;
+    return limiter == null ? null : limiter.getMbPerSec();
   }
 
   protected void ensureCanWrite(String name) throws IOException {
@@ -359,26 +421,91 @@ public abstract class CassandraDirectory extends BaseDirectory {
 
   protected void onIndexOutputClosed(FSIndexOutput io) {
       logger.trace("onIndexOutputClosed {}", io.name);
+      FileDescriptor fd = io.file.file.getFD();
+      if (fd != null) {
+        pendingDescriptors.put(io.name, fd);
+      }
       staleFiles.add(io.name);
   }
 
+  /**
+   * The outputs of this directory write their blocks, and their descriptor
+   * when closed, at {@link #DEFAULT_SYNC_CONSISTENCY} already, so syncing
+   * only flushes the descriptors whose write failed, in a single batch, and
+   * then publishes the generation of a segments file being synced, see
+   * {@link CassandraCommitWatcher}. Files not written through this
+   * directory are reopened and rewritten.
+   */
   @Override
   public void sync(Collection<String> names) throws IOException {
     ensureOpen();
     Set<String> toSync = new HashSet<>(names);
     toSync.retainAll(staleFiles);
+    if (toSync.isEmpty()) {
+      return;
+    }
 
+    List<FileDescriptor> pending = new ArrayList<FileDescriptor>();
+    long generation = -1;
     for (String name : toSync) {
-      fsync(name);
+      if (name.startsWith(IndexFileNames.SEGMENTS + "_")) {
+        generation = Math.max(generation, SegmentInfos.generationFromSegmentsFileName(name));
+      }
+      FileDescriptor fd = pendingDescriptors.get(name);
+      if (fd == null) {
+        // not written through an output of this directory.
+        fsync(name);
+      } else {
+        pending.add(fd);
+      }
     }
-    
-    // fsync the directory itsself, but only if there was any file fsynced before
-    // (otherwise it can happen that the directory does not yet exist)!
-    if (!toSync.isEmpty()) {
-      IOUtils.fsync(directory, true);
+    Map<ByteBuffer, Map<byte[], byte[]>> rows = new HashMap<ByteBuffer, Map<byte[], byte[]>>();
+    Map<FileDescriptor, Long> versions = putUnflushedDescriptors(rows, pending);
+    if (!rows.isEmpty()) {
+      commit(rows);
+      for (Map.Entry<FileDescriptor, Long> committed : versions.entrySet()) {
+        committed.getKey().markFlushed(committed.getValue());
+      }
     }
-    
+
+    if (generation >= 0) {
+      // only once the segments file is durable, for watchers not to look
+      // for a commit that is not there yet.
+      Map<ByteBuffer, Map<byte[], byte[]>> commit = new HashMap<ByteBuffer, Map<byte[], byte[]>>();
+      ColumnOrientedDirectory.putCommitGeneration(commit, Util.getCassandraPath(directory), generation);
+      commit(commit);
+    }
+
     staleFiles.removeAll(toSync);
+    pendingDescriptors.keySet().removeAll(toSync);
+  }
+
+  private synchronized void commit(Map<ByteBuffer, Map<byte[], byte[]>> rows) throws IOException {
+    if (syncClient == null) {
+      syncClient = new CassandraClient("localhost", 9160, true, keyspace, columnFamily, blockSize);
+    }
+    syncClient.setColumns(rows, DEFAULT_SYNC_CONSISTENCY);
+  }
+
+  /**
+   * Adds the descriptors which changed since they were last persisted to
+   * the rows of a commit. The descriptor of an output is persisted when it
+   * is closed already, unless that write failed.
+   *
+   * @return the version of each descriptor added, to be marked as
+   *         persisted once committed
+   */
+  static Map<FileDescriptor, Long> putUnflushedDescriptors(
+      Map<ByteBuffer, Map<byte[], byte[]>> rows,
+      Collection<FileDescriptor> descriptors) throws IOException {
+    Map<FileDescriptor, Long> versions = new HashMap<FileDescriptor, Long>();
+    for (FileDescriptor fd : descriptors) {
+      if (fd.isDirty() && !fd.isDeleted()) {
+        versions.put(fd, fd.getVersion());
+        ColumnOrientedFile.putFileDescriptor(rows, fd);
+      }
+    }
+    return versions;
   }
 
   @Override
@@ -403,6 +530,10 @@ public abstract class CassandraDirectory extends BaseDirectory {
   @Override
   public synchronized void close() {
     isOpen = false;
+    if (syncClient != null) {
+      syncClient.close();
+      syncClient = null;
+    }
   }
 
   /** @return the underlying filesystem directory */
@@ -462,13 +593,36 @@ public abstract class CassandraDirectory extends BaseDirectory {
                                          // that we don't try to close it more
                                          // than once
 
+        // throttles the writes of merges, null for the other outputs.
+        private final RateLimiter rateLimiter;
+
+        private final OpentrackerClientMonitor monitor;
+
         public FSIndexOutput(CassandraDirectory parent, String name)
                 throws IOException {
+            this(parent, name, parent.mode);
+        }
+
+        public FSIndexOutput(CassandraDirectory parent, String name,
+                IOContext context) throws IOException {
             super(CHUNK_SIZE);
             logger.trace("initializing FSIndexOutput name {}", name);
             this.parent = parent;
             this.name = name;
-            file = new CassandraRandomAccessFile(new CassandraFile(Util.getCassandraPath(parent.directory), name, parent.mode, true, parent.keyspace, parent.columnFamily, parent.blockSize), parent.mode, true, parent.keyspace, parent.columnFamily, parent.blockSize);
+            // the files are opened for reading in the READ context.
+            IOContext mode = context == null
+                    || context.context == IOContext.Context.READ ? parent.mode
+                    : context;
+            file = new CassandraRandomAccessFile(new CassandraFile(Util.getCassandraPath(parent.directory), name, mode, true, parent.keyspace, parent.columnFamily, parent.blockSize), mode, true, parent.keyspace, parent.columnFamily, parent.blockSize);
+            // as durable as a commit once closed, for sync not to write the
+            // file again.
+            file.file.setWriteConsistency(DEFAULT_SYNC_CONSISTENCY);
+            if (mode != null && mode.context == IOContext.Context.MERGE) {
+                rateLimiter = parent.mergeWriteRateLimiter;
+            } else {
+                rateLimiter = null;
+            }
+            monitor = rateLimiter == null ? null : CassandraMergeMonitor.getMonitor();
             isOpen = true;
         }
 
@@ -477,6 +631,11 @@ public abstract class CassandraDirectory extends BaseDirectory {
                 throws IOException {
             logger.trace("flushBuffer");
             assert isOpen;
+            if (rateLimiter != null) {
+                long paused = rateLimiter.pause(size);
+                monitor.addCounter(Counter.METRIC_MERGE_THROTTLE_TIME,
+                        paused / 1000000);
+            }
             while (size > 0) {
                 final int toWrite = Math.min(CHUNK_SIZE, size);
                 file.write(b, offset, toWrite);
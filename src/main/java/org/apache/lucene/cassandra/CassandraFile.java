@@ -13,6 +13,7 @@ import java.util.Set;
 import java.util.TreeSet;
 import java.util.concurrent.atomic.AtomicLong;
 
+import org.apache.cassandra.thrift.ConsistencyLevel;
 import org.apache.cassandra.utils.ByteBufferUtil;
 import org.apache.lucene.store.IOContext;
 import org.apache.monitor.Counter;
@@ -124,7 +125,7 @@ public class CassandraFile implements Closeable, MonitorType {
     public String[] list(java.io.FilenameFilter filenameFilter) {
         String[] files = {};
         try {
-            files = columnOrientedDirectory.getFileNames();
+            files = columnOrientedDirectory.getFileNames(getListedDirectory());
         } catch (IOException e) {
             logger.error("unable to list ", e);
         }
@@ -134,13 +135,31 @@ public class CassandraFile implements Closeable, MonitorType {
     public String[] list() {
         String[] files = {};
         try {
-            files = columnOrientedDirectory.getFileNames();
+            files = columnOrientedDirectory.getFileNames(getListedDirectory());
         } catch (IOException e) {
             logger.error("unable to list ", e);
         }
         return files;
     }
 
+    /**
+     * Index the files of the listed directory written before directories
+     * were indexed, unless that was done before.
+     */
+    public void completeIndex() throws IOException {
+        String listed = getListedDirectory();
+        if (!columnOrientedDirectory.isIndexComplete(listed)) {
+            columnOrientedDirectory.completeIndex(listed);
+        }
+    }
+
+    // the files of a directory are created next to it, see
+    // CassandraDirectory, so listing it lists the directory it sits in.
+    private String getListedDirectory() {
+        return cassandraDirectory != null ? cassandraDirectory
+                : FileDescriptorUtils.getDirectory(name);
+    }
+
     public String getCanonicalPath() throws IOException {
         if (cassandraDirectory == null) {
             logger.trace("called getCanonicalPath returning / for file {}", name);
@@ -162,6 +181,7 @@ public class CassandraFile implements Closeable, MonitorType {
                 fd.setDeleted(true);
                 columnOrientedDirectory.setFileDescriptor(fd);
                 cassandraClient.setColumns(ByteBufferUtil.bytes(fd.getName()), null);
+                columnOrientedFile.deleteFileData(fd);
             } catch (IOException e) {
                 logger.error("unable to delete file " + name, e);
                 return false;
@@ -622,12 +642,38 @@ public class CassandraFile implements Closeable, MonitorType {
         return totalRead;
     }
 
+    /**
+     * Persist the descriptor of this file if it was changed since it was
+     * last persisted. Blocks are written as they come, only the descriptor
+     * is held back, see {@link ColumnOrientedFile#writeFileBlocks}.
+     * 
+     * @throws IOException
+     */
+    public void sync() throws IOException {
+        if (fd != null && !fd.isDeleted()) {
+            columnOrientedFile.flushFileDescriptor(fd);
+        }
+    }
+
     @Override
     public void close() {
+        try {
+            sync();
+        } catch (IOException e) {
+            logger.error("unable to save the descriptor of " + name, e);
+        }
         cassandraClient.close();
         cassandraClient = null;
     }
 
+    /**
+     * Acknowledge the blocks and the descriptor of this file at the given
+     * consistency level, see {@link CassandraClient#setWriteConsistency}.
+     */
+    public void setWriteConsistency(ConsistencyLevel writeConsistency) {
+        cassandraClient.setWriteConsistency(writeConsistency);
+    }
+
     public FileDescriptor getFD() {
         logger.trace("called getFD ");
         return fd;
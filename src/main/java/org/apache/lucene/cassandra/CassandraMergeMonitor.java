@@ -0,0 +1,45 @@
+package org.apache.lucene.cassandra;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.monitor.Counter;
+import org.apache.monitor.JmxMonitor;
+import org.apache.monitor.MonitorType;
+import org.apache.monitor.OpentrackerClientMonitor;
+
+/**
+ * The merge metrics of the Cassandra directories of this JVM: merges done
+ * and running, bytes merged, time spent merging and time merge writes were
+ * held back by the rate limiter. The merge rate in MB/s follows from these
+ * and is exposed over JMX along with them.
+ */
+public class CassandraMergeMonitor implements MonitorType {
+
+    private static final CassandraMergeMonitor INSTANCE = new CassandraMergeMonitor();
+
+    /**
+     * @return the monitor shared by the merge schedulers and the directories.
+     */
+    public static OpentrackerClientMonitor getMonitor() {
+        return JmxMonitor.getInstance().getCassandraMonitor(INSTANCE);
+    }
+
+    @Override
+    public Map<Counter, AtomicLong> getCounters() {
+        Map<Counter, AtomicLong> counters = new EnumMap<Counter, AtomicLong>(Counter.class);
+        counters.put(Counter.METRIC_MERGE_COUNT, new AtomicLong(0));
+        counters.put(Counter.METRIC_MERGE_RUNNING, new AtomicLong(0));
+        counters.put(Counter.METRIC_MERGE_BYTES, new AtomicLong(0));
+        counters.put(Counter.METRIC_MERGE_TIME, new AtomicLong(0));
+        counters.put(Counter.METRIC_MERGE_THROTTLE_TIME, new AtomicLong(0));
+        return counters;
+    }
+
+    @Override
+    public String getMonitorName() {
+        return getClass().getName();
+    }
+
+}
@@ -0,0 +1,65 @@
+package org.apache.lucene.cassandra;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.apache.lucene.index.TieredMergePolicy;
+
+/**
+ * A {@link TieredMergePolicy} for indexes stored in Cassandra.
+ *
+ * <p>
+ * Each merge reads every byte of the segments it merges over the network
+ * and writes them back to all the replicas, so the cost of a merge is the
+ * number of bytes it moves rather than the number of segments it removes.
+ * This policy lets more segments build up per tier before merging and
+ * merges more of them at once, so each byte is rewritten fewer times on
+ * its way to the largest tier. Compound files are only built for small
+ * segments, since building one reads the merged segment back and writes it
+ * a second time. The index ends up with a few more segments, in exchange
+ * for a lot less merge traffic.
+ * </p>
+ */
+public class CassandraMergePolicy extends TieredMergePolicy {
+
+    /** number of segments merged at once. */
+    public static final int DEFAULT_MAX_MERGE_AT_ONCE =
+            Integer.getInteger("lucene.cassandra.merge.at.once", 20);
+
+    /** number of segments allowed per tier before merging. */
+    public static final double DEFAULT_SEGMENTS_PER_TIER =
+            Double.parseDouble(System.getProperty(
+                    "lucene.cassandra.merge.segments.per.tier", "20"));
+
+    /** segments smaller than this are considered this size. */
+    public static final double DEFAULT_FLOOR_SEGMENT_MB =
+            Double.parseDouble(System.getProperty(
+                    "lucene.cassandra.merge.floor.mb", "16"));
+
+    /** merged segments larger than this are never turned into a compound file. */
+    public static final double DEFAULT_MAX_CFS_SEGMENT_MB =
+            Double.parseDouble(System.getProperty(
+                    "lucene.cassandra.merge.max.cfs.mb", "64"));
+
+    public CassandraMergePolicy() {
+        super();
+        setMaxMergeAtOnce(DEFAULT_MAX_MERGE_AT_ONCE);
+        setSegmentsPerTier(DEFAULT_SEGMENTS_PER_TIER);
+        setFloorSegmentMB(DEFAULT_FLOOR_SEGMENT_MB);
+        setMaxCFSSegmentSizeMB(DEFAULT_MAX_CFS_SEGMENT_MB);
+    }
+}
@@ -0,0 +1,102 @@
+package org.apache.lucene.cassandra;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+
+import org.apache.lucene.index.ConcurrentMergeScheduler;
+import org.apache.lucene.index.MergePolicy.OneMerge;
+import org.apache.monitor.Counter;
+import org.apache.monitor.OpentrackerClientMonitor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link ConcurrentMergeScheduler} that runs at most
+ * <code>mergesPerNode</code> merges per Cassandra node at the same time, so
+ * merges do not take more of the cluster from search reads as the index
+ * grows. The number of merges, the bytes they read and the time they took
+ * are recorded in the {@link CassandraMergeMonitor}.
+ */
+public class CassandraMergeScheduler extends ConcurrentMergeScheduler {
+
+    private static Logger logger = LoggerFactory.getLogger(CassandraMergeScheduler.class);
+
+    /** number of merges run at the same time per Cassandra node. */
+    public static final int DEFAULT_MERGES_PER_NODE =
+            Integer.getInteger("lucene.cassandra.merge.per.node", 1);
+
+    private final OpentrackerClientMonitor monitor =
+            CassandraMergeMonitor.getMonitor();
+
+    /**
+     * @param nodes
+     *            number of Cassandra nodes holding the index
+     * @param mergesPerNode
+     *            number of merges run at the same time per node
+     */
+    public CassandraMergeScheduler(int nodes, int mergesPerNode) {
+        super();
+        int maxThreadCount = Math.max(1, nodes * mergesPerNode);
+        // indexing threads stall once this many merges are pending.
+        setMaxMergesAndThreads(maxThreadCount + 2, maxThreadCount);
+    }
+
+    /**
+     * Create a scheduler for the nodes of the given keyspace.
+     *
+     * @return the scheduler, limited to a single node if the ring could not
+     *         be described.
+     */
+    public static CassandraMergeScheduler open(String keyspace,
+            String columnFamily, int blockSize) {
+        int nodes = 1;
+        CassandraClient client = null;
+        try {
+            client = new CassandraClient("localhost", 9160, true, keyspace,
+                    columnFamily, blockSize);
+            nodes = client.getNodeCount();
+        } catch (IOException e) {
+            logger.error("unable to count the nodes of " + keyspace, e);
+        } finally {
+            if (client != null) {
+                client.close();
+            }
+        }
+        logger.info("{} nodes, {} merges per node", nodes,
+                DEFAULT_MERGES_PER_NODE);
+        return new CassandraMergeScheduler(nodes, DEFAULT_MERGES_PER_NODE);
+    }
+
+    @Override
+    protected void doMerge(OneMerge merge) throws IOException {
+        long bytes = merge.totalBytesSize();
+        long start = System.currentTimeMillis();
+        monitor.incCounter(Counter.METRIC_MERGE_RUNNING);
+        try {
+            super.doMerge(merge);
+        } finally {
+            long time = System.currentTimeMillis() - start;
+            monitor.addCounter(Counter.METRIC_MERGE_RUNNING, -1);
+            monitor.incCounter(Counter.METRIC_MERGE_COUNT);
+            monitor.addCounter(Counter.METRIC_MERGE_BYTES, bytes);
+            monitor.addCounter(Counter.METRIC_MERGE_TIME, time);
+            logger.debug("merged {} bytes in {} ms", bytes, time);
+        }
+    }
+}
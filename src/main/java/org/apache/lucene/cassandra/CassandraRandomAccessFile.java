@@ -34,7 +34,11 @@ public class CassandraRandomAccessFile implements Serializable {
 
     public void close() throws IOException {
         logger.trace("called close");
-        file.close();
+        try {
+            file.sync();
+        } finally {
+            file.close();
+        }
     }
 
     // Writes n bytes from the specified byte array starting at offset to this file.
@@ -106,22 +110,7 @@ public class CassandraRandomAccessFile implements Serializable {
      */
     public void getFDsync() throws IOException{
         logger.trace("called getFDsync");
-        
-        FileDescriptor fd = file.getFD();
-        
-        String existingFD = FileDescriptorUtils.toString(fd);
-        
-        ColumnOrientedFile cof = new ColumnOrientedFile(file.getCassandraClient());
-        FileDescriptor cassandraFD = cof.getFileDescriptor(file.getName(), file.getBlockSize());
-
-        String cassandraFDString = FileDescriptorUtils.toString(cassandraFD);
-        
-        if (!cassandraFDString.equals(existingFD)) {
-            logger.error("existing fd {}", FileDescriptorUtils.toString(fd));
-            logger.error("cassandra fd {}", FileDescriptorUtils.toString(cassandraFD));
-        }
-        
-        cof.setFileDescriptor(file.getName(), fd);
+        file.sync();
     }
     
     /**
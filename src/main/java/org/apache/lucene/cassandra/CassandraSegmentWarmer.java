@@ -0,0 +1,392 @@
+package org.apache.lucene.cassandra;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.cassandra.concurrent.NamedThreadFactory;
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.index.IndexFileNames;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.search.ReferenceManager;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Loads the files searches need first, for a new commit of an index stored
+ * in Cassandra, before the searcher over it is published.
+ *
+ * <p>
+ * Without it the first queries after a refresh stall on term dictionaries,
+ * norms and doc values being read a block at a time. The warmer fetches the
+ * files of the new commit with one of the chosen extensions, in batches of
+ * blocks and several files in parallel, with
+ * {@link SimpleCassandraDirectory#prefetch(String, Set, int)}. Of compound
+ * files, the blocks holding the sub-files with one of the chosen extensions
+ * are fetched, as listed in their entries file. Files of earlier commits
+ * are not fetched again, as the readers of the segments that did not change
+ * are kept. Of the other files, only the hot blocks recorded by a
+ * {@link BlockAccessRecorder} are fetched, if any.
+ * </p>
+ *
+ * <p>
+ * Register it on the manager of the searcher with
+ * {@link ReferenceManager#addListener(ReferenceManager.RefreshListener)},
+ * and call {@link #warmLatestCommit()} before the first searcher is opened.
+ * Once given a {@link CassandraCommitWatcher} with {@link #watch}, the
+ * warmer takes the generation of the latest commit from it, so refreshes
+ * without a new commit do not list the directory.
+ * </p>
+ */
+public class CassandraSegmentWarmer implements
+        ReferenceManager.RefreshListener, CassandraCommitWatcher.Listener,
+        Closeable {
+
+    private static Logger logger = LoggerFactory.getLogger(CassandraSegmentWarmer.class);
+
+    /** extensions of the files fetched for a new commit. */
+    public static final String DEFAULT_EXTENSIONS = System.getProperty(
+            "lucene.cassandra.warm.extensions", "tim,tip,nvd,nvm,dvd,dvm");
+
+    /** the most recorded blocks fetched by {@link #replay}. */
+    public static final int DEFAULT_TOP_BLOCKS =
+            Integer.getInteger("lucene.cassandra.warm.top", 4096);
+
+    /** number of files fetched in parallel. */
+    public static final int DEFAULT_THREADS =
+            Integer.getInteger("lucene.cassandra.warm.threads", 4);
+
+    // the codec of the entries file of a compound file.
+    private static final String COMPOUND_ENTRIES_CODEC = "CompoundFileWriterEntries";
+
+    private final Directory directory;
+
+    private final Set<String> extensions;
+
+    private final ExecutorService executor;
+
+    private volatile Map<String, Set<Integer>> hotBlocks =
+            Collections.emptyMap();
+
+    // files of the last commit warmed, guarded by this.
+    private Set<String> warmed = new HashSet<String>();
+
+    private long lastGeneration = -1;
+
+    // the generation of the last commit the watcher saw, or -1 while there
+    // is no watcher or it saw none.
+    private volatile long watchedGeneration = -1;
+
+    private final AtomicLong warmedBytes = new AtomicLong();
+
+    private final AtomicLong warmTime = new AtomicLong();
+
+    public CassandraSegmentWarmer(Directory directory) {
+        this(directory, parseExtensions(DEFAULT_EXTENSIONS), DEFAULT_THREADS);
+    }
+
+    /**
+     * @param directory
+     *            the directory the searcher reads from
+     * @param extensions
+     *            extensions of the files to fetch, without the dot
+     * @param threads
+     *            number of files fetched in parallel
+     */
+    public CassandraSegmentWarmer(Directory directory, Set<String> extensions,
+            int threads) {
+        this.directory = directory;
+        this.extensions = new HashSet<String>(extensions);
+        this.executor = Executors.newFixedThreadPool(Math.max(1, threads),
+                new NamedThreadFactory("CassandraSegmentWarmer"));
+    }
+
+    /**
+     * @return the extensions of a comma separated list, such as
+     *         {@link #DEFAULT_EXTENSIONS}.
+     */
+    public static Set<String> parseExtensions(String extensions) {
+        Set<String> parsed = new HashSet<String>();
+        for (String extension : Arrays.asList(extensions.split(","))) {
+            extension = extension.trim();
+            if (extension.startsWith(".")) {
+                extension = extension.substring(1);
+            }
+            if (extension.length() > 0) {
+                parsed.add(extension);
+            }
+        }
+        return parsed;
+    }
+
+    /**
+     * Also fetch the given blocks of files without one of the chosen
+     * extensions, by file name and block number.
+     */
+    public void setHotBlocks(Map<String, Set<Integer>> hotBlocks) {
+        this.hotBlocks = new HashMap<String, Set<Integer>>(hotBlocks);
+    }
+
+    /**
+     * Fetch the files of the latest commit which were not fetched yet.
+     *
+     * @return the number of bytes fetched
+     * @throws IOException
+     */
+    public synchronized long warmLatestCommit() throws IOException {
+        long generation = watchedGeneration;
+        if (generation < 0) {
+            generation = SegmentInfos.getLastCommitGeneration(directory);
+        }
+        if (generation == lastGeneration) {
+            return 0;
+        }
+        long start = System.currentTimeMillis();
+        SegmentInfos infos = new SegmentInfos();
+        if (generation < 0) {
+            infos.read(directory);
+        } else {
+            infos.read(directory, IndexFileNames.fileNameFromGeneration(
+                    IndexFileNames.SEGMENTS, "", generation));
+        }
+        Collection<String> files = infos.files(directory, false);
+        Map<String, Set<Integer>> hot = hotBlocks;
+        List<Future<Long>> futures = new ArrayList<Future<Long>>();
+        for (final String name : files) {
+            final String extension = IndexFileNames.getExtension(name);
+            final Set<Integer> hotBlocks = hot.get(name);
+            final boolean compound =
+                    IndexFileNames.COMPOUND_FILE_EXTENSION.equals(extension);
+            if (warmed.contains(name)
+                    || (!extensions.contains(extension) && hotBlocks == null
+                            && !compound)) {
+                continue;
+            }
+            futures.add(executor.submit(new Callable<Long>() {
+                @Override
+                public Long call() throws IOException {
+                    if (extensions.contains(extension)) {
+                        return prefetch(name, null);
+                    }
+                    Set<Integer> blocks = new HashSet<Integer>();
+                    if (hotBlocks != null) {
+                        blocks.addAll(hotBlocks);
+                    }
+                    if (compound) {
+                        blocks.addAll(getCompoundBlocks(name));
+                    }
+                    return blocks.isEmpty() ? 0 : prefetch(name, blocks);
+                }
+            }));
+        }
+        long bytes = 0;
+        try {
+            for (Future<Long> future : futures) {
+                bytes += future.get();
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+        // forget about the files of older commits.
+        warmed = new HashSet<String>(files);
+        lastGeneration = generation;
+
+        long time = System.currentTimeMillis() - start;
+        warmedBytes.addAndGet(bytes);
+        warmTime.addAndGet(time);
+        logger.info("warmed {} files of commit " + generation + " in {} ms",
+                futures.size(), time);
+        logger.info("warmed {} bytes of {}", bytes, directory);
+        return bytes;
+    }
+
+    /**
+     * Fetch the <code>n</code> blocks of the latest commit the recorder saw
+     * read the most, along with the files with the chosen extensions, even
+     * if they were fetched before. Use it right after loading the blocks the
+     * recorder saved, on startup or when taking over from another node.
+     *
+     * @return the number of bytes fetched
+     * @throws IOException
+     */
+    public synchronized long replay(BlockAccessRecorder recorder, int n)
+            throws IOException {
+        setHotBlocks(recorder.getTopBlocks(n));
+        warmed = new HashSet<String>();
+        lastGeneration = -1;
+        return warmLatestCommit();
+    }
+
+    /**
+     * @return the blocks of the given compound file holding the sub-files
+     *         with one of the chosen extensions
+     * @throws IOException
+     */
+    protected Set<Integer> getCompoundBlocks(String name) throws IOException {
+        List<long[]> ranges = new ArrayList<long[]>();
+        for (Map.Entry<String, long[]> entry : readCompoundEntries(directory,
+                name).entrySet()) {
+            if (extensions.contains(IndexFileNames.getExtension(entry.getKey()))) {
+                ranges.add(entry.getValue());
+            }
+        }
+        if (ranges.isEmpty()) {
+            return Collections.emptySet();
+        }
+        return getBlocks(name, ranges);
+    }
+
+    /**
+     * @return the start and the length of each sub-file of the given
+     *         compound file, by sub-file name without the segment name
+     * @throws IOException
+     */
+    static Map<String, long[]> readCompoundEntries(Directory directory,
+            String name) throws IOException {
+        String entriesName = IndexFileNames.segmentFileName(
+                IndexFileNames.parseSegmentName(name), "",
+                IndexFileNames.COMPOUND_FILE_ENTRIES_EXTENSION);
+        IndexInput in = directory.openInput(entriesName, IOContext.READONCE);
+        try {
+            // the format written by CompoundFileWriter.
+            CodecUtil.checkHeader(in, COMPOUND_ENTRIES_CODEC, 0, 1);
+            int count = in.readVInt();
+            Map<String, long[]> entries = new HashMap<String, long[]>();
+            for (int i = 0; i < count; i++) {
+                String id = in.readString();
+                long offset = in.readLong();
+                long length = in.readLong();
+                entries.put(id, new long[] { offset, length });
+            }
+            return entries;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * @return the indexes of the blocks of the given file holding any byte
+     *         of the given ranges, each given as its start and its length
+     * @throws IOException
+     */
+    protected Set<Integer> getBlocks(String name, List<long[]> ranges)
+            throws IOException {
+        if (!(directory instanceof SimpleCassandraDirectory)) {
+            // other directories read their files in place.
+            return Collections.emptySet();
+        }
+        return ((SimpleCassandraDirectory) directory).getBlocks(name, ranges);
+    }
+
+    /**
+     * Fetch the given file ahead of the input that is going to read it.
+     *
+     * @param blocks
+     *            the numbers of the blocks to fetch, or null for all of them
+     * @return the number of bytes fetched
+     * @throws IOException
+     */
+    protected long prefetch(String name, Set<Integer> blocks)
+            throws IOException {
+        if (!(directory instanceof SimpleCassandraDirectory)) {
+            // other directories read their files in place.
+            return 0;
+        }
+        return ((SimpleCassandraDirectory) directory).prefetch(name, blocks,
+                SimpleCassandraDirectory.DEFAULT_PREFETCH_BLOCKS);
+    }
+
+    /**
+     * Take the generation of the latest commit from the given watcher from
+     * now on, rather than listing the directory on every refresh. Add it
+     * before the listener refreshing the searcher, so the generation is
+     * known by the time the refresh asks for it.
+     */
+    public void watch(CassandraCommitWatcher watcher) {
+        watchedGeneration = watcher.getGeneration();
+        watcher.addListener(this);
+    }
+
+    @Override
+    public void onCommit(long generation) {
+        watchedGeneration = generation;
+    }
+
+    @Override
+    public void beforeRefresh() throws IOException {
+        try {
+            warmLatestCommit();
+        } catch (IOException e) {
+            // a cold searcher is still better than the old one.
+            logger.error("unable to warm the latest commit of " + directory, e);
+        }
+    }
+
+    @Override
+    public void afterRefresh(boolean didRefresh) throws IOException {
+        // the new readers have opened their inputs by now, what is left was
+        // fetched for files they did not open.
+        if (directory instanceof SimpleCassandraDirectory) {
+            ((SimpleCassandraDirectory) directory).clearPrefetched();
+        }
+    }
+
+    /**
+     * @return the number of bytes fetched so far.
+     */
+    public long getWarmedBytes() {
+        return warmedBytes.get();
+    }
+
+    /**
+     * @return the time spent warming so far, in milliseconds.
+     */
+    public long getWarmTimeMillis() {
+        return warmTime.get();
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
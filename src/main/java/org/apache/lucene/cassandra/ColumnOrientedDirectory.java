@@ -1,9 +1,20 @@
 package org.apache.lucene.cassandra;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
 
+import org.apache.cassandra.thrift.Column;
+import org.apache.cassandra.thrift.KeySlice;
 import org.apache.cassandra.utils.ByteBufferUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -14,6 +25,13 @@ import org.slf4j.LoggerFactory;
  * treats each row in the column family as a file underneath the directory.
  * 
  * <p>
+ * Several directories may share a column family. The keys of the rows of a
+ * directory are prefixed with the directory, and each directory keeps an
+ * index row listing its files along with their file ids, so that listing or
+ * dropping one directory only touches the rows of that directory.
+ * </p>
+ * 
+ * <p>
  * This class in turn relies on the {@link CassandraClient} for all
  * low-level gets and puts to the Cassandra server. More importantly, it
  * does not require that the {@link CassandraClient} to be familiar with the
@@ -35,31 +53,391 @@ public class ColumnOrientedDirectory {
         systemColumns.add(descriptorColumn.getBytes());
     }
     
+    // The suffix of the key of the row indexing the files of a directory.
+    protected static final String indexRowSuffix = "#DIRECTORY";
+
+    // The column of the index row marking that the files written before
+    // directories were indexed have been added to the index.
+    protected static final byte[] indexCompleteColumn = "#COMPLETE".getBytes();
+
+    // The suffix of the key of the row holding the generation of the last
+    // commit of a directory.
+    protected static final String commitRowSuffix = "#COMMIT";
+
+    // The column of the commit row holding the generation.
+    protected static final byte[] generationColumn = "GENERATION".getBytes();
+
+    // The suffix of the key of the row holding the blocks of a directory
+    // read the most, as recorded by BlockAccessRecorder.
+    protected static final String hotBlocksRowSuffix = "#HOTBLOCKS";
+
+    // The column of the hot blocks row holding the recorded blocks.
+    protected static final byte[] hotBlocksColumn = "BLOCKS".getBytes();
+
+    // The number of rows fetched at a time when listing the directory.
+    public static final int DEFAULT_LIST_PAGE_SIZE =
+            Integer.getInteger("lucene.cassandra.list.pagesize", 1024);
+
     CassandraClient cassandraClient;
     int blockSize;
+    int listPageSize;
     
     public ColumnOrientedDirectory(CassandraClient cassandraClient, int blockSize) {
+        this(cassandraClient, blockSize, DEFAULT_LIST_PAGE_SIZE);
+    }
+
+    public ColumnOrientedDirectory(CassandraClient cassandraClient,
+            int blockSize, int listPageSize) {
         this.cassandraClient = cassandraClient;
         this.blockSize = blockSize;
+        this.listPageSize = listPageSize;
     }
     
     /**
-     * Note, count in cassandra is of type int, should it should be possible to list
-     * Integer.MAX_VALUE but when that value is specified, cassandra throw 
-     * exception.  So just a random number right now, listing 2 power of 17.
+     * List the directory one page of <code>listPageSize</code> rows at a
+     * time, so that the memory used does not depend on the size of the
+     * directory.
      * 
      * @return the names of the files in this directory
      * @throws IOException
      */
     public String[] getFileNames() throws IOException {
-        byte[][] keys = cassandraClient.getKeys(systemColumns, 131072, false);
-        List<String> fileNames = new ArrayList<String>();
-        for (byte[] key : keys) {
-            fileNames.add(new String(key));
+        FileNameIterator it = new FileNameIterator();
+        while (!it.lastPage) {
+            it.fetchPage();
+        }
+        return it.fileNames.toArray(new String[] {});
+    }
+
+    /**
+     * @return the names of the files in this directory, fetched lazily page
+     *         by page
+     */
+    public Iterator<String> iterateFileNames() {
+        return new FileNameIterator();
+    }
+
+    /**
+     * Pages through the rows of the column family. Each page starts at the
+     * last key of the previous one, which is therefore skipped.
+     */
+    private class FileNameIterator implements Iterator<String> {
+
+        private final LinkedList<String> fileNames = new LinkedList<String>();
+
+        private byte[] lastKey = new byte[0];
+
+        private boolean lastPage = false;
+
+        public boolean hasNext() {
+            try {
+                while (fileNames.isEmpty() && !lastPage) {
+                    fetchPage();
+                }
+            } catch (IOException e) {
+                throw new RuntimeException("Unable to list files", e);
+            }
+            return !fileNames.isEmpty();
+        }
+
+        public String next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return fileNames.removeFirst();
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
         }
+
+        private void fetchPage() throws IOException {
+            boolean firstPage = lastKey.length == 0;
+            int count = firstPage ? listPageSize : listPageSize + 1;
+            List<KeySlice> keySlices =
+                    cassandraClient.getKeySlices(systemColumns, lastKey, count);
+            lastPage = keySlices.size() < count;
+            for (KeySlice keySlice : keySlices) {
+                byte[] key = ByteBufferUtil.getArray(keySlice.key);
+                if (!firstPage && Arrays.equals(key, lastKey)) {
+                    continue;
+                }
+                if (cassandraClient.isListed(keySlice, false)) {
+                    fileNames.add(new String(key));
+                }
+            }
+            if (!keySlices.isEmpty()) {
+                lastKey = ByteBufferUtil.getArray(keySlices.get(keySlices.size() - 1).key);
+            }
+        }
+    }
+
+    /**
+     * List the files of the given directory from its index row, one page of
+     * <code>listPageSize</code> columns at a time.
+     * 
+     * @param directory
+     *            the directory, with or without a trailing separator
+     * @return the names of the files in the directory
+     * @throws IOException
+     */
+    public String[] getFileNames(String directory) throws IOException {
+        final List<String> fileNames = new ArrayList<String>();
+        scanIndex(toDirectory(directory), new IndexVisitor() {
+            public void visit(List<Column> entries) {
+                for (Column entry : entries) {
+                    fileNames.add(new String(entry.getName()));
+                }
+            }
+        });
         return fileNames.toArray(new String[] {});
     }
 
+    /**
+     * Delete every file of the given directory, their blocks and the index
+     * of the directory. Files of other directories are left untouched.
+     * 
+     * @param directory
+     *            the directory, with or without a trailing separator
+     * @throws IOException
+     */
+    public void deleteDirectory(String directory) throws IOException {
+        String dir = toDirectory(directory);
+        scanIndex(dir, new IndexVisitor() {
+            public void visit(List<Column> entries) throws IOException {
+                Map<ByteBuffer, Map<byte[], byte[]>> rows =
+                        new HashMap<ByteBuffer, Map<byte[], byte[]>>();
+                List<byte[]> fileNames = new ArrayList<byte[]>();
+                for (Column entry : entries) {
+                    fileNames.add(entry.getName());
+                    rows.put(ByteBuffer.wrap(entry.getName()), null);
+                    rows.put(ByteBuffer.wrap(entry.getValue()), null);
+                }
+                // the descriptors tell which stripes the files span.
+                Set<byte[]> columns = new HashSet<byte[]>(systemColumns);
+                for (Map<byte[], byte[]> descriptor : cassandraClient
+                        .getColumns(fileNames, columns).values()) {
+                    if (descriptor.isEmpty()) {
+                        continue;
+                    }
+                    FileDescriptor fileDescriptor = FileDescriptorUtils.fromBytes(
+                            descriptor.values().iterator().next(), blockSize);
+                    if (fileDescriptor == null) {
+                        continue;
+                    }
+                    for (String key : ColumnOrientedFile
+                            .getDataKeys(fileDescriptor)) {
+                        rows.put(ByteBufferUtil.bytes(key), null);
+                    }
+                }
+                if (!rows.isEmpty()) {
+                    cassandraClient.setColumns(rows);
+                }
+            }
+        });
+        cassandraClient.setColumns(getIndexKey(dir), null);
+    }
+
+    /**
+     * Add the entry of the given file to the index of its directory, or
+     * remove it if there is no file id, within a batch of row mutations.
+     * 
+     * @param rows
+     *            the batch of row mutations
+     * @param fileName
+     *            the name of the file
+     * @param fileId
+     *            the file id, or null to remove the entry
+     */
+    public static void putIndexEntry(Map<ByteBuffer, Map<byte[], byte[]>> rows,
+            String fileName, String fileId) {
+        ByteBuffer indexKey =
+                getIndexKey(FileDescriptorUtils.getDirectory(fileName));
+        Map<byte[], byte[]> entries = rows.get(indexKey);
+        if (entries == null) {
+            entries = new BlockMap();
+            rows.put(indexKey, entries);
+        }
+        entries.put(fileName.getBytes(),
+                fileId == null ? null : fileId.getBytes());
+    }
+
+    /**
+     * Set the generation of the last commit of the given directory within a
+     * batch of row mutations.
+     * 
+     * @param rows
+     *            the batch of row mutations
+     * @param directory
+     *            the directory the index is stored in
+     * @param generation
+     *            the generation of the segments file just committed
+     */
+    public static void putCommitGeneration(
+            Map<ByteBuffer, Map<byte[], byte[]>> rows, String directory,
+            long generation) {
+        Map<byte[], byte[]> columns = new BlockMap();
+        columns.put(generationColumn, Long.toString(generation).getBytes());
+        rows.put(getCommitKey(directory), columns);
+    }
+
+    /**
+     * Read the generation of the last commit of the given directory, a
+     * single column, rather than listing the directory for segments files.
+     * 
+     * @param directory
+     *            the directory the index is stored in
+     * @return the generation, or -1 if nothing was committed yet
+     * @throws IOException
+     */
+    public long getCommitGeneration(String directory) throws IOException {
+        byte[] generation = cassandraClient.getColumn(
+                ByteBufferUtil.getArray(getCommitKey(directory)),
+                generationColumn);
+        return generation == null ? -1 : Long.parseLong(new String(generation));
+    }
+
+    /**
+     * Store the blocks of the given directory read the most, replacing the
+     * ones stored before.
+     * 
+     * @param directory
+     *            the directory the index is stored in
+     * @param hotBlocks
+     *            the blocks, as written by {@link BlockAccessRecorder}
+     * @throws IOException
+     */
+    public void setHotBlocks(String directory, byte[] hotBlocks)
+            throws IOException {
+        Map<byte[], byte[]> columns = new BlockMap();
+        columns.put(hotBlocksColumn, hotBlocks);
+        cassandraClient.setColumns(getHotBlocksKey(directory), columns);
+    }
+
+    /**
+     * Read the blocks of the given directory read the most.
+     * 
+     * @param directory
+     *            the directory the index is stored in
+     * @return the blocks, as written by {@link BlockAccessRecorder}, or null
+     *         if none were stored
+     * @throws IOException
+     */
+    public byte[] getHotBlocks(String directory) throws IOException {
+        return cassandraClient.getColumn(
+                ByteBufferUtil.getArray(getHotBlocksKey(directory)),
+                hotBlocksColumn);
+    }
+
+    protected static ByteBuffer getHotBlocksKey(String directory) {
+        return ByteBufferUtil.bytes(directory + hotBlocksRowSuffix);
+    }
+
+    protected static ByteBuffer getCommitKey(String directory) {
+        return ByteBufferUtil.bytes(directory + commitRowSuffix);
+    }
+
+    protected static ByteBuffer getIndexKey(String directory) {
+        return ByteBufferUtil.bytes(directory + indexRowSuffix);
+    }
+
+    private static String toDirectory(String directory) {
+        return directory.isEmpty() || directory.endsWith("/") ? directory
+                : directory + "/";
+    }
+
+    private interface IndexVisitor {
+        void visit(List<Column> entries) throws IOException;
+    }
+
+    /**
+     * Hands the entries of the index of the directory to the visitor, page
+     * by page. Files of a directory written before directories were indexed
+     * are not listed until {@link #completeIndex(String)} was run for it.
+     */
+    private void scanIndex(String directory, IndexVisitor visitor)
+            throws IOException {
+        byte[] indexKey = ByteBufferUtil.getArray(getIndexKey(directory));
+        byte[] lastColumn = new byte[0];
+        boolean firstPage = true;
+        boolean lastPage = false;
+        while (!lastPage) {
+            int count = firstPage ? listPageSize : listPageSize + 1;
+            List<Column> columns =
+                    cassandraClient.getColumns(indexKey, lastColumn, count);
+            lastPage = columns.size() < count;
+            List<Column> entries = new ArrayList<Column>();
+            for (Column column : columns) {
+                if (!firstPage && Arrays.equals(column.getName(), lastColumn)) {
+                    continue;
+                }
+                if (Arrays.equals(column.getName(), indexCompleteColumn)) {
+                    continue;
+                }
+                entries.add(column);
+            }
+            if (firstPage && !columns.isEmpty()
+                    && !Arrays.equals(columns.get(0).getName(), indexCompleteColumn)) {
+                // the marker sorts before every file name, its absence
+                // means the directory predates the index.
+                logger.warn("index of directory {} is not complete", directory);
+            }
+            visitor.visit(entries);
+            if (!columns.isEmpty()) {
+                lastColumn = columns.get(columns.size() - 1).getName();
+            }
+            firstPage = false;
+        }
+    }
+
+    /**
+     * @param directory
+     *            the directory, with or without a trailing separator
+     * @return whether {@link #completeIndex(String)} was run for the
+     *         directory
+     * @throws IOException
+     */
+    public boolean isIndexComplete(String directory) throws IOException {
+        return cassandraClient.getColumn(
+                ByteBufferUtil.getArray(getIndexKey(toDirectory(directory))),
+                indexCompleteColumn) != null;
+    }
+
+    /**
+     * Index the files of the directory written before directories were
+     * indexed, by walking the whole column family once. This is a one-off
+     * migration for such directories, run when the directory is opened
+     * without being marked complete, never when listing.
+     * 
+     * @param directory
+     *            the directory, with or without a trailing separator
+     * @throws IOException
+     */
+    public void completeIndex(String directory) throws IOException {
+        directory = toDirectory(directory);
+        logger.info("indexing files of directory {}", directory);
+        ByteBuffer indexKey = getIndexKey(directory);
+        Map<byte[], byte[]> entries = new BlockMap();
+        Iterator<String> it = iterateFileNames();
+        while (it.hasNext()) {
+            String fileName = it.next();
+            if (!FileDescriptorUtils.getDirectory(fileName).equals(directory)) {
+                continue;
+            }
+            FileDescriptor fileDescriptor = getFileDescriptor(fileName);
+            if (fileDescriptor != null) {
+                entries.put(fileName.getBytes(),
+                        fileDescriptor.getFileId().getBytes());
+            }
+            if (entries.size() >= listPageSize) {
+                cassandraClient.setColumns(indexKey, entries);
+                entries.clear();
+            }
+        }
+        entries.put(indexCompleteColumn, new byte[0]);
+        cassandraClient.setColumns(indexKey, entries);
+    }
+
     /**
      * Return the file descriptor for the file of the given name. If the
      * file cannot be found, then return null, instead of trying to create
@@ -104,7 +482,8 @@ public class ColumnOrientedDirectory {
     }
 
     /**
-     * Save the given file descriptor.
+     * Save the given file descriptor, and its entry in the index of its
+     * directory.
      * 
      * @param fileDescriptor
      *            the file descriptor being saved
@@ -112,11 +491,17 @@ public class ColumnOrientedDirectory {
      */
     public void setFileDescriptor(FileDescriptor fileDescriptor)
             throws IOException {
+        long version = fileDescriptor.getVersion();
         BlockMap blockMap = new BlockMap();
         blockMap.put(descriptorColumn,
                 FileDescriptorUtils.toString(fileDescriptor));
-        cassandraClient.setColumns(
-                ByteBufferUtil.bytes(fileDescriptor.getName()), blockMap);
+        Map<ByteBuffer, Map<byte[], byte[]>> rows =
+                new HashMap<ByteBuffer, Map<byte[], byte[]>>();
+        rows.put(ByteBufferUtil.bytes(fileDescriptor.getName()), blockMap);
+        putIndexEntry(rows, fileDescriptor.getName(),
+                fileDescriptor.isDeleted() ? null : fileDescriptor.getFileId());
+        cassandraClient.setColumns(rows);
+        fileDescriptor.markFlushed(version);
     }
 
     /**
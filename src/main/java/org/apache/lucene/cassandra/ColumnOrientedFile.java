@@ -2,12 +2,14 @@ package org.apache.lucene.cassandra;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
 import org.apache.cassandra.utils.ByteBufferUtil;
 import org.apache.thrift.transport.TTransportException;
@@ -16,11 +18,29 @@ import org.slf4j.LoggerFactory;
 
 /**
  * The <code>ColumnOrientedFile</code> captures the mapping of the concept
- * of a file to a row in Cassandra. Specifically, it considers each column
- * in the row as a block in the file. Furthermore, it uses one of the
- * columns to hold the {@link FileDescriptor} for the file, in the form of a
- * JSON string (which serves to make the "file" readable by other,
- * potentially disparate, clients).
+ * of a file to rows in Cassandra. Specifically, it considers each column
+ * in the data row of the file as a block in the file. The data row is keyed
+ * by the stable file id of the file, while the row keyed by the file name
+ * holds the {@link FileDescriptor} for the file, in the form of a JSON
+ * string (which serves to make the "file" readable by other, potentially
+ * disparate, clients). Renaming a file therefore only moves its descriptor.
+ * Files written before file ids were introduced use their name as file id,
+ * and so keep their blocks next to their descriptor.
+ * 
+ * <p>
+ * A striped file (see {@link FileDescriptor#getBlocksPerStripe()}) spreads
+ * its blocks over several data rows: the first stripe lives in the row
+ * keyed by the file id, stripe n in the row keyed by
+ * <code>fileId:n</code>. The number of rows thus grows with the size of the
+ * file, while the width of each row stays bounded.
+ * </p>
+ * 
+ * <p>
+ * Files no larger than <code>inlineThreshold</code> keep their blocks inline
+ * in the descriptor, so that they are written with a single mutation and
+ * read with the same request that loads the descriptor. They move to data
+ * rows for good once they grow past the threshold.
+ * </p>
  * 
  * <p>
  * This class in turn relies on the {@link CassandraClient} for all
@@ -37,17 +57,55 @@ public class ColumnOrientedFile {
     
     // The name of the column that holds the file descriptor.
     protected static final String descriptorColumn = "DESCRIPTOR";
+    // The size up to which the data of new files is kept in the descriptor.
+    public static final int DEFAULT_INLINE_THRESHOLD =
+            Integer.getInteger("lucene.cassandra.inline.threshold", 4096);
+
+    // The number of blocks, and the milliseconds, after which the
+    // descriptor of a file being written is persisted.
+    public static final int DEFAULT_DESCRIPTOR_FLUSH_BLOCKS =
+            Integer.getInteger("lucene.cassandra.descriptor.flush.blocks", 64);
+    public static final long DEFAULT_DESCRIPTOR_FLUSH_INTERVAL =
+            Long.getLong("lucene.cassandra.descriptor.flush.ms", 5000);
+
     private CassandraClient cassandraClient = null;
+
+    private int inlineThreshold;
+
+    private int descriptorFlushBlocks;
+
+    private long descriptorFlushInterval;
     
     public ColumnOrientedFile(CassandraClient cassandraClient) {
+        this(cassandraClient, DEFAULT_INLINE_THRESHOLD);
+    }
+
+    public ColumnOrientedFile(CassandraClient cassandraClient,
+            int inlineThreshold) {
+        this(cassandraClient, inlineThreshold,
+                DEFAULT_DESCRIPTOR_FLUSH_BLOCKS,
+                DEFAULT_DESCRIPTOR_FLUSH_INTERVAL);
+    }
+
+    public ColumnOrientedFile(CassandraClient cassandraClient,
+            int inlineThreshold, int descriptorFlushBlocks,
+            long descriptorFlushInterval) {
         this.cassandraClient = cassandraClient;
+        this.inlineThreshold = inlineThreshold;
+        this.descriptorFlushBlocks = descriptorFlushBlocks;
+        this.descriptorFlushInterval = descriptorFlushInterval;
     }
     
     /**
      * Write the given blocks in the file referenced by the given
      * descriptor.
      * 
-     * Write the blocks into column family reference by key rowname fileDescriptor.
+     * Only the blocks are written. The descriptor is marked dirty, and is
+     * persisted by {@link #flushFileDescriptor(FileDescriptor)} once the
+     * file is synced or closed, or once <code>descriptorFlushBlocks</code>
+     * blocks or <code>descriptorFlushInterval</code> milliseconds went by
+     * since it was last persisted. Since the blocks always go first, a
+     * persisted descriptor never refers to blocks which are not there.
      * 
      * @param fileDescriptor
      *            the descriptor of the file being written to
@@ -58,13 +116,45 @@ public class ColumnOrientedFile {
     public void writeFileBlocks(FileDescriptor fileDescriptor,
             BlockMap blocksToBeWritten) throws IOException {
         logger.trace("writeFileBlocks {}", fileDescriptor.getName());
-        // System.out.println("The file descriptor saved was " +
-        // FileDescriptorUtils.toJSON(fileDescriptor));
-        blocksToBeWritten.put(descriptorColumn,
-                FileDescriptorUtils.toString(fileDescriptor));
-        cassandraClient.setColumns(
-                ByteBufferUtil.bytes(fileDescriptor.getName()),
-                blocksToBeWritten);
+        fileDescriptor.markDirty(blocksToBeWritten.size());
+        if (fileDescriptor.isDataInDescriptorRow()) {
+            if (!blocksToBeWritten.isEmpty()) {
+                cassandraClient.setColumns(
+                        ByteBufferUtil.bytes(fileDescriptor.getName()),
+                        blocksToBeWritten);
+            }
+        } else if (fileDescriptor.isInline()
+                && fileDescriptor.getLength() <= inlineThreshold) {
+            // the data is part of the descriptor, it goes with it.
+            fileDescriptor.getInlineBlocks().putAll(blocksToBeWritten);
+        } else {
+            if (fileDescriptor.isInline()) {
+                // the file outgrew the descriptor, move all of it out.
+                BlockMap inlineBlocks = fileDescriptor.getInlineBlocks();
+                inlineBlocks.putAll(blocksToBeWritten);
+                blocksToBeWritten = inlineBlocks;
+                fileDescriptor.setInlineBlocks(null);
+            }
+            if (!blocksToBeWritten.isEmpty()) {
+                Map<ByteBuffer, Map<byte[], byte[]>> rows =
+                        new HashMap<ByteBuffer, Map<byte[], byte[]>>();
+                for (Map.Entry<byte[], byte[]> block : blocksToBeWritten.entrySet()) {
+                    ByteBuffer key = ByteBufferUtil.bytes(
+                            getDataKey(fileDescriptor, block.getKey()));
+                    Map<byte[], byte[]> columns = rows.get(key);
+                    if (columns == null) {
+                        columns = new BlockMap();
+                        rows.put(key, columns);
+                    }
+                    columns.put(block.getKey(), block.getValue());
+                }
+                cassandraClient.setColumns(rows);
+            }
+        }
+        if (fileDescriptor.getUnflushedBlocks() >= descriptorFlushBlocks
+                || System.currentTimeMillis() - fileDescriptor.getFlushedAt() >= descriptorFlushInterval) {
+            flushFileDescriptor(fileDescriptor);
+        }
         try {
             cassandraClient.flush();
         } catch (TTransportException e) {
@@ -73,6 +163,45 @@ public class ColumnOrientedFile {
         }
     }
 
+    /**
+     * Add the given descriptor to a set of rows being written in a single
+     * batch.
+     * 
+     * @param rows
+     *            the rows of the batch, by row key
+     * @param fileDescriptor
+     *            the descriptor of the file
+     * @throws IOException
+     */
+    public static void putFileDescriptor(
+            Map<ByteBuffer, Map<byte[], byte[]>> rows,
+            FileDescriptor fileDescriptor) throws IOException {
+        Map<byte[], byte[]> column = new HashMap<byte[], byte[]>();
+        column.put(descriptorColumn.getBytes(),
+                FileDescriptorUtils.toBytes(fileDescriptor));
+        rows.put(ByteBufferUtil.bytes(fileDescriptor.getName()), column);
+    }
+
+    /**
+     * Persist the given descriptor if it was changed since it was last
+     * persisted.
+     * 
+     * @param fileDescriptor
+     *            the descriptor of the file
+     * @return true if the descriptor was written
+     * @throws IOException
+     */
+    public boolean flushFileDescriptor(FileDescriptor fileDescriptor)
+            throws IOException {
+        if (!fileDescriptor.isDirty()) {
+            return false;
+        }
+        logger.trace("flushing descriptor {} version {}",
+                fileDescriptor.getName(), fileDescriptor.getVersion());
+        setFileDescriptor(fileDescriptor.getName(), fileDescriptor);
+        return true;
+    }
+
     /**
      * Read the given blocks from the file referenced by the given
      * descriptor.
@@ -87,12 +216,79 @@ public class ColumnOrientedFile {
     public BlockMap readFileBlocks(FileDescriptor fileDescriptor,
             Set<byte[]> blockNames) throws IOException {
         logger.trace("readFileBlocks {}", fileDescriptor.getName());
-        Map<byte[], byte[]> columns = cassandraClient.getColumns(fileDescriptor.getName().getBytes(), blockNames);
+        if (fileDescriptor.isInline()) {
+            BlockMap blockMap = new BlockMap();
+            for (byte[] blockName : blockNames) {
+                byte[] block = fileDescriptor.getInlineBlocks().get(blockName);
+                if (block != null) {
+                    blockMap.put(blockName, block);
+                }
+            }
+            return blockMap;
+        }
+        Map<String, Set<byte[]>> stripes = groupByDataKey(fileDescriptor, blockNames);
         BlockMap blockMap = new BlockMap();
-        blockMap.putAll(columns);
+        if (stripes.size() <= 1) {
+            String key = stripes.isEmpty() ? fileDescriptor.getFileId()
+                    : stripes.keySet().iterator().next();
+            blockMap.putAll(cassandraClient.getColumns(key.getBytes(), blockNames));
+        } else {
+            // one request fanning out to the replicas of every stripe.
+            List<byte[]> keys = new ArrayList<byte[]>();
+            for (String key : stripes.keySet()) {
+                keys.add(key.getBytes());
+            }
+            for (Map<byte[], byte[]> columns : cassandraClient.getColumns(keys,
+                    blockNames).values()) {
+                blockMap.putAll(columns);
+            }
+        }
         return blockMap;
     }
     
+    /**
+     * Read the given blocks from the file referenced by the given
+     * descriptor, as views of the buffers they were received in rather than
+     * copies of them.
+     * 
+     * @param fileDescriptor
+     *            the descriptor of the file being read
+     * @param blockNames
+     *            the (unique) set of block names to read from
+     * @return the map of block names to read-only values
+     * @throws IOException
+     */
+    public Map<byte[], ByteBuffer> readFileBlockBuffers(
+            FileDescriptor fileDescriptor, Set<byte[]> blockNames)
+            throws IOException {
+        logger.trace("readFileBlockBuffers {}", fileDescriptor.getName());
+        Map<byte[], ByteBuffer> blockMap =
+                new TreeMap<byte[], ByteBuffer>(BlockMap.BYTE_ARRAY_COMPARATOR);
+        if (fileDescriptor.isInline()) {
+            for (byte[] blockName : blockNames) {
+                byte[] block = fileDescriptor.getInlineBlocks().get(blockName);
+                if (block != null) {
+                    blockMap.put(blockName, ByteBuffer.wrap(block)
+                            .asReadOnlyBuffer());
+                }
+            }
+            return blockMap;
+        }
+        Map<String, Set<byte[]>> stripes = groupByDataKey(fileDescriptor, blockNames);
+        List<byte[]> keys = new ArrayList<byte[]>();
+        for (String key : stripes.keySet()) {
+            keys.add(key.getBytes());
+        }
+        if (keys.isEmpty()) {
+            keys.add(fileDescriptor.getFileId().getBytes());
+        }
+        for (Map<byte[], ByteBuffer> columns : cassandraClient
+                .getColumnBuffers(keys, blockNames).values()) {
+            blockMap.putAll(columns);
+        }
+        return blockMap;
+    }
+
     public FileDescriptor getFileDescriptor(String fileName, int blockSize) throws IOException {
         byte[] fd = cassandraClient.getColumn(fileName.getBytes(), descriptorColumn.getBytes());
         return FileDescriptorUtils.fromBytes(fd, blockSize);
@@ -100,13 +296,16 @@ public class ColumnOrientedFile {
     
     public void setFileDescriptor(String fileName, FileDescriptor fileDescriptor) throws IOException {
         ByteBuffer key = ByteBufferUtil.bytes(fileName);
+        long version = fileDescriptor.getVersion();
         Map<byte[], byte[]> column = new HashMap<byte[], byte[]>();
         column.put(descriptorColumn.getBytes(), FileDescriptorUtils.toBytes(fileDescriptor));
         cassandraClient.setColumns(key, column);
+        fileDescriptor.markFlushed(version);
     }
 
     /**
-     * Delete file block.
+     * Delete file block. The blocks are deleted in a single mutation built
+     * from the descriptor, their data is never read.
      *
      * @param fileDescriptor
      *            the file descriptor specified which file to remove.
@@ -122,41 +321,178 @@ public class ColumnOrientedFile {
             boolean onlyDeleteFileBlocksWithinFileDescriptor)
             throws IOException {
 
-        if (onlyDeleteFileBlocksWithinFileDescriptor) {
+        Set<byte[]> columnNames = new TreeSet<byte[]>(BlockMap.BYTE_ARRAY_COMPARATOR);
+        for (FileBlock fileBlock : fileDescriptor.getBlocks()) {
+            columnNames.add(fileBlock.getBlockName().getBytes());
+        }
 
-            List<FileBlock> fileBlocks = fileDescriptor.getBlocks();
+        if (fileDescriptor.isInline()) {
 
-            for (FileBlock fileBlock : fileBlocks) {
-                Map<byte[], byte[]> column = new HashMap<>();
-                column.put(fileBlock.getBlockName().getBytes(), null);
-                cassandraClient.setColumns(
-                        ByteBufferUtil.bytes(fileDescriptor.getName()), column);
+            // nothing was ever written outside of the descriptor.
+            if (onlyDeleteFileBlocksWithinFileDescriptor) {
+                fileDescriptor.getInlineBlocks().keySet().removeAll(columnNames);
+            } else {
+                fileDescriptor.getInlineBlocks().clear();
+            }
+
+        } else if (onlyDeleteFileBlocksWithinFileDescriptor) {
+
+            for (Map.Entry<String, Set<byte[]>> stripe : groupByDataKey(
+                    fileDescriptor, columnNames).entrySet()) {
+                cassandraClient.deleteColumns(
+                        ByteBufferUtil.bytes(stripe.getKey()), stripe.getValue());
             }
 
+        } else if (!fileDescriptor.isDataInDescriptorRow()) {
+
+            // the data rows hold nothing but blocks.
+            deleteFileData(fileDescriptor);
+
         } else {
 
-            Map<byte[], byte[]> fileBlocks =
-                    cassandraClient.getColumns(fileDescriptor.getName()
-                            .getBytes());
+            deleteDescriptorRowBlocks(fileDescriptor);
 
-            for (Entry<byte[], byte[]> fileBlock : fileBlocks.entrySet()) {
-                String fileName = new String(fileBlock.getKey());
-                if (descriptorColumn.equals(fileName)) {
-                    continue;
-                }
-                Map<byte[], byte[]> column = new HashMap<>();
-                column.put(fileBlock.getKey(), null);
-                cassandraClient.setColumns(
-                        ByteBufferUtil.bytes(fileDescriptor.getName()), column);
+        }
+    }
+
+    /**
+     * Delete the blocks of a file written before file ids were introduced,
+     * which live in the row of its descriptor, by name. The descriptor
+     * itself is left to the caller.
+     * 
+     * @param fileDescriptor
+     *            the descriptor of the file
+     * @throws IOException
+     */
+    private void deleteDescriptorRowBlocks(FileDescriptor fileDescriptor)
+            throws IOException {
+        Set<byte[]> columnNames = new TreeSet<byte[]>(BlockMap.BYTE_ARRAY_COMPARATOR);
+        int lastBlockNumber = -1;
+        for (FileBlock fileBlock : fileDescriptor.getBlocks()) {
+            lastBlockNumber = Math.max(lastBlockNumber, fileBlock.getBlockNumber());
+        }
+        // block numbers are allocated in sequence, so every block ever
+        // written is named after a number up to the last one in use.
+        for (int blockNumber = 0; blockNumber <= lastBlockNumber; blockNumber++) {
+            columnNames.add((FileBlock.BLOCK_COLUMN_NAME_PREFIX + blockNumber)
+                    .getBytes());
+        }
+        if (!columnNames.isEmpty()) {
+            cassandraClient.deleteColumns(
+                    ByteBufferUtil.bytes(fileDescriptor.getFileId()), columnNames);
+        }
+    }
+
+    /**
+     * Delete the data rows of the file, if its blocks do not live in the row
+     * of its descriptor. The descriptor row itself is left to the caller.
+     * 
+     * @param fileDescriptor
+     *            the descriptor of the file being deleted
+     * @throws IOException
+     */
+    public void deleteFileData(FileDescriptor fileDescriptor)
+            throws IOException {
+        if (!fileDescriptor.isDataInDescriptorRow() && !fileDescriptor.isInline()) {
+            Map<ByteBuffer, Map<byte[], byte[]>> rows =
+                    new HashMap<ByteBuffer, Map<byte[], byte[]>>();
+            for (String key : getDataKeys(fileDescriptor)) {
+                rows.put(ByteBufferUtil.bytes(key), null);
+            }
+            cassandraClient.setColumns(rows);
+        }
+    }
+
+    /**
+     * Return the key of the row holding the block of the given name.
+     * 
+     * @param fileDescriptor
+     *            the descriptor of the file
+     * @param blockName
+     *            the name of the block
+     * @return the key of the data row of the block
+     */
+    public static String getDataKey(FileDescriptor fileDescriptor,
+            byte[] blockName) {
+        String name = new String(blockName);
+        if (!name.startsWith(FileBlock.BLOCK_COLUMN_NAME_PREFIX)) {
+            return fileDescriptor.getFileId();
+        }
+        return getDataKey(fileDescriptor, Integer.parseInt(name
+                .substring(FileBlock.BLOCK_COLUMN_NAME_PREFIX.length())));
+    }
+
+    /**
+     * Return the key of the row holding the block of the given number.
+     * 
+     * @param fileDescriptor
+     *            the descriptor of the file
+     * @param blockNumber
+     *            the number of the block
+     * @return the key of the data row of the block
+     */
+    public static String getDataKey(FileDescriptor fileDescriptor,
+            int blockNumber) {
+        int blocksPerStripe = fileDescriptor.getBlocksPerStripe();
+        if (blocksPerStripe <= 0 || fileDescriptor.isDataInDescriptorRow()) {
+            return fileDescriptor.getFileId();
+        }
+        int stripe = blockNumber / blocksPerStripe;
+        return stripe == 0 ? fileDescriptor.getFileId()
+                : fileDescriptor.getFileId() + ":" + stripe;
+    }
+
+    /**
+     * Return the keys of all the rows holding blocks of the file. Block
+     * numbers are allocated in sequence, so the last block in use tells how
+     * many stripes were ever written.
+     * 
+     * @param fileDescriptor
+     *            the descriptor of the file
+     * @return the keys of the data rows of the file
+     */
+    public static List<String> getDataKeys(FileDescriptor fileDescriptor) {
+        int lastBlockNumber = 0;
+        for (FileBlock fileBlock : fileDescriptor.getBlocks()) {
+            lastBlockNumber = Math.max(lastBlockNumber, fileBlock.getBlockNumber());
+        }
+        List<String> keys = new ArrayList<String>();
+        keys.add(fileDescriptor.getFileId());
+        int blocksPerStripe = fileDescriptor.getBlocksPerStripe();
+        if (blocksPerStripe > 0 && !fileDescriptor.isDataInDescriptorRow()) {
+            for (int stripe = 1; stripe <= lastBlockNumber / blocksPerStripe; stripe++) {
+                keys.add(fileDescriptor.getFileId() + ":" + stripe);
             }
+        }
+        return keys;
+    }
 
+    private static Map<String, Set<byte[]>> groupByDataKey(
+            FileDescriptor fileDescriptor, Set<byte[]> blockNames) {
+        Map<String, Set<byte[]>> stripes = new HashMap<String, Set<byte[]>>();
+        for (byte[] blockName : blockNames) {
+            String key = getDataKey(fileDescriptor, blockName);
+            Set<byte[]> names = stripes.get(key);
+            if (names == null) {
+                names = new TreeSet<byte[]>(BlockMap.BYTE_ARRAY_COMPARATOR);
+                stripes.put(key, names);
+            }
+            names.add(blockName);
         }
+        return stripes;
     }
 
     /**
-     * rename a file by copy as many information as possible from
-     * <code>currentFileDescriptor</code> except filename to
-     * <code>nextFileDescriptor</code>.
+     * rename a file by pointing <code>nextFileDescriptor</code> at the blocks
+     * of <code>currentFileDescriptor</code> and removing the descriptor of
+     * the current file. Only the descriptors are rewritten, the blocks stay
+     * where they are.
+     * 
+     * <p>
+     * A file whose blocks still live in the row named after it has its
+     * blocks copied once to a row of its own, since the old name may be
+     * reused by another file.
+     * </p>
      * 
      * @param currentFileDescriptor
      *            the current file descriptor which is about to rename.
@@ -174,37 +510,66 @@ public class ColumnOrientedFile {
 
         try {
 
-            // get all data
-            List<FileBlock> blocks = currentFileDescriptor.getBlocks();
-            long blockSize = currentFileDescriptor.getBlockSize();
-            long lastAccessed = currentFileDescriptor.getLastAccessed();
-            long lastModified = currentFileDescriptor.getLastModified();
-            long length = currentFileDescriptor.getLength();
-            boolean isDeleted = currentFileDescriptor.isDeleted();
-
-            Set<byte[]> columnNames = new HashSet<byte[]>();
-            for (FileBlock block : blocks) {
-                columnNames.add(block.getBlockName().getBytes());
+            // blocks of a file being replaced by the rename.
+            if (!nextFileDescriptor.getFileId().equals(
+                    currentFileDescriptor.getFileId())) {
+                if (nextFileDescriptor.isDataInDescriptorRow()
+                        && !nextFileDescriptor.isInline()) {
+                    deleteDescriptorRowBlocks(nextFileDescriptor);
+                } else {
+                    deleteFileData(nextFileDescriptor);
+                }
             }
 
-            BlockMap currentFileBlocks =
-                    readFileBlocks(currentFileDescriptor, columnNames);
+            List<FileBlock> blocks = currentFileDescriptor.getBlocks();
+            BlockMap currentFileBlocks = new BlockMap();
+
+            if (currentFileDescriptor.isDataInDescriptorRow()) {
+                Set<byte[]> columnNames = new HashSet<byte[]>();
+                for (FileBlock block : blocks) {
+                    columnNames.add(block.getBlockName().getBytes());
+                }
+                currentFileBlocks =
+                        readFileBlocks(currentFileDescriptor, columnNames);
+                nextFileDescriptor.setFileId(
+                        FileDescriptor.createFileId(nextFileDescriptor.getName()));
+            } else {
+                nextFileDescriptor.setFileId(currentFileDescriptor.getFileId());
+                nextFileDescriptor.setBlocksPerStripe(
+                        currentFileDescriptor.getBlocksPerStripe());
+                BlockMap inlineBlocks = null;
+                if (currentFileDescriptor.isInline()) {
+                    // both descriptors may still be written to, each with
+                    // data of its own.
+                    inlineBlocks = new BlockMap();
+                    inlineBlocks.putAll(currentFileDescriptor.getInlineBlocks());
+                }
+                nextFileDescriptor.setInlineBlocks(inlineBlocks);
+            }
 
-            // copy to another new rowkey
-            nextFileDescriptor.setBlockSize(blockSize);
-            nextFileDescriptor.setLastAccessed(lastAccessed);
-            nextFileDescriptor.setLastModified(lastModified);
-            nextFileDescriptor.setLastModified(length);
-            nextFileDescriptor.setDeleted(isDeleted);
+            nextFileDescriptor.setBlockSize(currentFileDescriptor.getBlockSize());
+            nextFileDescriptor.setLastAccessed(currentFileDescriptor.getLastAccessed());
+            nextFileDescriptor.setLastModified(currentFileDescriptor.getLastModified());
+            nextFileDescriptor.setLength(currentFileDescriptor.getLength());
+            nextFileDescriptor.setDeleted(currentFileDescriptor.isDeleted());
             nextFileDescriptor.setBlocks(blocks);
 
             writeFileBlocks(nextFileDescriptor, currentFileBlocks);
 
-            // delete the previous row.
+            // write the new descriptor, delete the previous one together
+            // with the blocks if they were copied, and move the file in the
+            // directory indexes.
             currentFileDescriptor.setDeleted(true);
-            cassandraClient
-                    .setColumns(ByteBufferUtil.bytes(currentFileDescriptor
-                            .getName()), null);
+            Map<ByteBuffer, Map<byte[], byte[]>> rows =
+                    new HashMap<ByteBuffer, Map<byte[], byte[]>>();
+            putFileDescriptor(rows, nextFileDescriptor);
+            rows.put(ByteBufferUtil.bytes(currentFileDescriptor.getName()), null);
+            ColumnOrientedDirectory.putIndexEntry(rows,
+                    currentFileDescriptor.getName(), null);
+            ColumnOrientedDirectory.putIndexEntry(rows,
+                    nextFileDescriptor.getName(), nextFileDescriptor.getFileId());
+            cassandraClient.setColumns(rows);
+            nextFileDescriptor.markFlushed(nextFileDescriptor.getVersion());
 
             return true;
 
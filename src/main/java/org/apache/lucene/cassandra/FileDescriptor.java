@@ -3,6 +3,7 @@ package org.apache.lucene.cassandra;
 import java.util.Date;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.UUID;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -31,6 +32,8 @@ public class FileDescriptor {
     // The name of the file.
     private String name;
 
+    private String fileId;
+
     // The length of the file.
     private long length;
 
@@ -59,12 +62,36 @@ public class FileDescriptor {
     // The ordered list of blocks in this file.
     private LinkedList<FileBlock> blocks;
 
+    // The data of the blocks when it is kept inline, null otherwise.
+    private BlockMap inlineBlocks;
+
     // The number to use for the next block that will be allocated. If it is
     // uninitialized (i.e., -1), then it forces the descriptor to reset it
     // to
     // the highest number of any block in {@link #blocks}.
     private int nextBlockNumber = -1;
 
+    // The number of blocks stored in each row of a striped file, 0 if the
+    // file is not striped.
+    private int blocksPerStripe;
+
+    // The number of changes made to this descriptor, and the number of them
+    // already persisted. The descriptor is dirty while the two differ.
+    private long version;
+    private long flushedVersion;
+
+    // The blocks written, and the time at which the descriptor was last
+    // persisted, see ColumnOrientedFile#writeFileBlocks.
+    private int unflushedBlocks;
+    private long flushedAt = System.currentTimeMillis();
+
+    /**
+     * The number of blocks per stripe of new files, 0 to store files in a
+     * single row.
+     */
+    public static final int DEFAULT_BLOCKS_PER_STRIPE =
+            Integer.getInteger("lucene.cassandra.stripe.blocks", 0);
+
     /**
      * Construct a file descriptor for the given file name, using the
      * default block size.
@@ -87,13 +114,32 @@ public class FileDescriptor {
      *            the size of the block
      */
     public FileDescriptor(String fileName, long blockSize) {
+        this(fileName, blockSize, createFileId(fileName));
+    }
+
+    /**
+     * Construct a file descriptor for the given file name and block size,
+     * keeping the given file id rather than creating a new one, as when the
+     * descriptor of an existing file is read back.
+     * 
+     * @param fileName
+     *            the name of the file
+     * @param blockSize
+     *            the size of the block
+     * @param fileId
+     *            the stable identifier of the file
+     */
+    public FileDescriptor(String fileName, long blockSize, String fileId) {
         setName(fileName);
+        setFileId(fileId);
         setLength(0);
         Date now = new Date();
         setLastAccessed(now.getTime());
         setLastModified(now.getTime());
         setBlockSize(blockSize);
+        setBlocksPerStripe(DEFAULT_BLOCKS_PER_STRIPE);
         setBlocks(new LinkedList<FileBlock>());
+        setInlineBlocks(new BlockMap());
         String debug = String.format("fileName = '%s' blockSize = '%s'", fileName, blockSize);
         //logger.debug(debug);
     }
@@ -117,6 +163,47 @@ public class FileDescriptor {
         this.name = name;
     }
 
+    /**
+     * @return the key of the row holding the blocks of the file. Unlike the
+     *         name, it never changes over the life of the file.
+     */
+    public String getFileId() {
+        return fileId;
+    }
+
+    /**
+     * Set the key of the row holding the blocks of the file.
+     * 
+     * @param fileId
+     *            the stable identifier of the file
+     */
+    public void setFileId(String fileId) {
+        this.fileId = fileId;
+    }
+
+    /**
+     * Create a new file id for a file of the given name. The id is prefixed
+     * with the directory of the file, so that the rows of a directory can be
+     * told apart from those of other directories sharing the column family.
+     * 
+     * @param fileName
+     *            the name of the file
+     * @return a new, unique, file id
+     */
+    public static String createFileId(String fileName) {
+        return FileDescriptorUtils.getDirectory(fileName) + "#"
+                + UUID.randomUUID().toString();
+    }
+
+    /**
+     * @return true if the blocks of the file live in the same row as its
+     *         descriptor, as is the case for files written before file ids
+     *         were introduced
+     */
+    public boolean isDataInDescriptorRow() {
+        return name.equals(fileId);
+    }
+
     /**
      * @return the current length of the file
      */
@@ -212,6 +299,94 @@ public class FileDescriptor {
         this.blockSize = blockSize;
     }
 
+    /**
+     * @return the number of blocks stored in each row of the file, or 0 if
+     *         all the blocks are stored in a single row
+     */
+    public int getBlocksPerStripe() {
+        return blocksPerStripe;
+    }
+
+    /**
+     * Set the number of blocks stored in each row of the file. The file
+     * spans as many rows as it has stripes, so large files are spread across
+     * the ring while each row stays bounded in width.
+     * 
+     * @param blocksPerStripe
+     *            the number of blocks per row, or 0 for a single row
+     */
+    public void setBlocksPerStripe(int blocksPerStripe) {
+        this.blocksPerStripe = blocksPerStripe;
+    }
+
+    /**
+     * @return the number of changes made to this descriptor
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Set the version of this descriptor, marking it as persisted.
+     * 
+     * @param version
+     *            the version read along with the descriptor
+     */
+    public void setVersion(long version) {
+        this.version = version;
+        this.flushedVersion = version;
+    }
+
+    /**
+     * @return true if this descriptor was changed since it was last
+     *         persisted
+     */
+    public boolean isDirty() {
+        return version != flushedVersion;
+    }
+
+    /**
+     * Record that the given number of blocks of this file have been written
+     * while its descriptor was not persisted.
+     * 
+     * @param blocksWritten
+     *            the number of blocks written
+     */
+    public void markDirty(int blocksWritten) {
+        version++;
+        unflushedBlocks += blocksWritten;
+    }
+
+    /**
+     * Record that this descriptor, as of the given version, has been
+     * persisted.
+     * 
+     * @param version
+     *            the version that was written
+     */
+    public void markFlushed(long version) {
+        flushedVersion = version;
+        if (!isDirty()) {
+            unflushedBlocks = 0;
+        }
+        flushedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * @return the number of blocks written since this descriptor was last
+     *         persisted
+     */
+    public int getUnflushedBlocks() {
+        return unflushedBlocks;
+    }
+
+    /**
+     * @return the time at which this descriptor was last persisted or loaded
+     */
+    public long getFlushedAt() {
+        return flushedAt;
+    }
+
     /**
      * @return the ordered list of file blocks
      */
@@ -234,6 +409,32 @@ public class FileDescriptor {
         }
     }
 
+    /**
+     * @return the data of the blocks, by block name, if it is kept inline in
+     *         the descriptor rather than in data rows, or null
+     */
+    public BlockMap getInlineBlocks() {
+        return inlineBlocks;
+    }
+
+    /**
+     * Set the data of the blocks kept inline in the descriptor.
+     * 
+     * @param inlineBlocks
+     *            the data of the blocks by block name, or null if the blocks
+     *            are kept in data rows
+     */
+    public void setInlineBlocks(BlockMap inlineBlocks) {
+        this.inlineBlocks = inlineBlocks;
+    }
+
+    /**
+     * @return true if the data of the file is kept inline in the descriptor
+     */
+    public boolean isInline() {
+        return inlineBlocks != null;
+    }
+
     /**
      * @return the first block in the file
      */
@@ -3,7 +3,9 @@ package org.apache.lucene.cassandra;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.Map;
 
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -56,6 +58,9 @@ public class FileDescriptorUtils {
         try {
             JSONObject jsonObject = new JSONObject();
             jsonObject.put("name", fileDescriptor.getName());
+            jsonObject.put("fileId", fileDescriptor.getFileId());
+            jsonObject.put("blocksPerStripe", fileDescriptor.getBlocksPerStripe());
+            jsonObject.put("version", fileDescriptor.getVersion());
             jsonObject.put("length", fileDescriptor.getLength());
             jsonObject.put("deleted", fileDescriptor.isDeleted());
             jsonObject
@@ -73,6 +78,15 @@ public class FileDescriptorUtils {
                 jsonArray.put(blockObject);
             }
             jsonObject.put("blocks", jsonArray);
+            if (fileDescriptor.isInline()) {
+                JSONObject inlineObject = new JSONObject();
+                for (Map.Entry<byte[], byte[]> block : fileDescriptor
+                        .getInlineBlocks().entrySet()) {
+                    inlineObject.put(new String(block.getKey()),
+                            Util.bytesToBase64(block.getValue()));
+                }
+                jsonObject.put("inline", inlineObject);
+            }
             return jsonObject;
         } catch (JSONException e) {
             throw new IOException(
@@ -120,8 +134,14 @@ public class FileDescriptorUtils {
     public static FileDescriptor fromJSON(JSONObject jsonObject, int blockSize)
             throws IOException {
         try {
-            FileDescriptor fileDescriptor =
-                    new FileDescriptor(jsonObject.getString("name"), blockSize);
+            String fileName = jsonObject.getString("name");
+            // descriptors written before file ids existed keep their blocks
+            // in the row named after the file.
+            FileDescriptor fileDescriptor = new FileDescriptor(fileName,
+                    blockSize, jsonObject.optString("fileId", fileName));
+            fileDescriptor.setBlocksPerStripe(jsonObject.optInt(
+                    "blocksPerStripe", 0));
+            fileDescriptor.setVersion(jsonObject.optLong("version", 0));
             fileDescriptor.setLength(jsonObject.getLong("length"));
             fileDescriptor.setDeleted(jsonObject.getBoolean("deleted"));
             fileDescriptor.setLastModified(jsonObject
@@ -147,6 +167,19 @@ public class FileDescriptorUtils {
                     fileDescriptor.addLastBlock(fileBlock);
                 }
             }
+            // descriptors without inline data keep their blocks in data rows.
+            fileDescriptor.setInlineBlocks(null);
+            JSONObject inlineObject = jsonObject.optJSONObject("inline");
+            if (inlineObject != null) {
+                BlockMap inlineBlocks = new BlockMap();
+                Iterator<?> names = inlineObject.keys();
+                while (names.hasNext()) {
+                    String name = (String) names.next();
+                    inlineBlocks.put(name, Util.base64ToBytes(inlineObject
+                            .getString(name)));
+                }
+                fileDescriptor.setInlineBlocks(inlineBlocks);
+            }
             //JSONObject debug = toJSON(fileDescriptor);
             //logger.debug("fromJSON {}" ,debug.toString(2));
             return fileDescriptor;
@@ -157,6 +190,20 @@ public class FileDescriptorUtils {
         }
     }
 
+    /**
+     * Return the directory of the given file, which is the part of its name
+     * up to and including the last separator. It is the id of the directory
+     * that prefixes the keys of all the rows of the directory.
+     * 
+     * @param fileName
+     *            the full name of the file
+     * @return the directory of the file, or an empty string for a file at the
+     *         root of the column family
+     */
+    public static String getDirectory(String fileName) {
+        return fileName.substring(0, fileName.lastIndexOf('/') + 1);
+    }
+
     /**
      * Seek to the file block that the given file pointer positions itself
      * on.
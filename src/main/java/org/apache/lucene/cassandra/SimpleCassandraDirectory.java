@@ -19,7 +19,16 @@ package org.apache.lucene.cassandra;
 
 
 import java.io.EOFException;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.lucene.store.BufferedIndexInput;
 import org.apache.lucene.store.IOContext;
@@ -43,7 +52,26 @@ public class SimpleCassandraDirectory extends CassandraDirectory {
     private String columnFamily = null;
     private int blockSize;
     private int bufferSize;
-    
+
+    /** number of blocks fetched in a single request when prefetching a file. */
+    public static final int DEFAULT_PREFETCH_BLOCKS =
+            Integer.getInteger("lucene.cassandra.prefetch.blocks", 64);
+
+    /** most bytes of fetched blocks kept by the inputs of a directory. */
+    public static final long DEFAULT_BLOCK_CACHE_SIZE =
+            Long.getLong("lucene.cassandra.block.cache.size", 64L * 1024 * 1024);
+
+    // bounds the blocks kept by the inputs opened on this directory.
+    private final CassandraBlockIndexInput.BufferCache bufferCache =
+            new CassandraBlockIndexInput.BufferCache(DEFAULT_BLOCK_CACHE_SIZE);
+
+    // blocks fetched ahead of the input that is going to read them, by file
+    // name.
+    private final ConcurrentHashMap<String, PrefetchedFile> prefetchedFiles =
+            new ConcurrentHashMap<String, PrefetchedFile>();
+
+    private volatile BlockAccessRecorder accessRecorder;
+
     public SimpleCassandraDirectory(CassandraFile path, IOContext mode, LockFactory lockFactory, String keyspace, String columnFamily, int blockSize, int bufferSize) throws IOException {        
         super(path, mode, lockFactory, keyspace, columnFamily, blockSize, bufferSize);
         this.keyspace = keyspace;
@@ -58,37 +86,174 @@ public class SimpleCassandraDirectory extends CassandraDirectory {
         ensureOpen();
         logger.trace("openInput name {} context {}", name, context); 
         final CassandraFile path = new CassandraFile(Util.getCassandraPath(directory), name, context, true, keyspace, columnFamily, blockSize);
-        return new CassandraSimpleFSIndexInput("CassandraSimpleFSIndexInput(path=\"" + path.getPath() + "\")", path, context);
+        return openBlockInput(name, "CassandraBlockIndexInput(path=\"" + path.getPath() + "\")", path);
+    }
+
+    /**
+     * Open an input reading the blocks of <code>path</code> without copying
+     * them, which takes over the connection of <code>path</code>. The input
+     * starts with the blocks prefetched for the file, if any.
+     */
+    private CassandraBlockIndexInput openBlockInput(String name,
+            String resourceDesc, CassandraFile path) throws IOException {
+        FileDescriptor fd = path.getFD();
+        if (fd == null) {
+            path.close();
+            throw new FileNotFoundException(path.getPath());
+        }
+        Map<byte[], ByteBuffer> prefetched = null;
+        PrefetchedFile prefetchedFile = prefetchedFiles.remove(name);
+        if (prefetchedFile != null
+                && prefetchedFile.fileId.equals(fd.getFileId())) {
+            prefetched = prefetchedFile.blocks;
+        }
+        return new CassandraBlockIndexInput(resourceDesc, fd,
+                new ColumnOrientedFile(path.getCassandraClient()),
+                CassandraBlockIndexInput.DEFAULT_READ_AHEAD_BLOCKS, path,
+                prefetched, accessRecorder, bufferCache);
+    }
+
+    /**
+     * Record the reads of the blocks of the inputs opened from now on.
+     * 
+     * @param accessRecorder
+     *            where the reads are recorded, or null to stop recording
+     */
+    public void setAccessRecorder(BlockAccessRecorder accessRecorder) {
+        this.accessRecorder = accessRecorder;
+    }
+
+    public BlockAccessRecorder getAccessRecorder() {
+        return accessRecorder;
+    }
+
+    /**
+     * Fetch the given blocks of a file, <code>prefetchBlocks</code> at a
+     * time, and keep them for the next input opened on it, so that input does
+     * not have to fetch them one read-ahead at a time.
+     * 
+     * @param name
+     *            the name of the file
+     * @param blocks
+     *            the numbers of the blocks to fetch, in the order of the
+     *            file, or null for all of them
+     * @param prefetchBlocks
+     *            number of blocks fetched in a single request
+     * @return the number of bytes fetched
+     * @throws IOException
+     */
+    public long prefetch(String name, Set<Integer> blocks, int prefetchBlocks) throws IOException {
+        ensureOpen();
+        CassandraFile file = new CassandraFile(Util.getCassandraPath(directory), name, IOContext.READ, true, keyspace, columnFamily, blockSize);
+        try {
+            FileDescriptor fd = file.getFD();
+            if (fd == null) {
+                throw new FileNotFoundException(file.getPath());
+            }
+            ColumnOrientedFile columnOrientedFile = new ColumnOrientedFile(file.getCassandraClient());
+            List<FileBlock> fileBlocks = fd.getBlocks();
+            Map<byte[], ByteBuffer> fetched = new TreeMap<byte[], ByteBuffer>(BlockMap.BYTE_ARRAY_COMPARATOR);
+            Set<byte[]> blockNames = new TreeSet<byte[]>(BlockMap.BYTE_ARRAY_COMPARATOR);
+            long bytes = 0;
+            for (int i = 0; i < fileBlocks.size(); i++) {
+                if (blocks == null || blocks.contains(i)) {
+                    blockNames.add(fileBlocks.get(i).getBlockName().getBytes());
+                }
+                if (!blockNames.isEmpty() && (blockNames.size() >= prefetchBlocks || i == fileBlocks.size() - 1)) {
+                    for (Map.Entry<byte[], ByteBuffer> block : columnOrientedFile.readFileBlockBuffers(fd, blockNames).entrySet()) {
+                        fetched.put(block.getKey(), block.getValue());
+                        bytes += block.getValue().remaining();
+                    }
+                    blockNames.clear();
+                }
+            }
+            prefetchedFiles.put(name, new PrefetchedFile(fd.getFileId(), fetched));
+            return bytes;
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * @return the indexes of the blocks of the given file holding any byte
+     *         of the given ranges, each given as its start and its length
+     * @throws IOException
+     */
+    public Set<Integer> getBlocks(String name, Collection<long[]> ranges) throws IOException {
+        ensureOpen();
+        CassandraFile file = new CassandraFile(Util.getCassandraPath(directory), name, IOContext.READ, true, keyspace, columnFamily, blockSize);
+        try {
+            FileDescriptor fd = file.getFD();
+            if (fd == null) {
+                throw new FileNotFoundException(file.getPath());
+            }
+            Set<Integer> blocks = new TreeSet<Integer>();
+            long start = 0;
+            int i = 0;
+            for (FileBlock fileBlock : fd.getBlocks()) {
+                long end = start + fileBlock.getDataLength();
+                for (long[] range : ranges) {
+                    if (range[0] < end && range[0] + range[1] > start) {
+                        blocks.add(i);
+                        break;
+                    }
+                }
+                start = end;
+                i++;
+            }
+            return blocks;
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Drop the blocks prefetched for files no input was opened on.
+     */
+    public void clearPrefetched() {
+        prefetchedFiles.clear();
+    }
+
+    private static class PrefetchedFile {
+        private final String fileId;
+        private final Map<byte[], ByteBuffer> blocks;
+
+        PrefetchedFile(String fileId, Map<byte[], ByteBuffer> blocks) {
+            this.fileId = fileId;
+            this.blocks = blocks;
+        }
     }
     
+    /**
+     * The slices share the descriptor and the blocks fetched by a single
+     * {@link CassandraBlockIndexInput}, each with a position of its own.
+     */
     @Override
     public IndexInputSlicer createSlicer(final String name,
         final IOContext context) throws IOException {
       ensureOpen();
       logger.trace("createSlicer name {}", name);
       final CassandraFile file = new CassandraFile(Util.getCassandraPath(getDirectory()), name, context, true, keyspace, columnFamily, blockSize);
-      //final CassandraRandomAccessFile descriptor = new CassandraRandomAccessFile(file, "r");
-      final CassandraRandomAccessFile descriptor = new CassandraRandomAccessFile(file, context, true, keyspace, columnFamily, blockSize);
+      final CassandraBlockIndexInput base = openBlockInput(name, "CassandraBlockIndexInput(path=\"" + file.getPath() + "\")", file);
       return new IndexInputSlicer() {
 
         @Override
         public void close() throws IOException {
             logger.trace("close");
-          descriptor.close();
+          base.close();
         }
 
         @Override
-        public IndexInput openSlice(String sliceDescription, long offset, long length) {
+        public IndexInput openSlice(String sliceDescription, long offset, long length) throws IOException {
             logger.trace("openSlice {} file {}", sliceDescription, file.getName());
-          return new CassandraSimpleFSIndexInput("CassandraSimpleFSIndexInput(" + sliceDescription + " in path=\"" + file.getPath() + "\" slice=" + offset + ":" + (offset+length) + ")", descriptor, offset,
-              length, BufferedIndexInput.bufferSize(context));
+          return base.slice(sliceDescription, offset, length);
         }
 
         @Override
         public IndexInput openFullSlice() {
           try {
               logger.trace("openFullSlice");
-            return openSlice("full-slice", 0, descriptor.length());
+            return openSlice("full-slice", 0, base.length());
           } catch (IOException ex) {
             throw new RuntimeException(ex);
           }
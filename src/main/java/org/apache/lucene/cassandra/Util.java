@@ -9,6 +9,9 @@ import java.io.IOException;
 public class Util {
     
     final protected static char[] hexArray = "0123456789ABCDEF".toCharArray();
+
+    final protected static char[] base64Array =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
     
     
     public static String bytesToHex(byte[] bytes) {
@@ -21,6 +24,64 @@ public class Util {
         return new String(hexChars);
     }
     
+    /**
+     * @return the given bytes in standard, padded base64, the same as
+     *         javax.xml.bind.DatatypeConverter wrote in existing descriptors
+     */
+    public static String bytesToBase64(byte[] bytes) {
+        StringBuilder sb = new StringBuilder((bytes.length + 2) / 3 * 4);
+        for (int i = 0; i < bytes.length; i += 3) {
+            int n = (bytes[i] & 0xFF) << 16;
+            if (i + 1 < bytes.length) {
+                n |= (bytes[i + 1] & 0xFF) << 8;
+            }
+            if (i + 2 < bytes.length) {
+                n |= bytes[i + 2] & 0xFF;
+            }
+            sb.append(base64Array[n >>> 18]);
+            sb.append(base64Array[(n >>> 12) & 0x3F]);
+            sb.append(i + 1 < bytes.length ? base64Array[(n >>> 6) & 0x3F] : '=');
+            sb.append(i + 2 < bytes.length ? base64Array[n & 0x3F] : '=');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return the bytes of the given base64, see {@link #bytesToBase64(byte[])}
+     */
+    public static byte[] base64ToBytes(String base64) {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(base64.length() / 4 * 3);
+        int n = 0;
+        int bits = 0;
+        for (int i = 0; i < base64.length(); i++) {
+            char c = base64.charAt(i);
+            int v;
+            if (c >= 'A' && c <= 'Z') {
+                v = c - 'A';
+            } else if (c >= 'a' && c <= 'z') {
+                v = c - 'a' + 26;
+            } else if (c >= '0' && c <= '9') {
+                v = c - '0' + 52;
+            } else if (c == '+') {
+                v = 62;
+            } else if (c == '/') {
+                v = 63;
+            } else if (c == '=') {
+                break;
+            } else {
+                // whitespace and line breaks.
+                continue;
+            }
+            n = (n << 6) | v;
+            bits += 6;
+            if (bits >= 8) {
+                bits -= 8;
+                bos.write((n >>> bits) & 0xFF);
+            }
+        }
+        return bos.toByteArray();
+    }
+
     public static String debugBytesToHex(byte[] bytes) {
         String result = bytesToHex(bytes);
         StringBuffer sb = new StringBuffer();
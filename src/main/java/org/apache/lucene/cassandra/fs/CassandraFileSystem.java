@@ -20,11 +20,17 @@ package org.apache.lucene.cassandra.fs;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
+import org.apache.cassandra.concurrent.NamedThreadFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.BlockLocation;
 import org.apache.hadoop.fs.FSDataInputStream;
@@ -48,6 +54,12 @@ public class CassandraFileSystem extends FileSystem {
 
     private long subBlockSize;
 
+    /**
+     * Workers storing completed subBlocks for all the output streams of this
+     * file system, or null to store them on the writer thread.
+     */
+    private ExecutorService subBlockUploadExecutor;
+
     public CassandraFileSystem() {
         this.store = new CassandraFileSystemThriftStore();
     }
@@ -64,6 +76,38 @@ public class CassandraFileSystem extends FileSystem {
 
         store.initialize(this.uri, conf);
         subBlockSize = conf.getLong("fs.local.subblock.size", 256L * 1024L);
+
+        int uploadThreads = conf.getInt("fs.local.subblock.upload.threads", 8);
+        if (uploadThreads > 0) {
+            subBlockUploadExecutor =
+                    Executors.newFixedThreadPool(uploadThreads,
+                            new NamedThreadFactory("CfsSubBlockUpload"));
+        }
+    }
+
+    /**
+     * Waits for the subBlocks being uploaded to be stored, then releases the
+     * workers and the store.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+        } finally {
+            try {
+                if (subBlockUploadExecutor != null) {
+                    subBlockUploadExecutor.shutdown();
+                    while (!subBlockUploadExecutor.awaitTermination(1,
+                            TimeUnit.SECONDS)) {
+                        logger.info("waiting for subBlock uploads to complete");
+                    }
+                }
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException(e.getMessage());
+            } finally {
+                store.close();
+            }
+        }
     }
 
     @Override
@@ -160,18 +204,21 @@ public class CassandraFileSystem extends FileSystem {
                     f.makeQualified(this), inode) };
         }
         ArrayList<FileStatus> ret = new ArrayList<FileStatus>();
-        for (Path p : store.listSubPaths(absolutePath)) {
+        Set<Path> subPaths = store.listSubPaths(absolutePath);
+        // Look up all the children in one go instead of one by one.
+        Map<Path, INode> children = store.retrieveINodes(subPaths);
+        for (Path p : subPaths) {
             // we shouldn't list ourselves
             if (p.equals(f))
                 continue;
 
-            try {
-                FileStatus stat = getFileStatus(p.makeQualified(this));
-
-                ret.add(stat);
-            } catch (FileNotFoundException e) {
+            INode child = children.get(p);
+            if (child == null) {
                 logger.warn("No file found for: " + p);
+                continue;
             }
+
+            ret.add(new CassandraFileStatus(p.makeQualified(this), child));
         }
         return ret.toArray(new FileStatus[0]);
     }
@@ -209,7 +256,7 @@ public class CassandraFileSystem extends FileSystem {
         }
         return new FSDataOutputStream(new CassandraOutputStream(getConf(),
                 store, makeAbsolute(file), permission, blockSize, subBlockSize,
-                progress, bufferSize), statistics);
+                progress, bufferSize, subBlockUploadExecutor), statistics);
     }
 
     @Override
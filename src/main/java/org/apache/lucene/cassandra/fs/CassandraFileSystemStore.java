@@ -25,7 +25,9 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
 import java.nio.ByteBuffer;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 
@@ -61,6 +63,18 @@ public interface CassandraFileSystemStore {
 
     INode retrieveINode(Path path) throws IOException;
 
+    /**
+     * Retrieves the INodes of several paths at once.
+     * 
+     * @param paths
+     *            paths to look up
+     * @return the INode of each path found. Paths that don't exist are left
+     *         out.
+     * @throws IOException
+     *             if an error occurs
+     */
+    Map<Path, INode> retrieveINodes(Collection<Path> paths) throws IOException;
+
     InputStream retrieveBlock(Block block, long byteRangeStart)
             throws IOException;
 
@@ -106,4 +120,13 @@ public interface CassandraFileSystemStore {
 
     BlockLocation[] getBlockLocation(List<Block> usedBlocks, long start,
             long len) throws IOException;
+
+    /**
+     * Releases the workers and the local files held by this store. Streams
+     * still open must not be read from afterwards.
+     * 
+     * @throws IOException
+     *             if an error occurs
+     */
+    void close() throws IOException;
 }
\ No newline at end of file
@@ -21,18 +21,20 @@ package org.apache.lucene.cassandra.fs;
 import java.io.*;
 import java.net.URI;
 import java.nio.ByteBuffer;
-import java.nio.MappedByteBuffer;
-import java.nio.channels.FileChannel;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import com.datastax.brisk.BriskInternalServer;
 import com.datastax.brisk.BriskSchema;
 
+import org.apache.cassandra.concurrent.NamedThreadFactory;
 import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.hadoop.CassandraProxyClient;
 import org.apache.cassandra.hadoop.CassandraProxyClient.ConnectionStrategy;
 import org.apache.cassandra.hadoop.trackers.CassandraJobConf;
-import org.apache.cassandra.io.util.FileUtils;
 import org.apache.cassandra.locator.BriskSimpleSnitch;
 import org.apache.cassandra.thrift.*;
 import org.apache.cassandra.utils.ByteBufferUtil;
@@ -104,23 +106,77 @@ public class CassandraFileSystemThriftStore implements CassandraFileSystemStore
 
     private ColumnPath sblockDataPath = null;
 
-    private ByteBuffer compressedData = null;
+    /**
+     * Upper bound of decompression buffers kept for reuse once the streams
+     * handed out by {@link #getInputStream(ByteBuffer)} are closed.
+     */
+    private static final int maxPooledBuffers = 16;
+
+    /**
+     * Snappy staging buffer. One per thread so concurrent readers and writers
+     * do not serialize on the store.
+     */
+    private final ThreadLocal<ByteBuffer> compressedData =
+            new ThreadLocal<ByteBuffer>();
+
+    /**
+     * Decompression buffers returned by closed SubBlock streams.
+     */
+    private final Queue<ByteBuffer> uncompressedData =
+            new ArrayBlockingQueue<ByteBuffer>(maxPooledBuffers);
+
+    /**
+     * Number of SubBlocks a {@link CassandraSubBlockInputStream} keeps in
+     * flight ahead of the one being read.
+     */
+    private int subBlockReadAhead;
+
+    /**
+     * Workers fetching and decompressing SubBlocks ahead of the readers.
+     */
+    private ExecutorService subBlockFetchExecutor;
+
+    private INodeCache inodeCache;
 
-    private ByteBuffer uncompressedData = null;
+    /**
+     * Local SSTable files SubBlocks living on this node are read from.
+     */
+    private LocalBlockFiles localBlockFiles;
 
     private StorageType storageTypeInUse = StorageType.CFS_REGULAR;
 
     private static final SlicePredicate pathPredicate = new SlicePredicate()
             .setColumn_names(Arrays.asList(pathCol));
 
+    private static final SlicePredicate dataPredicate = new SlicePredicate()
+            .setColumn_names(Arrays.asList(dataCol));
+
     private static final ByteBuffer sentinelValue = ByteBufferUtil.bytes("x");
 
     private ConsistencyLevel consistencyLevelRead;
 
     private ConsistencyLevel consistencyLevelWrite;
 
+    /**
+     * Connection the keyspace is checked and created over, handed to
+     * {@link #idleClients} once initialized.
+     */
     private Brisk.Iface client;
 
+    /**
+     * Connections not in use by a call at the moment. A connection carries a
+     * single Thrift transport, so the readers, their read ahead workers and
+     * the upload workers each take one of their own for every call.
+     */
+    private final ConcurrentLinkedQueue<Brisk.Iface> idleClients =
+            new ConcurrentLinkedQueue<Brisk.Iface>();
+
+    private String host;
+
+    private int port;
+
+    private boolean internal;
+
     public CassandraFileSystemThriftStore() {
 
     }
@@ -136,13 +192,11 @@ public class CassandraFileSystemThriftStore implements CassandraFileSystemStore
         if (port == -1)
             port = DatabaseDescriptor.getRpcPort(); // default
 
+        this.host = host;
+        this.port = port;
         // We could be running inside of cassandra...
-        if (conf instanceof CassandraJobConf)
-            client = new BriskInternalServer();
-        else
-            client =
-                    CassandraProxyClient.newProxyConnection(host, port, true,
-                            ConnectionStrategy.STICKY);
+        this.internal = conf instanceof CassandraJobConf;
+        client = connect();
 
         KsDef ks = checkKeyspace();
 
@@ -151,12 +205,55 @@ public class CassandraFileSystemThriftStore implements CassandraFileSystemStore
 
         initConsistencyLevels(ks, conf);
         initCFNames(uri);
+        initSubBlockFetch(conf);
+
+        inodeCache =
+                new INodeCache(conf.getLong("fs.local.inode.cache.ttl", 2000L),
+                        conf.getInt("fs.local.inode.cache.size", 10000));
+
+        localBlockFiles =
+                new LocalBlockFiles(conf.getInt("fs.local.block.open.files",
+                        64), conf.getInt("fs.local.block.file.mappings", 128));
 
         try {
             client.set_keyspace(keySpace);
         } catch (Exception e) {
             throw new IOException(e);
         }
+        idleClients.offer(client);
+    }
+
+    private Brisk.Iface connect() throws IOException {
+        if (internal)
+            return new BriskInternalServer();
+        return CassandraProxyClient.newProxyConnection(host, port, true,
+                ConnectionStrategy.STICKY);
+    }
+
+    /**
+     * @return a connection to the keyspace for the calling thread alone,
+     *         until it is given back with {@link #releaseClient(Brisk.Iface)}
+     */
+    private Brisk.Iface acquireClient() throws IOException {
+        Brisk.Iface connection = idleClients.poll();
+        if (connection != null)
+            return connection;
+
+        connection = connect();
+        try {
+            connection.set_keyspace(keySpace);
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+        return connection;
+    }
+
+    /**
+     * Give back a connection for other calls to use. The proxy reconnects on
+     * its own after a failure, so failed connections are kept as well.
+     */
+    private void releaseClient(Brisk.Iface connection) {
+        idleClients.offer(connection);
     }
 
     /**
@@ -223,6 +320,42 @@ public class CassandraFileSystemThriftStore implements CassandraFileSystemStore
         }
     }
 
+    /**
+     * Initialize the read ahead of SubBlocks. A read ahead of 0 fetches every
+     * SubBlock synchronously when the reader crosses into it.
+     */
+    private void initSubBlockFetch(Configuration conf) {
+        subBlockReadAhead = conf.getInt("fs.local.subblock.readahead", 4);
+
+        if (subBlockReadAhead > 0) {
+            subBlockFetchExecutor =
+                    Executors.newFixedThreadPool(conf.getInt(
+                            "fs.local.subblock.fetch.threads", 8),
+                            new NamedThreadFactory("CfsSubBlockFetch"));
+        }
+    }
+
+    int getSubBlockReadAhead() {
+        return subBlockFetchExecutor == null ? 0 : subBlockReadAhead;
+    }
+
+    ExecutorService getSubBlockFetchExecutor() {
+        return subBlockFetchExecutor;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void close() throws IOException {
+        if (subBlockFetchExecutor != null) {
+            // pending fetches are cancelled by the streams waiting for them.
+            subBlockFetchExecutor.shutdown();
+        }
+        if (localBlockFiles != null) {
+            localBlockFiles.clear();
+        }
+    }
+
     private KsDef checkKeyspace() throws IOException {
         try {
             return client.describe_keyspace(keySpace);
@@ -374,13 +507,16 @@ public class CassandraFileSystemThriftStore implements CassandraFileSystemStore
 
         LocalOrRemoteBlock blockData = null;
 
+        Brisk.Iface connection = acquireClient();
         try {
             blockData =
-                    ((Brisk.Iface) client).get_cfs_sblock(FBUtilities
+                    connection.get_cfs_sblock(FBUtilities
                             .getLocalAddress().getHostName(), blockId,
                             subBlockId, (int) 0, storageTypeInUse);
         } catch (Exception e) {
             throw new IOException(e);
+        } finally {
+            releaseClient(connection);
         }
 
         if (blockData == null)
@@ -398,42 +534,73 @@ public class CassandraFileSystemThriftStore implements CassandraFileSystemStore
         return is;
     }
 
-    private synchronized InputStream getInputStream(ByteBuffer bb)
-            throws IOException {
+    private InputStream getInputStream(ByteBuffer bb) throws IOException {
 
-        ByteBuffer output = null;
+        ByteBuffer compressed = getCompressedBuffer(bb.remaining());
+        compressed.put(bb.duplicate());
+        compressed.flip();
 
-        if (compressedData == null
-                || compressedData.capacity() < bb.remaining())
-            compressedData = ByteBuffer.allocateDirect(bb.remaining());
+        if (!Snappy.isValidCompressedBuffer(compressed)) {
+            // Stored as is, the caller gets its own view on the raw bytes.
+            return ByteBufferUtil.inputStream(bb.duplicate());
+        }
 
-        compressedData.limit(compressedData.capacity());
-        compressedData.rewind();
-        compressedData.put(bb.duplicate());
-        compressedData.limit(compressedData.position());
-        compressedData.rewind();
+        return uncompress(compressed);
+    }
 
-        if (Snappy.isValidCompressedBuffer(compressedData)) {
+    /**
+     * @param compressed
+     *            a direct buffer holding Snappy compressed data
+     * @return a stream over the uncompressed data in a buffer of its own.
+     */
+    private InputStream uncompress(ByteBuffer compressed) throws IOException {
+        int uncompressedLength = Snappy.uncompressedLength(compressed);
+        ByteBuffer output = getUncompressedBuffer(uncompressedLength);
 
-            int uncompressedLength = Snappy.uncompressedLength(compressedData);
+        int len = Snappy.uncompress(compressed, output);
 
-            if (uncompressedData == null
-                    || uncompressedData.capacity() < uncompressedLength) {
-                uncompressedData =
-                        ByteBuffer.allocateDirect(uncompressedLength);
-            }
+        output.limit(len);
+        output.rewind();
 
-            int len = Snappy.uncompress(compressedData, uncompressedData);
+        return new SubBlockDataInputStream(output, uncompressedData);
+    }
 
-            uncompressedData.limit(len);
-            uncompressedData.rewind();
+    /**
+     * @param capacity
+     *            minimum capacity needed
+     * @return the calling thread's Snappy staging buffer, cleared and grown to
+     *         at least <code>capacity</code> bytes.
+     */
+    private ByteBuffer getCompressedBuffer(int capacity) {
+        ByteBuffer buffer = compressedData.get();
 
-            output = uncompressedData;
-        } else {
-            output = compressedData;
+        if (buffer == null || buffer.capacity() < capacity) {
+            buffer = ByteBuffer.allocateDirect(capacity);
+            compressedData.set(buffer);
+        }
+
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * @param capacity
+     *            minimum capacity needed
+     * @return a pooled decompression buffer of at least <code>capacity</code>
+     *         bytes, or a new one if none is available.
+     */
+    private ByteBuffer getUncompressedBuffer(int capacity) {
+        ByteBuffer buffer;
+
+        while ((buffer = uncompressedData.poll()) != null) {
+            // Buffers too small for this SubBlock are dropped for good.
+            if (buffer.capacity() >= capacity) {
+                buffer.clear();
+                return buffer;
+            }
         }
 
-        return ByteBufferUtil.inputStream(output);
+        return ByteBuffer.allocateDirect(capacity);
     }
 
     private InputStream readLocalBlock(LocalBlock blockInfo) throws IOException {
@@ -444,18 +611,21 @@ public class CassandraFileSystemThriftStore implements CassandraFileSystemStore
         if (blockInfo.length == 0)
             return ByteBufferUtil.inputStream(ByteBufferUtil.EMPTY_BYTE_BUFFER);
 
-        RandomAccessFile raf = null;
+        LocalBlockFiles.MappedFile file = null;
+        boolean release = true;
         try {
-            raf = new RandomAccessFile(blockInfo.file, "r");
+            file = localBlockFiles.acquire(blockInfo.file);
 
-            if (logger.isDebugEnabled())
-                logger.debug("Mmapping " + blockInfo.length + " bytes");
+            ByteBuffer bb = file.map(blockInfo.offset, blockInfo.length);
 
-            MappedByteBuffer bb =
-                    raf.getChannel().map(FileChannel.MapMode.READ_ONLY,
-                            blockInfo.offset, blockInfo.length);
+            // The mapping is direct, Snappy reads it in place.
+            if (Snappy.isValidCompressedBuffer(bb))
+                return uncompress(bb);
 
-            return getInputStream(bb);
+            // Stored as is, served straight from the mapping which stays
+            // referenced until the stream is closed.
+            release = false;
+            return new SubBlockDataInputStream(bb, null, file);
 
         } catch (FileNotFoundException e) {
             throw new RuntimeException("Local file does not exist: "
@@ -465,12 +635,18 @@ public class CassandraFileSystemThriftStore implements CassandraFileSystemStore
                     "Unable to mmap block %s[%d,%d]", blockInfo.file,
                     blockInfo.length, blockInfo.offset), e);
         } finally {
-            FileUtils.closeQuietly(raf);
+            if (release && file != null)
+                file.close();
         }
 
     }
 
     public INode retrieveINode(Path path) throws IOException {
+        INode inode = inodeCache.get(path);
+        if (inode != null) {
+            return inode;
+        }
+
         ByteBuffer pathKey = getPathKey(path);
         ColumnOrSuperColumn pathInfo;
 
@@ -488,20 +664,90 @@ public class CassandraFileSystemThriftStore implements CassandraFileSystemStore
             return null;
         }
 
-        return INode.deserialize(
+        return inodeCache.put(path, INode.deserialize(
                 ByteBufferUtil.inputStream(pathInfo.column.value),
-                pathInfo.column.getTimestamp());
+                pathInfo.column.getTimestamp()));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Map<Path, INode> retrieveINodes(Collection<Path> paths)
+            throws IOException {
+        Map<Path, INode> inodes = new HashMap<Path, INode>(paths.size());
+        Map<ByteBuffer, Path> missing = new HashMap<ByteBuffer, Path>();
+
+        for (Path path : paths) {
+            INode inode = inodeCache.get(path);
+            if (inode != null) {
+                inodes.put(path, inode);
+            } else {
+                missing.put(getPathKey(path), path);
+            }
+        }
+
+        if (missing.isEmpty()) {
+            return inodes;
+        }
+
+        retrieveINodes(missing, inodes, consistencyLevelRead);
+
+        // As for a single INode, retry those not found with a higher CL.
+        if (!missing.isEmpty()
+                && consistencyLevelRead.equals(ConsistencyLevel.ONE)) {
+            retrieveINodes(missing, inodes, ConsistencyLevel.QUORUM);
+        }
+
+        return inodes;
+    }
+
+    /**
+     * Reads the INodes of the given keys in a single request, removing
+     * those found from <code>missing</code>.
+     */
+    private void retrieveINodes(Map<ByteBuffer, Path> missing,
+            Map<Path, INode> inodes, ConsistencyLevel cl) throws IOException {
+        Map<ByteBuffer, List<ColumnOrSuperColumn>> rows;
+        Brisk.Iface connection = acquireClient();
+        try {
+            rows =
+                    connection.multiget_slice(
+                            new ArrayList<ByteBuffer>(missing.keySet()),
+                            inodeParent, dataPredicate, cl);
+        } catch (Exception e) {
+            throw new IOException(e);
+        } finally {
+            releaseClient(connection);
+        }
+
+        for (Map.Entry<ByteBuffer, List<ColumnOrSuperColumn>> row : rows
+                .entrySet()) {
+            Path path = missing.get(row.getKey());
+            if (path == null || row.getValue().isEmpty()) {
+                continue;
+            }
+
+            Column column = row.getValue().get(0).column;
+            INode inode =
+                    INode.deserialize(ByteBufferUtil.inputStream(column.value),
+                            column.getTimestamp());
+            inodes.put(path, inodeCache.put(path, inode));
+            missing.remove(row.getKey());
+        }
     }
 
     private ColumnOrSuperColumn performGet(ByteBuffer key, ColumnPath cp,
             ConsistencyLevel cl) throws IOException {
         ColumnOrSuperColumn result;
+        Brisk.Iface connection = acquireClient();
         try {
-            result = client.get(key, cp, cl);
+            result = connection.get(key, cp, cl);
         } catch (NotFoundException e) {
             return null;
         } catch (Exception e) {
             throw new IOException(e);
+        } finally {
+            releaseClient(connection);
         }
 
         return result;
@@ -510,26 +756,22 @@ public class CassandraFileSystemThriftStore implements CassandraFileSystemStore
     /**
      * {@inheritDoc}
      */
-    public synchronized void storeSubBlock(UUID parentBlockUUID,
-            SubBlock sblock, ByteBuffer data) throws IOException {
+    public void storeSubBlock(UUID parentBlockUUID, SubBlock sblock,
+            ByteBuffer data) throws IOException {
         assert parentBlockUUID != null;
 
         // Row key is the Block id to which this SubBLock belongs to.
         ByteBuffer parentBlockId = uuidToByteBuffer(parentBlockUUID);
 
         // Prepare the buffer to hold the compressed data
-        int maxCapacity = Snappy.maxCompressedLength(data.capacity());
-        if (compressedData == null || compressedData.capacity() < maxCapacity) {
-            compressedData = ByteBuffer.allocateDirect(maxCapacity);
-        }
-
-        compressedData.limit(compressedData.capacity());
-        compressedData.rewind();
+        ByteBuffer compressed =
+                getCompressedBuffer(Snappy.maxCompressedLength(data
+                        .capacity()));
 
         // compress
-        int len = Snappy.compress(data, compressedData);
-        compressedData.limit(len);
-        compressedData.rewind();
+        int len = Snappy.compress(data, compressed);
+        compressed.limit(len);
+        compressed.rewind();
 
         if (logger.isDebugEnabled()) {
             logger.debug("Storing " + sblock);
@@ -539,16 +781,19 @@ public class CassandraFileSystemThriftStore implements CassandraFileSystemStore
         // Column name: Sub Block UUID
         // Column value: Sub Block Data.
 
+        Brisk.Iface connection = acquireClient();
         try {
-            client.insert(
+            connection.insert(
                     parentBlockId,
                     sblockParent,
                     new Column().setName(uuidToByteBuffer(sblock.id))
-                            .setValue(compressedData)
+                            .setValue(compressed)
                             .setTimestamp(System.currentTimeMillis()),
                     consistencyLevelWrite);
         } catch (Exception e) {
             throw new IOException(e);
+        } finally {
+            releaseClient(connection);
         }
     }
 
@@ -590,11 +835,18 @@ public class CassandraFileSystemThriftStore implements CassandraFileSystemStore
         // serialized inode
         mutations.add(createMutationForCol(dataCol, data, ts));
 
+        Brisk.Iface connection = acquireClient();
         try {
-            client.batch_mutate(mutationMap, consistencyLevelWrite);
+            connection.batch_mutate(mutationMap, consistencyLevelWrite);
         } catch (Exception e) {
             throw new IOException(e);
+        } finally {
+            releaseClient(connection);
         }
+
+        // Same timestamp as the column, as if it was read back.
+        inodeCache.put(path, new INode(inode.user, inode.group, inode.perms,
+                inode.getFileType(), inode.getBlocks(), ts));
     }
 
     /**
@@ -664,15 +916,18 @@ public class CassandraFileSystemThriftStore implements CassandraFileSystemStore
     public void deleteSubBlocks(INode inode) throws IOException {
         // Get all the SubBlock keys to delete.
         List<UUID> subBlockKeys = getListOfBlockIds(inode.getBlocks());
+        Brisk.Iface connection = acquireClient();
         try {
             // TODO (patricioe) can we send one big batch mutation here ?
             for (UUID subBlocksKey : subBlockKeys) {
-                client.remove(ByteBuffer.wrap(UUIDGen.decompose(subBlocksKey)),
+                connection.remove(ByteBuffer.wrap(UUIDGen.decompose(subBlocksKey)),
                         sblockPath, System.currentTimeMillis(),
                         consistencyLevelWrite);
             }
         } catch (Exception e) {
             throw new IOException(e);
+        } finally {
+            releaseClient(connection);
         }
     }
 
@@ -695,11 +950,15 @@ public class CassandraFileSystemThriftStore implements CassandraFileSystemStore
      * {@inheritDoc}
      */
     public void deleteINode(Path path) throws IOException {
+        inodeCache.invalidate(path);
+        Brisk.Iface connection = acquireClient();
         try {
-            client.remove(getPathKey(path), inodePath,
+            connection.remove(getPathKey(path), inodePath,
                     System.currentTimeMillis(), consistencyLevelWrite);
         } catch (Exception e) {
             throw new IOException(e);
+        } finally {
+            releaseClient(connection);
         }
     }
 
@@ -725,9 +984,10 @@ public class CassandraFileSystemThriftStore implements CassandraFileSystemStore
                     ByteBufferUtil.bytes(endPath)));
         }
 
+        Brisk.Iface connection = acquireClient();
         try {
             List<KeySlice> keys =
-                    client.get_indexed_slices(inodeParent, new IndexClause(
+                    connection.get_indexed_slices(inodeParent, new IndexClause(
                             indexExpressions, ByteBufferUtil.EMPTY_BYTE_BUFFER,
                             100000), pathPredicate, consistencyLevelRead);
 
@@ -743,6 +1003,8 @@ public class CassandraFileSystemThriftStore implements CassandraFileSystemStore
             return matches;
         } catch (Exception e) {
             throw new IOException(e);
+        } finally {
+            releaseClient(connection);
         }
     }
 
@@ -758,9 +1020,10 @@ public class CassandraFileSystemThriftStore implements CassandraFileSystemStore
         indexExpressions.add(new IndexExpression(parentPathCol,
                 IndexOperator.EQ, ByteBufferUtil.bytes(startPath)));
 
+        Brisk.Iface connection = acquireClient();
         try {
             List<KeySlice> keys =
-                    client.get_indexed_slices(inodeParent, new IndexClause(
+                    connection.get_indexed_slices(inodeParent, new IndexClause(
                             indexExpressions, ByteBufferUtil.EMPTY_BYTE_BUFFER,
                             100000), pathPredicate, consistencyLevelRead);
 
@@ -776,6 +1039,8 @@ public class CassandraFileSystemThriftStore implements CassandraFileSystemStore
             return matches;
         } catch (Exception e) {
             throw new IOException(e);
+        } finally {
+            releaseClient(connection);
         }
     }
 
@@ -795,9 +1060,10 @@ public class CassandraFileSystemThriftStore implements CassandraFileSystemStore
 
         BlockLocation[] locations = new BlockLocation[blocks.size()];
 
+        Brisk.Iface connection = acquireClient();
         try {
             List<List<String>> blockEndpoints =
-                    ((Brisk.Iface) client).describe_keys(keySpace, blockKeys);
+                    connection.describe_keys(keySpace, blockKeys);
 
             for (int i = 0; i < blockEndpoints.size(); i++) {
                 List<String> endpoints = blockEndpoints.get(i);
@@ -815,6 +1081,8 @@ public class CassandraFileSystemThriftStore implements CassandraFileSystemStore
             return locations;
         } catch (Exception e) {
             throw new IOException(e);
+        } finally {
+            releaseClient(connection);
         }
 
     }
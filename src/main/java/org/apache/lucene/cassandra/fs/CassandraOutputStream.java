@@ -21,9 +21,15 @@ package org.apache.lucene.cassandra.fs;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.apache.cassandra.utils.FBUtilities;
 import org.apache.cassandra.utils.UUIDGen;
@@ -78,10 +84,38 @@ public class CassandraOutputStream extends OutputStream {
      */
     private UUID currentBlockUUID;
 
+    /**
+     * Workers compressing and storing completed SubBlocks, or null to store
+     * them synchronously.
+     */
+    private final ExecutorService uploadExecutor;
+
+    /**
+     * Maximum number of completed SubBlocks waiting to be stored. Bounds the
+     * memory of this stream to that many SubBlock buffers plus the one being
+     * filled.
+     */
+    private final int maxSubBlocksInFlight;
+
+    /**
+     * Uploads not yet known to be completed, oldest first. Each one gives
+     * back the buffer it stored so it can be filled again.
+     */
+    private final LinkedList<Future<ByteBuffer>> pendingUploads =
+            new LinkedList<Future<ByteBuffer>>();
+
     public CassandraOutputStream(Configuration conf,
             CassandraFileSystemStore store, Path path, FsPermission perms,
             long blockSize, long subBlockSize, Progressable progress,
             int buffersize) throws IOException {
+        this(conf, store, path, perms, blockSize, subBlockSize, progress,
+                buffersize, null);
+    }
+
+    public CassandraOutputStream(Configuration conf,
+            CassandraFileSystemStore store, Path path, FsPermission perms,
+            long blockSize, long subBlockSize, Progressable progress,
+            int buffersize, ExecutorService uploadExecutor) throws IOException {
         this.conf = conf;
         this.store = store;
         this.path = path;
@@ -93,6 +127,9 @@ public class CassandraOutputStream extends OutputStream {
         this.outBuf = new byte[bufferSize];
         this.perms = perms;
         this.currentBlockUUID = generateTimeUUID();
+        this.uploadExecutor = uploadExecutor;
+        this.maxSubBlocksInFlight =
+                Math.max(1, conf.getInt("fs.local.subblock.inflight", 4));
 
         // Integrity check.
         if (blockSize < subBlockSize) {
@@ -255,16 +292,102 @@ public class CassandraOutputStream extends OutputStream {
         backupStream.limit(backupStream.position());
         backupStream.rewind();
 
-        store.storeSubBlock(currentBlockUUID, nextSubBlock, backupStream);
+        if (uploadExecutor == null) {
+            store.storeSubBlock(currentBlockUUID, nextSubBlock, backupStream);
 
-        // Get the stream ready for next subBlock
-        backupStream.limit(backupStream.capacity());
-        backupStream.rewind();
+            // Get the stream ready for next subBlock
+            backupStream.limit(backupStream.capacity());
+            backupStream.rewind();
+        } else {
+            pendingUploads.add(uploadExecutor.submit(new SubBlockUpload(
+                    currentBlockUUID, nextSubBlock, backupStream)));
+
+            backupStream = nextBackupStream();
+        }
 
         // Reset counter for subBlock as this subBlock is full.
         bytesWrittenToSubBlock = 0;
     }
 
+    /**
+     * @return an empty buffer for the next subBlock, reusing the one of the
+     *         oldest upload if it is done or if too many are in flight.
+     */
+    private ByteBuffer nextBackupStream() throws IOException {
+        ByteBuffer buffer = null;
+
+        if (pendingUploads.size() >= maxSubBlocksInFlight
+                || pendingUploads.getFirst().isDone()) {
+            buffer = awaitUpload(pendingUploads.removeFirst());
+        }
+
+        if (buffer == null) {
+            return ByteBuffer.allocateDirect((int) subBlockSize);
+        }
+
+        buffer.limit(buffer.capacity());
+        buffer.rewind();
+        return buffer;
+    }
+
+    /**
+     * Waits for all outstanding subBlock uploads.
+     */
+    private void waitForUploads() throws IOException {
+        IOException failure = null;
+
+        while (!pendingUploads.isEmpty()) {
+            try {
+                awaitUpload(pendingUploads.removeFirst());
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private ByteBuffer awaitUpload(Future<ByteBuffer> upload)
+            throws IOException {
+        try {
+            return upload.get();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException(e.getMessage());
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Compresses and stores one completed subBlock off the writer thread.
+     */
+    private class SubBlockUpload implements Callable<ByteBuffer> {
+
+        private final UUID blockUUID;
+
+        private final SubBlock subBlock;
+
+        private final ByteBuffer data;
+
+        SubBlockUpload(UUID blockUUID, SubBlock subBlock, ByteBuffer data) {
+            this.blockUUID = blockUUID;
+            this.subBlock = subBlock;
+            this.data = data;
+        }
+
+        public ByteBuffer call() throws IOException {
+            store.storeSubBlock(blockUUID, subBlock, data);
+            return data;
+        }
+    }
+
     private synchronized void nextSubBlockOutputStream() {
         // SubBlock offset ==> bytesWrittenToBlock - bytesWrittenToSubBlock -
         // pos
@@ -321,6 +444,9 @@ public class CassandraOutputStream extends OutputStream {
             endBlock();
         }
 
+        // The INode must not reference subBlocks that are not stored yet.
+        waitForUploads();
+
         // Save the INode to the DB after ending the subBlocks and Blocks.
         internalClose();
         super.close();
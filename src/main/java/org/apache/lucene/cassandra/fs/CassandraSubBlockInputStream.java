@@ -20,6 +20,11 @@ package org.apache.lucene.cassandra.fs;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 /**
  * Inner inputStream for SubBlocks that provides an abstraction to
@@ -28,6 +33,11 @@ import java.io.InputStream;
  * 
  *       It handles the SubBlock switch and closes the underlying inputstream.
  * 
+ *       While one SubBlock is read, the following ones are fetched and
+ *       decompressed on the store's worker pool. At most
+ *       {@link CassandraFileSystemThriftStore#getSubBlockReadAhead()} of them
+ *       are in flight, which also bounds the decompressed buffers held.
+ * 
  */
 public class CassandraSubBlockInputStream extends InputStream {
 
@@ -45,6 +55,22 @@ public class CassandraSubBlockInputStream extends InputStream {
 
     private CassandraFileSystemThriftStore store;
 
+    /**
+     * Index of the SubBlock currently streamed by subBlockStream.
+     */
+    private int currentSubBlock = -1;
+
+    /**
+     * Index of the next SubBlock to hand to the worker pool.
+     */
+    private int nextSubBlockToFetch;
+
+    /**
+     * Pending fetches of the SubBlocks following currentSubBlock, in order.
+     */
+    private final LinkedList<SubBlockFetch> prefetched =
+            new LinkedList<SubBlockFetch>();
+
     public CassandraSubBlockInputStream(CassandraFileSystemThriftStore store,
             Block block, long byteRangeStart) {
         this.store = store;
@@ -130,10 +156,117 @@ public class CassandraSubBlockInputStream extends InputStream {
 
         this.pos = target;
         this.subBlockEnd = targetSubBlockEnd;
-        this.subBlockStream =
-                store.retrieveSubBlock(block, block.subBlocks[targetSubBlock],
-                        offsetIntoSubBlock);
 
+        if (targetSubBlock == currentSubBlock + 1 && offsetIntoSubBlock == 0
+                && !prefetched.isEmpty()) {
+            // Sequential read, the SubBlock is already on its way.
+            this.subBlockStream = awaitSubBlock(prefetched.removeFirst().future);
+        } else {
+            cancelPrefetched();
+            this.subBlockStream =
+                    store.retrieveSubBlock(block,
+                            block.subBlocks[targetSubBlock],
+                            offsetIntoSubBlock);
+            nextSubBlockToFetch = targetSubBlock + 1;
+        }
+        currentSubBlock = targetSubBlock;
+
+        prefetchSubBlocks();
+    }
+
+    /**
+     * Keep up to the store's read ahead of SubBlocks in flight after the
+     * current one.
+     */
+    private void prefetchSubBlocks() {
+        int readAhead = store.getSubBlockReadAhead();
+
+        while (prefetched.size() < readAhead
+                && nextSubBlockToFetch < block.subBlocks.length) {
+            SubBlockFetch fetch =
+                    new SubBlockFetch(block.subBlocks[nextSubBlockToFetch++]);
+            fetch.future = store.getSubBlockFetchExecutor().submit(fetch);
+            prefetched.add(fetch);
+        }
+    }
+
+    private InputStream awaitSubBlock(Future<InputStream> future)
+            throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            cancelPrefetched();
+            throw new InterruptedIOException(e.getMessage());
+        } catch (ExecutionException e) {
+            cancelPrefetched();
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Drops the pending fetches. Those already completed are closed here,
+     * those still running close their SubBlock themselves once fetched, so
+     * their buffers go back to the store either way.
+     */
+    private void cancelPrefetched() {
+        for (SubBlockFetch fetch : prefetched) {
+            fetch.cancel();
+        }
+        prefetched.clear();
+    }
+
+    /**
+     * Fetch of a SubBlock ahead of the reader, which may be cancelled at
+     * any time.
+     */
+    private class SubBlockFetch implements Callable<InputStream> {
+
+        private final SubBlock subBlock;
+
+        private Future<InputStream> future;
+
+        // guarded by this.
+        private boolean cancelled;
+
+        private InputStream fetched;
+
+        SubBlockFetch(SubBlock subBlock) {
+            this.subBlock = subBlock;
+        }
+
+        public InputStream call() throws Exception {
+            InputStream stream = store.retrieveSubBlock(block, subBlock, 0);
+            synchronized (this) {
+                if (!cancelled) {
+                    fetched = stream;
+                    return stream;
+                }
+            }
+            // Nobody is going to read it anyway.
+            stream.close();
+            return null;
+        }
+
+        void cancel() {
+            // a fetch that did not start yet never will.
+            future.cancel(false);
+            InputStream stream;
+            synchronized (this) {
+                cancelled = true;
+                stream = fetched;
+                fetched = null;
+            }
+            if (stream != null) {
+                try {
+                    stream.close();
+                } catch (IOException e) {
+                    // Nobody is going to read it anyway.
+                }
+            }
+        }
     }
 
     @Override
@@ -145,6 +278,7 @@ public class CassandraSubBlockInputStream extends InputStream {
         if (this.subBlockStream != null) {
             this.subBlockStream.close();
         }
+        cancelPrefetched();
 
         super.close();
         closed = true;
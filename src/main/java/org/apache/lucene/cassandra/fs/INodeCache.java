@@ -0,0 +1,113 @@
+package org.apache.lucene.cassandra.fs;
+
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.MapMaker;
+
+import org.apache.hadoop.fs.Path;
+
+/**
+ * Cache of {@link INode}s keyed by path.
+ *
+ * Entries expire after a short TTL so changes made by other clients are
+ * picked up. Changes made through this client are applied directly. The
+ * column timestamp of an INode (its mtime) decides which of two versions is
+ * the fresher one, so a late read from a lagging replica never replaces a
+ * newer INode.
+ */
+public class INodeCache {
+
+    private final ConcurrentMap<String, INode> inodes;
+
+    /**
+     * @param ttl
+     *            milliseconds an entry is served before being read again. A
+     *            TTL of 0 or less disables the cache.
+     * @param maxSize
+     *            maximum number of entries.
+     */
+    public INodeCache(long ttl, int maxSize) {
+        if (ttl > 0) {
+            inodes =
+                    new MapMaker().maximumSize(maxSize)
+                            .expireAfterWrite(ttl, TimeUnit.MILLISECONDS)
+                            .makeMap();
+        } else {
+            inodes = null;
+        }
+    }
+
+    /**
+     * @return the cached INode of <code>path</code> or null if there is none.
+     */
+    public INode get(Path path) {
+        if (inodes == null) {
+            return null;
+        }
+        return inodes.get(getKey(path));
+    }
+
+    /**
+     * Caches <code>inode</code> unless a fresher version of it is already
+     * cached.
+     *
+     * @return the INode now cached for <code>path</code>.
+     */
+    public INode put(Path path, INode inode) {
+        if (inodes == null) {
+            return inode;
+        }
+
+        String key = getKey(path);
+
+        while (true) {
+            INode cached = inodes.putIfAbsent(key, inode);
+
+            if (cached == null) {
+                return inode;
+            }
+            if (cached.mtime > inode.mtime) {
+                return cached;
+            }
+            if (inodes.replace(key, cached, inode)) {
+                return inode;
+            }
+        }
+    }
+
+    public void invalidate(Path path) {
+        if (inodes != null) {
+            inodes.remove(getKey(path));
+        }
+    }
+
+    public void clear() {
+        if (inodes != null) {
+            inodes.clear();
+        }
+    }
+
+    private String getKey(Path path) {
+        return path.toUri().getPath();
+    }
+
+}
@@ -0,0 +1,220 @@
+package org.apache.lucene.cassandra.fs;
+
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.cassandra.io.util.FileUtils;
+import org.apache.log4j.Logger;
+
+/**
+ * Open channels and mappings of the local SSTable files SubBlocks are read
+ * from when they live on this node.
+ *
+ * Files are reference counted: a file is acquired for each read and
+ * released once its data is no longer needed. The least recently used files
+ * beyond <code>maxOpenFiles</code> are closed as soon as nobody holds them.
+ *
+ * SSTables are deleted once compacted, so files that no longer exist are
+ * forgotten as well, rather than keeping their descriptor and mappings
+ * until they happen to be the least recently used.
+ */
+public class LocalBlockFiles {
+    private static final Logger logger = Logger
+            .getLogger(LocalBlockFiles.class);
+
+    private final int maxOpenFiles;
+
+    private final int maxMappingsPerFile;
+
+    private final LinkedHashMap<String, MappedFile> files =
+            new LinkedHashMap<String, MappedFile>(16, 0.75f, true);
+
+    public LocalBlockFiles(int maxOpenFiles, int maxMappingsPerFile) {
+        this.maxOpenFiles = maxOpenFiles;
+        this.maxMappingsPerFile = maxMappingsPerFile;
+    }
+
+    /**
+     * @param fileName
+     *            local SSTable file
+     * @return the file, referenced until {@link MappedFile#close()} is called.
+     * @throws IOException
+     *             if the file cannot be opened
+     */
+    public synchronized MappedFile acquire(String fileName)
+            throws IOException {
+        MappedFile file = files.get(fileName);
+
+        if (file != null && !new File(fileName).exists()) {
+            // Deleted since it was opened, and the data read from it would
+            // be stale: fail like a file that was never opened.
+            files.remove(fileName);
+            evict(file);
+            file = null;
+        }
+
+        if (file == null) {
+            evictDeletedFiles();
+            file = new MappedFile(fileName);
+            files.put(fileName, file);
+            evictIdleFiles();
+        }
+
+        file.refCount++;
+        return file;
+    }
+
+    private synchronized void release(MappedFile file) {
+        file.refCount--;
+
+        if (file.refCount == 0 && file.evicted) {
+            file.closeChannel();
+        }
+    }
+
+    /**
+     * Closes the least recently used files above the limit. Files still in
+     * use are only forgotten here and closed on their last release.
+     */
+    private void evictIdleFiles() {
+        Iterator<MappedFile> it = files.values().iterator();
+
+        while (files.size() > maxOpenFiles && it.hasNext()) {
+            MappedFile file = it.next();
+            it.remove();
+            evict(file);
+        }
+    }
+
+    /**
+     * Closes the files which were deleted since they were opened, as is the
+     * case of SSTables once compacted.
+     */
+    private void evictDeletedFiles() {
+        Iterator<MappedFile> it = files.values().iterator();
+
+        while (it.hasNext()) {
+            MappedFile file = it.next();
+            if (!new File(file.fileName).exists()) {
+                it.remove();
+                evict(file);
+            }
+        }
+    }
+
+    private void evict(MappedFile file) {
+        file.evicted = true;
+        if (file.refCount == 0) {
+            file.closeChannel();
+        }
+    }
+
+    /**
+     * Closes all the files nobody is reading from.
+     */
+    public synchronized void clear() {
+        for (MappedFile file : files.values()) {
+            evict(file);
+        }
+        files.clear();
+    }
+
+    /**
+     * One local file and the regions of it mapped so far.
+     */
+    public class MappedFile implements Closeable {
+
+        private final String fileName;
+
+        private final RandomAccessFile raf;
+
+        private final FileChannel channel;
+
+        private final LinkedHashMap<Long, MappedByteBuffer> mappings;
+
+        private int refCount = 0;
+
+        private boolean evicted = false;
+
+        private MappedFile(String fileName) throws IOException {
+            this.fileName = fileName;
+            this.raf = new RandomAccessFile(fileName, "r");
+            this.channel = raf.getChannel();
+            this.mappings =
+                    new LinkedHashMap<Long, MappedByteBuffer>(16, 0.75f, true) {
+                        private static final long serialVersionUID = 1L;
+
+                        @Override
+                        protected boolean removeEldestEntry(
+                                Map.Entry<Long, MappedByteBuffer> eldest) {
+                            return size() > maxMappingsPerFile;
+                        }
+                    };
+        }
+
+        /**
+         * @return a private view of the region, readable from position 0 to
+         *         <code>length</code>.
+         */
+        public synchronized ByteBuffer map(long offset, long length)
+                throws IOException {
+            MappedByteBuffer mapping = mappings.get(offset);
+
+            if (mapping == null || mapping.capacity() != length) {
+                if (logger.isDebugEnabled())
+                    logger.debug("Mmapping " + length + " bytes of "
+                            + fileName);
+
+                mapping =
+                        channel.map(FileChannel.MapMode.READ_ONLY, offset,
+                                length);
+                mappings.put(offset, mapping);
+            }
+
+            return mapping.duplicate();
+        }
+
+        /**
+         * Releases this reference to the file.
+         */
+        public void close() {
+            release(this);
+        }
+
+        private void closeChannel() {
+            // Mappings stay valid once the channel is closed, readers still
+            // holding a view are not affected.
+            synchronized (this) {
+                mappings.clear();
+            }
+            FileUtils.closeQuietly(raf);
+        }
+    }
+
+}
@@ -0,0 +1,132 @@
+package org.apache.lucene.cassandra.fs;
+
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Queue;
+
+/**
+ * InputStream over the decompressed content of a @link {@link SubBlock}.
+ *
+ * The stream owns its buffer, so nobody else can overwrite the data while it
+ * is being read. On close the buffer is handed back to the pool it was taken
+ * from so the next SubBlock can reuse it, and the resource backing the data,
+ * if any, is released.
+ */
+public class SubBlockDataInputStream extends InputStream {
+
+    private final ByteBuffer data;
+
+    private final Queue<ByteBuffer> pool;
+
+    private final Closeable resource;
+
+    private boolean closed;
+
+    /**
+     * @param data
+     *            decompressed content, readable from position to limit.
+     * @param pool
+     *            where the buffer goes back on close, or null if the buffer
+     *            should be left to the garbage collector.
+     */
+    public SubBlockDataInputStream(ByteBuffer data, Queue<ByteBuffer> pool) {
+        this(data, pool, null);
+    }
+
+    /**
+     * @param data
+     *            content, readable from position to limit.
+     * @param pool
+     *            where the buffer goes back on close, or null.
+     * @param resource
+     *            closed along with this stream, or null.
+     */
+    public SubBlockDataInputStream(ByteBuffer data, Queue<ByteBuffer> pool,
+            Closeable resource) {
+        this.data = data;
+        this.pool = pool;
+        this.resource = resource;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        if (!data.hasRemaining()) {
+            return -1;
+        }
+        return data.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte buf[], int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        if (len == 0) {
+            return 0;
+        }
+        if (!data.hasRemaining()) {
+            return -1;
+        }
+        int realLen = Math.min(len, data.remaining());
+        data.get(buf, off, realLen);
+        return realLen;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        if (n <= 0) {
+            return 0;
+        }
+        int skipped = (int) Math.min(n, data.remaining());
+        data.position(data.position() + skipped);
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return closed ? 0 : data.remaining();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        if (pool != null) {
+            data.clear();
+            pool.offer(data);
+        }
+        if (resource != null) {
+            resource.close();
+        }
+    }
+
+}
@@ -0,0 +1,213 @@
+package org.apache.lucene.store;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.cassandra.concurrent.NamedThreadFactory;
+import org.apache.lucene.index.IndexFileNames;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.IndexWriterConfig.OpenMode;
+import org.apache.lucene.index.SegmentInfos;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.leadboxer.util.LuceneSettings;
+
+/**
+ * Publishes an index built in a local directory to another directory, such
+ * as a Cassandra one, in a single step.
+ *
+ * <p>
+ * Building a large index straight into Cassandra sends every flush and every
+ * intermediate merge over the network, though most of those files are
+ * merged away again shortly after. Building it locally and uploading only
+ * the files of the final commit moves each byte once.
+ * </p>
+ *
+ * <p>
+ * The files of the segments are copied first, several at a time, and
+ * synced together. Only then is the segments file written, so readers of
+ * the target keep seeing the commit they had until the whole new index is
+ * there, and switch to it at once. The segments file is renamed to a
+ * generation above the last one of the target, for readers to pick it over
+ * an older commit, whose files are deleted afterwards.
+ * </p>
+ *
+ * <p>
+ * A local build names its segments from <code>_0</code> on, so the files of
+ * an index loaded earlier may well have the same names. Those cannot be
+ * overwritten under the readers of the target, so the index replaces the
+ * one of the target through an {@link IndexWriter} instead, which copies the
+ * segments one file at a time under names of its own.
+ * </p>
+ */
+public class BulkLoader {
+
+    private static Logger logger = LoggerFactory.getLogger(BulkLoader.class);
+
+    /** number of files copied at the same time. */
+    public static final int DEFAULT_THREADS =
+            Integer.getInteger("lucene.cassandra.bulk.threads", 8);
+
+    private final Directory source;
+
+    private final Directory target;
+
+    private final int threads;
+
+    public BulkLoader(Directory source, Directory target) {
+        this(source, target, DEFAULT_THREADS);
+    }
+
+    /**
+     * @param source
+     *            the directory the index was built in
+     * @param target
+     *            the directory the index is published to
+     * @param threads
+     *            number of files copied at the same time
+     */
+    public BulkLoader(Directory source, Directory target, int threads) {
+        this.source = source;
+        this.target = target;
+        this.threads = Math.max(threads, 1);
+    }
+
+    /**
+     * Copy the files of the latest commit of the source to the target, the
+     * segments file last.
+     *
+     * @return the name of the segments file written to the target
+     * @throws IOException
+     *             if a file could not be copied. Nothing is visible to
+     *             readers of the target then.
+     */
+    public String upload() throws IOException {
+        long start = System.currentTimeMillis();
+        SegmentInfos infos = new SegmentInfos();
+        infos.read(source);
+        final List<String> files = new ArrayList<String>(infos.files(source, false));
+
+        String[] existing = target.listAll();
+        Set<String> existingFiles = new HashSet<String>(Arrays.asList(existing));
+        for (String file : files) {
+            // overwriting it could break the readers of the current commit.
+            if (existingFiles.contains(file)) {
+                logger.info("{} already exists in {}, replacing the index",
+                        file, target);
+                return replace();
+            }
+        }
+        long lastGeneration = SegmentInfos.getLastCommitGeneration(existing);
+        long generation = Math.max(infos.getGeneration(), lastGeneration + 1);
+
+        long bytes = copy(files);
+        target.sync(files);
+
+        String segmentsFile =
+                IndexFileNames.fileNameFromGeneration(IndexFileNames.SEGMENTS,
+                        "", generation);
+        source.copy(target, infos.getSegmentsFileName(), segmentsFile,
+                IOContext.DEFAULT);
+        target.sync(Collections.singleton(segmentsFile));
+        SegmentInfos.writeSegmentsGen(target, generation);
+        if (lastGeneration >= 0) {
+            deleteSupersededCommits();
+        }
+
+        long elapsed = Math.max(System.currentTimeMillis() - start, 1);
+        logger.info("uploaded {} files as {}", files.size() + 1, segmentsFile);
+        logger.info("uploaded {} bytes, {} KB/sec", bytes, bytes / elapsed);
+        return segmentsFile;
+    }
+
+    /**
+     * Replace the index of the target with the latest commit of the source,
+     * renaming the segments above those of the target. Creating the writer
+     * keeps the segment counter of the target, and nothing is visible to
+     * readers until the commit, which deletes the superseded one.
+     *
+     * @return the name of the segments file written to the target
+     */
+    private String replace() throws IOException {
+        IndexWriterConfig iwc =
+                new IndexWriterConfig(LuceneSettings.currentVersion, null);
+        iwc.setOpenMode(OpenMode.CREATE);
+        IndexWriter writer = new IndexWriter(target, iwc);
+        try {
+            writer.addIndexes(source);
+            writer.commit();
+        } finally {
+            writer.close();
+        }
+        return SegmentInfos.getLastCommitSegmentsFileName(target);
+    }
+
+    /**
+     * Delete the commits of the target older than the one just written, and
+     * their files, as the writer of the target would have. Failing to is
+     * only logged, the new commit is already published.
+     */
+    private void deleteSupersededCommits() {
+        IndexWriterConfig iwc =
+                new IndexWriterConfig(LuceneSettings.currentVersion, null);
+        iwc.setOpenMode(OpenMode.APPEND);
+        try {
+            // opening the writer deletes what the last commit does not use.
+            new IndexWriter(target, iwc).close();
+        } catch (IOException e) {
+            logger.warn("unable to delete the superseded commits of "
+                    + target, e);
+        }
+    }
+
+    /**
+     * Copy the given files from the source to the target, several at a time.
+     *
+     * @return the number of bytes copied
+     */
+    private long copy(List<String> files) throws IOException {
+        ExecutorService executor =
+                Executors.newFixedThreadPool(threads, new NamedThreadFactory(
+                        "BulkLoader"));
+        try {
+            List<Future<Long>> copied = new ArrayList<Future<Long>>();
+            for (final String file : files) {
+                copied.add(executor.submit(new Callable<Long>() {
+                    @Override
+                    public Long call() throws IOException {
+                        long length = source.fileLength(file);
+                        source.copy(target, file, file, IOContext.DEFAULT);
+                        logger.debug("uploaded {} ({} bytes)", file, length);
+                        return length;
+                    }
+                }));
+            }
+            long bytes = 0;
+            for (Future<Long> file : copied) {
+                bytes += file.get();
+            }
+            return bytes;
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException(e.getMessage());
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException
+                    ? (IOException) e.getCause()
+                    : new IOException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
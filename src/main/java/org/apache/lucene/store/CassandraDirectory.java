@@ -18,6 +18,7 @@ package org.apache.lucene.store;
  */
 
 import java.io.ByteArrayInputStream;
+import java.io.EOFException;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStreamReader;
@@ -29,6 +30,8 @@ import java.util.Comparator;
 import java.util.Date;
 import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -147,6 +150,9 @@ public class CassandraDirectory extends Directory {
     // The default size of the buffer, which is managed by the index output.
     public static final int DEFAULT_BUFFER_SIZE = 1 * DEFAULT_BLOCK_SIZE;
 
+    // The default number of bytes of blocks cached by each compound file slicer.
+    public static final long DEFAULT_SLICER_CACHE_SIZE = 8 * DEFAULT_BLOCK_SIZE;
+
     // The default host where the cassandra server is located.
     public static final String DEFAULT_CASSANDRA_HOST = "localhost";
 
@@ -309,11 +315,23 @@ public class CassandraDirectory extends Directory {
         this.lockFactory = new SimpleFSLockFactory("lock");
     }
     
+    /**
+     * Creates a slicer that loads the descriptor of the given file once, and
+     * serves every slice from the blocks it has fetched so far. Each slice has
+     * its own file pointer, so reading from one never waits for another.
+     */
     @Override
     public IndexInputSlicer createSlicer(String name, IOContext context)
             throws IOException {
-        logger.trace("createSlicer called");
-        return super.createSlicer(name, context);
+        ensureOpen();
+        logger.trace("createSlicer {}", name);
+        FileDescriptor fileDescriptor =
+                columnOrientedDirectory.getFileDescriptor(name);
+        if (fileDescriptor == null) {
+            throw new FileNotFoundException(name);
+        }
+        return new CassandraIndexInputSlicer(fileDescriptor,
+                BufferedIndexInput.bufferSize(context));
     }
 
     /**
@@ -2031,6 +2049,269 @@ public class CassandraDirectory extends Directory {
         
     }
 
+    /**
+     * The <code>CassandraIndexInputSlicer</code> opens the sub-files of a
+     * compound file. It holds the descriptor of the compound file and the
+     * blocks read from it so far, both of which are shared by all the slices
+     * it opens.
+     * 
+     * <p>
+     * Blocks are never modified once written, so a block is cached as soon
+     * as it has been fetched, and all slices read from the cached copy from
+     * then on. Two slices missing the same block may both fetch it, which is
+     * cheaper than making either of them wait for the other. The blocks used
+     * least recently are dropped once the cache holds more than
+     * <code>cacheSize</code> bytes.
+     * </p>
+     */
+    public class CassandraIndexInputSlicer extends IndexInputSlicer {
+        // The descriptor of the compound file.
+        protected final FileDescriptor fileDescriptor;
+
+        // The file pointer of the first byte of each block, followed by the
+        // length of the file.
+        protected final long[] blockStarts;
+
+        // The blocks of the file, in order.
+        protected final FileBlock[] blocks;
+
+        // The data of the blocks used last, by block index, guarded by itself.
+        protected final LinkedHashMap<Integer, byte[]> blockCache =
+                new LinkedHashMap<Integer, byte[]>(16, 0.75f, true);
+
+        // The most bytes of blocks cached.
+        protected final long cacheSize;
+
+        // The bytes of blocks cached, guarded by blockCache.
+        private long cachedBytes;
+
+        protected final ColumnOrientedFile columnOrientedFile =
+                new ColumnOrientedFile();
+
+        protected final int bufferSize;
+
+        /**
+         * Construct a slicer over the file of the given descriptor.
+         * 
+         * @param fileDescriptor
+         *            the descriptor of the compound file
+         * @param bufferSize
+         *            the size of the input buffer of each slice
+         */
+        public CassandraIndexInputSlicer(FileDescriptor fileDescriptor,
+                int bufferSize) {
+            this(fileDescriptor, bufferSize, DEFAULT_SLICER_CACHE_SIZE);
+        }
+
+        /**
+         * Construct a slicer over the file of the given descriptor.
+         * 
+         * @param fileDescriptor
+         *            the descriptor of the compound file
+         * @param bufferSize
+         *            the size of the input buffer of each slice
+         * @param cacheSize
+         *            the most bytes of blocks cached for the slices
+         */
+        public CassandraIndexInputSlicer(FileDescriptor fileDescriptor,
+                int bufferSize, long cacheSize) {
+            this.fileDescriptor = fileDescriptor;
+            this.bufferSize = bufferSize;
+            this.cacheSize = cacheSize;
+            this.blocks =
+                    fileDescriptor.getBlocks().toArray(
+                            new FileBlock[fileDescriptor.getBlocks().size()]);
+            this.blockStarts = new long[blocks.length + 1];
+            for (int i = 0; i < blocks.length; i++) {
+                blockStarts[i + 1] = blockStarts[i] + blocks[i].getDataLength();
+            }
+        }
+
+        @Override
+        public IndexInput openSlice(String sliceDescription, long offset,
+                long length) {
+            logger.trace("openSlice {} of {}", sliceDescription,
+                    fileDescriptor.getName());
+            return new CassandraSliceInput("CassandraSliceInput("
+                    + sliceDescription + " in " + fileDescriptor.getName()
+                    + " slice=" + offset + ":" + (offset + length) + ")",
+                    offset, length);
+        }
+
+        /**
+         * @deprecated Only kept as long as {@link IndexInputSlicer} declares it.
+         */
+        @Deprecated
+        @Override
+        public IndexInput openFullSlice() {
+            return openSlice("full-slice", 0, fileDescriptor.getLength());
+        }
+
+        /**
+         * Drop the cached blocks. Slices opened by this slicer must not be
+         * read from afterwards.
+         */
+        @Override
+        public void close() throws IOException {
+            logger.trace("close slicer of {}", fileDescriptor.getName());
+            synchronized (blockCache) {
+                blockCache.clear();
+                cachedBytes = 0;
+            }
+        }
+
+        /**
+         * @return the cached data of the block of the given index, or null
+         */
+        protected byte[] getCachedBlock(int index) {
+            synchronized (blockCache) {
+                return blockCache.get(index);
+            }
+        }
+
+        /**
+         * Cache the data of the block of the given index, dropping the blocks
+         * used least recently beyond the size of the cache.
+         */
+        protected void cacheBlock(int index, byte[] data) {
+            synchronized (blockCache) {
+                byte[] previous = blockCache.put(index, data);
+                cachedBytes += data.length
+                        - (previous == null ? 0 : previous.length);
+                Iterator<byte[]> eldest = blockCache.values().iterator();
+                while (cachedBytes > cacheSize && eldest.hasNext()) {
+                    cachedBytes -= eldest.next().length;
+                    eldest.remove();
+                }
+            }
+        }
+
+        /**
+         * Copy the given number of bytes of the file, starting at the given
+         * file pointer, into the given array. All the blocks of the range that
+         * are not cached yet are fetched in a single request.
+         */
+        protected void read(long filePointer, byte[] bytes, int offset,
+                int length) throws IOException {
+            if (length == 0) {
+                return;
+            }
+            int first = findBlock(filePointer);
+            int last = findBlock(filePointer + length - 1);
+
+            // the blocks of the range are held here while they are copied,
+            // the cache may drop them in the meantime.
+            byte[][] range = new byte[last - first + 1][];
+            Set<byte[]> blockNames = new TreeSet<byte[]>(BYTE_ARRAY_COMPARATOR);
+            for (int i = first; i <= last; i++) {
+                range[i - first] = getCachedBlock(i);
+                if (range[i - first] == null) {
+                    blockNames.add(blocks[i].getBlockName().getBytes());
+                }
+            }
+            if (!blockNames.isEmpty()) {
+                BlockMap blockMap =
+                        columnOrientedFile.readFileBlocks(fileDescriptor,
+                                blockNames);
+                for (int i = first; i <= last; i++) {
+                    byte[] data =
+                            blockMap.get(blocks[i].getBlockName().getBytes());
+                    if (range[i - first] == null && data != null) {
+                        range[i - first] = data;
+                        cacheBlock(i, data);
+                    }
+                }
+            }
+
+            for (int i = first; i <= last; i++) {
+                byte[] data = range[i - first];
+                if (data == null) {
+                    throw new IOException("Unable to read block "
+                            + blocks[i].getBlockName() + " of "
+                            + fileDescriptor.getName());
+                }
+                int position = (int) (filePointer - blockStarts[i]);
+                int bytesToRead =
+                        (int) Math.min(length, blockStarts[i + 1] - filePointer);
+                System.arraycopy(data, position, bytes, offset, bytesToRead);
+                filePointer += bytesToRead;
+                offset += bytesToRead;
+                length -= bytesToRead;
+            }
+        }
+
+        private int findBlock(long filePointer) throws IOException {
+            if (filePointer < 0 || filePointer >= fileDescriptor.getLength()
+                    || blocks.length == 0) {
+                throw new EOFException("read past EOF: "
+                        + fileDescriptor.getName());
+            }
+            int index = Arrays.binarySearch(blockStarts, filePointer);
+            // skip empty blocks, and land in the block containing the pointer
+            // when it falls between two starts.
+            if (index >= 0) {
+                while (index < blocks.length - 1
+                        && blockStarts[index + 1] == filePointer) {
+                    index++;
+                }
+            } else {
+                index = -index - 2;
+            }
+            return Math.min(index, blocks.length - 1);
+        }
+
+        /**
+         * A window on the compound file, translating its own file pointers to
+         * those of the compound file. Its position lives in the
+         * {@link BufferedIndexInput} alone, so slices and their clones need
+         * no locking.
+         */
+        public class CassandraSliceInput extends BufferedIndexInput {
+            // The start of this slice in the compound file.
+            protected final long offset;
+
+            // The length of this slice.
+            protected final long length;
+
+            public CassandraSliceInput(String resourceDescription,
+                    long offset, long length) {
+                super(resourceDescription, bufferSize);
+                this.offset = offset;
+                this.length = length;
+            }
+
+            @Override
+            protected void readInternal(byte[] bytes, int offset, int length)
+                    throws IOException {
+                long position = getFilePointer();
+                if (position + length > this.length) {
+                    throw new EOFException("read past EOF: " + this);
+                }
+                read(this.offset + position, bytes, offset, length);
+            }
+
+            /**
+             * There's nothing to seek, reads are positioned by the file
+             * pointer.
+             */
+            @Override
+            protected void seekInternal(long position) {
+            }
+
+            /**
+             * There's nothing to close, the slicer owns the shared state.
+             */
+            @Override
+            public void close() {
+            }
+
+            @Override
+            public long length() {
+                return length;
+            }
+        }
+    }
+
     /**
      * The <code>CassandraClient</code> encapsulates the low-level interactions
      * of the directory with the (remote) Cassandra server. In particular, it
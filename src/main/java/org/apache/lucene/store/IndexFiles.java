@@ -5,6 +5,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.Date;
 
@@ -12,6 +13,8 @@ import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.cassandra.ACassandraFile;
 import org.apache.lucene.cassandra.ACassandraRandomAccessFile;
+import org.apache.lucene.cassandra.CassandraMergePolicy;
+import org.apache.lucene.cassandra.CassandraMergeScheduler;
 import org.apache.lucene.cassandra.FSFile;
 import org.apache.lucene.cassandra.FSRandomAccessFile;
 import org.apache.lucene.cassandra.OpentrackerInfoStream;
@@ -82,6 +85,12 @@ public class IndexFiles {
             opentrackerTieredMergePolicy.setMaxMergeMBForForcedMerge(10);
             usePolicy = opentrackerTieredMergePolicy;
             break;
+        case "cassandra":
+            // fewer, larger merges: every merged byte crosses the network.
+            CassandraMergePolicy cmp = new CassandraMergePolicy();
+            cmp.setNoCFSRatio(ratio);
+            usePolicy = cmp;
+            break;
         case "none":
             MergePolicy none = NoMergePolicy.NO_COMPOUND_FILES;//
             usePolicy = none;
@@ -109,7 +118,9 @@ public class IndexFiles {
 
         String usage =
                 "java org.apache.lucene.demo.IndexFiles"
-                        + " [-index INDEX_PATH] [-docs DOCS_PATH] [-update]\n\n"
+                        + " [-index INDEX_PATH] [-docs DOCS_PATH] [-update]"
+                        + " [-threads N [-queue N] [-commit-ms MS] [-commit-docs N]]"
+                        + " [-bulk LOCAL_PATH [-max-segments N]] [-merge-mbpersec MB]\n\n"
                         + "This indexes the documents in DOCS_PATH, creating a Lucene index"
                         + "in INDEX_PATH that can be searched with SearchFiles";
         // the directory where the index is stored.
@@ -126,6 +137,17 @@ public class IndexFiles {
         boolean create = true;
         boolean forceMerge = false;
         boolean useCFS = false;
+        // number of indexing threads, 0 to index on the main thread.
+        int threads = 0;
+        int queueSize = ParallelIndexer.DEFAULT_QUEUE_SIZE;
+        long commitIntervalMs = ParallelIndexer.DEFAULT_COMMIT_INTERVAL;
+        long commitDocs = ParallelIndexer.DEFAULT_COMMIT_DOCS;
+        // local directory the index is built in before it is uploaded, if
+        // any, and the number of segments it is merged down to first.
+        String bulkPath = null;
+        int maxSegments = 0;
+        // limit of the write rate of merges, 0 for no limit.
+        double mergeMBPerSec = 0;
 
         for (int i = 0; i < args.length; i++) {
             if ("-index".equals(args[i])) {
@@ -148,6 +170,27 @@ public class IndexFiles {
             } else if ("-cassandra-dir".equals(args[i])) {
                 cassandraDirectory = args[i + 1];
                 i++;
+            } else if ("-threads".equals(args[i])) {
+                threads = Integer.parseInt(args[i + 1]);
+                i++;
+            } else if ("-queue".equals(args[i])) {
+                queueSize = Integer.parseInt(args[i + 1]);
+                i++;
+            } else if ("-commit-ms".equals(args[i])) {
+                commitIntervalMs = Long.parseLong(args[i + 1]);
+                i++;
+            } else if ("-commit-docs".equals(args[i])) {
+                commitDocs = Long.parseLong(args[i + 1]);
+                i++;
+            } else if ("-bulk".equals(args[i])) {
+                bulkPath = args[i + 1];
+                i++;
+            } else if ("-max-segments".equals(args[i])) {
+                maxSegments = Integer.parseInt(args[i + 1]);
+                i++;
+            } else if ("-merge-mbpersec".equals(args[i])) {
+                mergeMBPerSec = Double.parseDouble(args[i + 1]);
+                i++;
             } else if ("-keyspace".equals(args[i])) {
                 keyspace = args[i + 1];
                 i++;
@@ -189,6 +232,10 @@ public class IndexFiles {
                                         columnFamily, blockSize),
                                 IOContext.DEFAULT, null, keyspace,
                                 columnFamily, blockSize, blockSize);
+                if (mergeMBPerSec > 0) {
+                    ((org.apache.lucene.cassandra.CassandraDirectory) dir)
+                            .setMaxMergeWriteMBPerSec(mergeMBPerSec);
+                }
                 cachedFSDir = new NRTCachingDirectory(dir, 5.0, 60.0);
             } else {
                 if (useACassandra)
@@ -228,9 +275,16 @@ public class IndexFiles {
             } else {
                 ratio = 0;
             }
-            iwc.setMergePolicy(getPolicy("tiered", ratio));
-            // A MergeScheduler that runs each merge using a separate thread.
-            iwc.setMergeScheduler(new ConcurrentMergeScheduler());
+            if (useCassandraStorage && bulkPath == null) {
+                iwc.setMergePolicy(getPolicy("cassandra", ratio));
+                // runs a limited number of merges per cassandra node.
+                iwc.setMergeScheduler(CassandraMergeScheduler.open(keyspace,
+                        columnFamily, blockSize));
+            } else {
+                iwc.setMergePolicy(getPolicy("tiered", ratio));
+                // A MergeScheduler that runs each merge using a separate thread.
+                iwc.setMergeScheduler(new ConcurrentMergeScheduler());
+            }
 
             // lucene 5.0
             // iwc.setValidateAtMerge(true)
@@ -259,12 +313,25 @@ public class IndexFiles {
                 iwc.setOpenMode(OpenMode.CREATE_OR_APPEND);
             }
 
-            if (useNRT) {
+            Directory bulkDir = null;
+            if (bulkPath != null) {
+                // build locally, only the final commit is uploaded.
+                bulkDir = FSDirectory.open(new File(bulkPath));
+                iwc.setOpenMode(OpenMode.CREATE);
+                writer = new IndexWriter(bulkDir, iwc);
+            } else if (useNRT) {
                 writer = new IndexWriter(cachedFSDir, iwc);
             } else {
                 writer = new IndexWriter(dir, iwc);
             }
-            indexDocs(writer, docDir, forceMerge);
+            if (threads > 0) {
+                // several documents analyzed at once, so the flushes to
+                // cassandra overlap with the analysis of the next ones.
+                new ParallelIndexer(writer, threads, queueSize,
+                        commitIntervalMs, commitDocs, limit).index(docDir);
+            } else {
+                indexDocs(writer, docDir, forceMerge);
+            }
 
             // NOTE: if you want to maximize search performance, you can
             // optionally
@@ -279,9 +346,16 @@ public class IndexFiles {
                 // writer.commit();
             }
 
+            if (writer != null && bulkDir != null && maxSegments > 0) {
+                writer.forceMerge(maxSegments);
+            }
             if (writer != null) {
                 writer.close();
             }
+            if (bulkDir != null) {
+                new BulkLoader(bulkDir, dir).upload();
+                bulkDir.close();
+            }
 
             Date end = new Date();
             System.out.println(end.getTime() - start.getTime()
@@ -331,6 +405,55 @@ public class IndexFiles {
         }
     }
 
+    /**
+     * Build the document for the given file: its path, last modified date and
+     * contents.
+     * 
+     * @param file
+     *            the file being indexed
+     * @param fis
+     *            the contents of the file, read as the document is analyzed
+     * @return the document
+     * @throws IOException
+     *             If there is a low-level I/O error
+     */
+    public static Document buildDocument(File file, InputStream fis)
+            throws IOException {
+        // make a new, empty document
+        Document doc = new Document();
+
+        /*
+         * Add the path of the file as a field named "path". Use a field that
+         * is indexed (i.e. searchable), but don't tokenize the field into
+         * separate words and don't index term frequency or positional
+         * information:
+         */
+        Field pathField =
+                new StringField("path", file.getPath(), Field.Store.YES);
+        doc.add(pathField);
+
+        /*
+         * Add the last modified date of the file a field named "modified". Use
+         * a LongField that is indexed (i.e. efficiently filterable with
+         * NumericRangeFilter). You could instead create a number based on
+         * year/month/day/hour/minutes/seconds, down the resolution you
+         * require. For example the long value 2014012817 would mean January
+         * 29, 2014 5-6 PM.
+         */
+        doc.add(new LongField("modified", file.lastModified(), Field.Store.NO));
+
+        /*
+         * Add the contents of the file to a field named "contents". Specify a
+         * Reader, so that the text of the file is tokenized and indexed, but
+         * not stored. Note that FileReader expects the file to be in UTF-8
+         * encoding. If that's not the case searching for special characters
+         * will fail.
+         */
+        doc.add(new TextField("contents", new BufferedReader(
+                new InputStreamReader(fis, "UTF-8"))));
+        return doc;
+    }
+
     /**
      * Indexes the given file using the given writer, or if a directory is
      * given, recurses over files and directories found under the give
@@ -387,42 +510,7 @@ public class IndexFiles {
 
                     try {
 
-                        // make a new, empty document
-                        Document doc = new Document();
-
-                        /*
-                         * Add the path of the file as a field named "path". Use
-                         * a field that is indexed (i.e. searchable), but don't
-                         * tokenize the field into separate words and don't
-                         * index term frequency or positional information:
-                         */
-                        Field pathField =
-                                new StringField("path", file.getPath(),
-                                        Field.Store.YES);
-                        doc.add(pathField);
-
-                        /*
-                         * Add the last modified date of the file a field named
-                         * "modified". Use a LongField that is indexed (i.e.
-                         * efficiently filterable with NumericRangeFilter). You
-                         * could instead create a number based on
-                         * year/month/day/hour/minutes/seconds, down the
-                         * resolution you require. For example the long value
-                         * 2014012817 would mean January 29, 2014 5-6 PM.
-                         */
-                        doc.add(new LongField("modified", file.lastModified(),
-                                Field.Store.NO));
-
-                        /*
-                         * Add the contents of the file to a field named
-                         * "contents". Specify a Reader, so that the text of the
-                         * file is tokenized and indexed, but not stored. Note
-                         * that FileReader expects the file to be in UTF-8
-                         * encoding. If that's not the case searching for
-                         * special characters will fail.
-                         */
-                        doc.add(new TextField("contents", new BufferedReader(
-                                new InputStreamReader(fis, "UTF-8"))));
+                        Document doc = buildDocument(file, fis);
 
                         if (writer.getConfig().getOpenMode() == OpenMode.CREATE) {
                             // new index, so we just add the document (no old
@@ -0,0 +1,345 @@
+package org.apache.lucene.store;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.cassandra.concurrent.NamedThreadFactory;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig.OpenMode;
+import org.apache.lucene.index.Term;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Feeds an {@link IndexWriter} from several threads at once.
+ *
+ * <p>
+ * One thread walks the document tree and puts the files it finds on a
+ * bounded queue, a pool of workers takes them off, builds the documents and
+ * adds them to the writer concurrently. When the workers fall behind the
+ * walk blocks on the full queue, so memory use does not grow with the size
+ * of the tree. A separate thread reports the docs/sec rate and commits the
+ * writer every <code>commitIntervalMs</code> or <code>commitDocs</code>
+ * documents, whichever comes first, so flushes to the directory overlap with
+ * the analysis of the next documents instead of stalling it.
+ * </p>
+ */
+public class ParallelIndexer {
+
+    private static Logger logger = LoggerFactory.getLogger(ParallelIndexer.class);
+
+    /** number of threads building and adding documents. */
+    public static final int DEFAULT_THREADS =
+            Integer.getInteger("lucene.cassandra.index.threads", Runtime
+                    .getRuntime().availableProcessors());
+
+    /** number of files found but not yet indexed before the walk blocks. */
+    public static final int DEFAULT_QUEUE_SIZE =
+            Integer.getInteger("lucene.cassandra.index.queue", 1000);
+
+    /** time between commits, 0 to only commit by document count. */
+    public static final long DEFAULT_COMMIT_INTERVAL =
+            Long.getLong("lucene.cassandra.index.commit.ms", 60000L);
+
+    /** documents between commits, 0 to only commit by time. */
+    public static final long DEFAULT_COMMIT_DOCS =
+            Long.getLong("lucene.cassandra.index.commit.docs", 0L);
+
+    /** time between two docs/sec reports. */
+    public static final long DEFAULT_REPORT_INTERVAL =
+            Long.getLong("lucene.cassandra.index.report.ms", 5000L);
+
+    // put on the queue once per worker after the last file.
+    private static final File END = new File("");
+
+    private final IndexWriter writer;
+
+    private final int threads;
+
+    private final int queueSize;
+
+    private final long commitIntervalMs;
+
+    private final long commitDocs;
+
+    private final long limit;
+
+    private final AtomicLong indexed = new AtomicLong();
+
+    private final AtomicLong failed = new AtomicLong();
+
+    // documents added when the last commit was started.
+    private final AtomicLong committedAt = new AtomicLong();
+
+    // set while a commit is queued or running.
+    private final AtomicBoolean committing = new AtomicBoolean();
+
+    private volatile IOException commitFailure;
+
+    // set when a worker stopped on an error, or a commit failed.
+    private volatile boolean aborted = false;
+
+    public ParallelIndexer(IndexWriter writer, long limit) {
+        this(writer, DEFAULT_THREADS, DEFAULT_QUEUE_SIZE,
+                DEFAULT_COMMIT_INTERVAL, DEFAULT_COMMIT_DOCS, limit);
+    }
+
+    /**
+     * @param writer
+     *            where the documents are added
+     * @param threads
+     *            number of threads building and adding documents
+     * @param queueSize
+     *            number of files waiting to be indexed before the walk blocks
+     * @param commitIntervalMs
+     *            time between commits, 0 to only commit by document count
+     * @param commitDocs
+     *            documents between commits, 0 to only commit by time
+     * @param limit
+     *            stop after that many documents, or a negative value to
+     *            index the whole tree
+     */
+    public ParallelIndexer(IndexWriter writer, int threads, int queueSize,
+            long commitIntervalMs, long commitDocs, long limit) {
+        this.writer = writer;
+        this.threads = Math.max(threads, 1);
+        this.queueSize = Math.max(queueSize, 1);
+        this.commitIntervalMs = commitIntervalMs;
+        this.commitDocs = commitDocs;
+        this.limit = limit;
+    }
+
+    /**
+     * Index every readable file under the given one, returning once they have
+     * all been added to the writer. The writer is not committed at the end,
+     * that is left to the caller.
+     *
+     * @param root
+     *            the file to index, or the directory to walk
+     * @return the number of documents added
+     * @throws IOException
+     *             if a document could not be added or a commit failed
+     */
+    public long index(File root) throws IOException {
+        final BlockingQueue<File> queue = new ArrayBlockingQueue<File>(queueSize);
+        ExecutorService workers =
+                Executors.newFixedThreadPool(threads, new NamedThreadFactory(
+                        "IndexWorker"));
+        final ScheduledExecutorService scheduler =
+                Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory(
+                        "IndexCommitter"));
+
+        final long start = System.currentTimeMillis();
+        scheduler.scheduleAtFixedRate(new Runnable() {
+            private long lastCount = 0;
+            private long lastTime = start;
+
+            @Override
+            public void run() {
+                long now = System.currentTimeMillis();
+                long count = indexed.get();
+                logger.info("indexed {} docs, {} docs/sec", count,
+                        (count - lastCount) * 1000 / Math.max(now - lastTime, 1));
+                lastCount = count;
+                lastTime = now;
+            }
+        }, DEFAULT_REPORT_INTERVAL, DEFAULT_REPORT_INTERVAL, TimeUnit.MILLISECONDS);
+        if (commitIntervalMs > 0) {
+            scheduler.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    if (committing.compareAndSet(false, true)) {
+                        commit();
+                    }
+                }
+            }, commitIntervalMs, commitIntervalMs, TimeUnit.MILLISECONDS);
+        }
+
+        List<Future<Void>> running = new ArrayList<Future<Void>>();
+        for (int i = 0; i < threads; i++) {
+            running.add(workers.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    try {
+                        work(queue, scheduler);
+                    } catch (Throwable t) {
+                        aborted = true;
+                        throw t;
+                    }
+                    return null;
+                }
+            }));
+        }
+
+        try {
+            walk(root, queue);
+            for (int i = 0; i < threads; i++) {
+                put(queue, END);
+            }
+            for (Future<Void> worker : running) {
+                worker.get();
+            }
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException(e.getMessage());
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException
+                    ? (IOException) e.getCause()
+                    : new IOException(e.getCause());
+        } finally {
+            workers.shutdownNow();
+            scheduler.shutdown();
+            try {
+                // let a commit in progress finish before handing the writer
+                // back.
+                scheduler.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (commitFailure != null) {
+            throw commitFailure;
+        }
+
+        long elapsed = Math.max(System.currentTimeMillis() - start, 1);
+        logger.info("indexed {} docs in {} ms", indexed.get(), elapsed);
+        if (failed.get() > 0) {
+            logger.error("{} files could not be indexed", failed.get());
+        }
+        return indexed.get();
+    }
+
+    /**
+     * @return the number of documents added so far.
+     */
+    public long getIndexed() {
+        return indexed.get();
+    }
+
+    private void work(BlockingQueue<File> queue,
+            final ScheduledExecutorService scheduler)
+            throws InterruptedException {
+        while (!aborted) {
+            File file = queue.poll(100, TimeUnit.MILLISECONDS);
+            if (file == END) {
+                return;
+            }
+            if (file == null) {
+                continue;
+            }
+            try {
+                indexFile(file);
+            } catch (IOException e) {
+                logger.error("unable to index file " + file, e);
+                failed.incrementAndGet();
+            }
+            if (commitDocs > 0
+                    && indexed.get() - committedAt.get() >= commitDocs
+                    && committing.compareAndSet(false, true)) {
+                scheduler.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        commit();
+                    }
+                });
+            }
+        }
+    }
+
+    private void walk(File file, BlockingQueue<File> queue)
+            throws InterruptedException {
+        if (!file.canRead() || (limit >= 0 && indexed.get() >= limit)
+                || aborted) {
+            return;
+        }
+        if (file.isDirectory()) {
+            String[] files = file.list();
+            // an IO error could occur
+            if (files != null) {
+                for (int i = 0; i < files.length; i++) {
+                    walk(new File(file, files[i]), queue);
+                }
+            }
+        } else {
+            put(queue, file);
+        }
+    }
+
+    /**
+     * Queue the given file, waiting while the workers are behind, unless
+     * indexing was aborted.
+     */
+    private void put(BlockingQueue<File> queue, File file)
+            throws InterruptedException {
+        while (!queue.offer(file, 100, TimeUnit.MILLISECONDS)) {
+            if (aborted) {
+                return;
+            }
+        }
+    }
+
+    private void indexFile(File file) throws IOException {
+        if (limit >= 0 && indexed.get() >= limit) {
+            return;
+        }
+        FileInputStream fis;
+        try {
+            fis = new FileInputStream(file);
+        } catch (FileNotFoundException fnfe) {
+            // at least on windows, some temporary files raise this exception
+            // with an "access denied" message.
+            failed.incrementAndGet();
+            return;
+        }
+        try {
+            Document doc = IndexFiles.buildDocument(file, fis);
+            if (writer.getConfig().getOpenMode() == OpenMode.CREATE) {
+                writer.addDocument(doc);
+            } else {
+                writer.updateDocument(new Term("path", file.getPath()), doc);
+            }
+            indexed.incrementAndGet();
+        } catch (OutOfMemoryError e) {
+            // the writer cannot go on after this, see IndexWriter javadoc.
+            logger.error("running out of memory!!! increase memory ", e);
+            throw e;
+        } finally {
+            fis.close();
+        }
+    }
+
+    private void commit() {
+        try {
+            if (writer.hasUncommittedChanges()) {
+                long count = indexed.get();
+                long start = System.currentTimeMillis();
+                writer.commit();
+                committedAt.set(count);
+                logger.info("committed {} docs in {} ms", count,
+                        System.currentTimeMillis() - start);
+            }
+        } catch (IOException e) {
+            logger.error("commit failed", e);
+            commitFailure = e;
+            aborted = true;
+        } finally {
+            committing.set(false);
+        }
+    }
+}
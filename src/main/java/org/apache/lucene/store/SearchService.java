@@ -0,0 +1,248 @@
+package org.apache.lucene.store;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.cassandra.concurrent.NamedThreadFactory;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ReferenceManager;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.TopDocs;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Serves searches over an index that keeps changing, such as one stored in
+ * Cassandra and written to from another node.
+ *
+ * <p>
+ * A {@link SearcherManager} holds the current searcher, and a background
+ * thread checks for a new commit every <code>refreshIntervalMs</code>.
+ * Reopening keeps the readers of the segments that did not change, so only
+ * the new segments cost reads from the directory. A new searcher is warmed,
+ * by running the warm-up queries against it, before it replaces the current
+ * one, so the first searches after a commit do not pay for loading it.
+ * </p>
+ *
+ * <p>
+ * Searchers are reference counted: every {@link #acquire()} has to be
+ * followed by a {@link #release(IndexSearcher)}, after which the searcher
+ * must not be used anymore.
+ * </p>
+ */
+public class SearchService implements Closeable {
+
+    private static Logger logger = LoggerFactory.getLogger(SearchService.class);
+
+    /** time between two checks for a new commit. */
+    public static final long DEFAULT_REFRESH_INTERVAL =
+            Long.getLong("lucene.cassandra.search.refresh.ms", 1000L);
+
+    private final Directory directory;
+
+    private final SearcherManager searcherManager;
+
+    private final ScheduledExecutorService refresher;
+
+    private final List<Query> warmQueries = new ArrayList<Query>();
+
+    public SearchService(Directory directory) throws IOException {
+        this(directory, DEFAULT_REFRESH_INTERVAL, Collections.<Query> emptyList());
+    }
+
+    /**
+     * @param directory
+     *            where the index is read from
+     * @param refreshIntervalMs
+     *            time between two checks for a new commit, 0 to only refresh
+     *            on {@link #maybeRefresh()}
+     * @param warmQueries
+     *            queries run against every new searcher before it is used
+     * @throws IOException
+     *             if the index could not be opened
+     */
+    public SearchService(Directory directory, long refreshIntervalMs,
+            List<Query> warmQueries) throws IOException {
+        this.directory = directory;
+        this.warmQueries.addAll(warmQueries);
+        this.searcherManager = new SearcherManager(directory, new SearcherFactory() {
+            @Override
+            public IndexSearcher newSearcher(IndexReader reader)
+                    throws IOException {
+                IndexSearcher searcher = new IndexSearcher(reader);
+                warm(searcher);
+                return searcher;
+            }
+        });
+        if (refreshIntervalMs > 0) {
+            refresher = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory(
+                    "SearchServiceRefresh"));
+            refresher.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        maybeRefresh();
+                    } catch (IOException e) {
+                        // keep serving the current searcher, try again on the
+                        // next round.
+                        logger.error("unable to refresh the searcher", e);
+                    }
+                }
+            }, refreshIntervalMs, refreshIntervalMs, TimeUnit.MILLISECONDS);
+        } else {
+            refresher = null;
+        }
+    }
+
+    /**
+     * Warm the given searcher before it is published. Subclasses may load
+     * more than the warm-up queries need.
+     *
+     * @param searcher
+     *            the searcher about to replace the current one
+     * @throws IOException
+     */
+    protected void warm(IndexSearcher searcher) throws IOException {
+        long start = System.currentTimeMillis();
+        for (Query query : warmQueries) {
+            searcher.search(query, 10);
+        }
+        logger.debug("warmed {} segments in {} ms", searcher.getIndexReader()
+                .leaves().size(), System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Get the given listener called around every refresh, such as a
+     * {@link org.apache.lucene.cassandra.CassandraSegmentWarmer} which loads
+     * the files of the new commit before its searcher is opened.
+     */
+    public void addRefreshListener(ReferenceManager.RefreshListener listener) {
+        searcherManager.addListener(listener);
+    }
+
+    public void removeRefreshListener(ReferenceManager.RefreshListener listener) {
+        searcherManager.removeListener(listener);
+    }
+
+    /**
+     * Load the stored documents of a page of hits in the order of their ids
+     * rather than of their scores, so the stored fields are read forward
+     * and neighbouring documents come from blocks already fetched.
+     *
+     * @param searcher
+     *            the searcher the hits were found with
+     * @param hits
+     *            the page of hits
+     * @return the documents, in the order of the hits
+     * @throws IOException
+     */
+    public static Document[] loadDocuments(IndexSearcher searcher,
+            final ScoreDoc[] hits) throws IOException {
+        Integer[] order = new Integer[hits.length];
+        for (int i = 0; i < hits.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer i1, Integer i2) {
+                return Integer.compare(hits[i1].doc, hits[i2].doc);
+            }
+        });
+        Document[] documents = new Document[hits.length];
+        for (int i : order) {
+            documents[i] = searcher.doc(hits[i].doc);
+        }
+        return documents;
+    }
+
+    /**
+     * Open a new searcher if the index has a new commit, and publish it once
+     * it is warm.
+     *
+     * @return true if the searcher is current
+     * @throws IOException
+     */
+    public boolean maybeRefresh() throws IOException {
+        boolean refreshed = searcherManager.maybeRefresh();
+        if (refreshed && logger.isDebugEnabled()) {
+            logger.debug("refreshed searcher over {}", directory);
+        }
+        return refreshed;
+    }
+
+    /**
+     * Wait for a searcher over the latest commit, whoever is opening it.
+     *
+     * @throws IOException
+     */
+    public void maybeRefreshBlocking() throws IOException {
+        searcherManager.maybeRefreshBlocking();
+    }
+
+    /**
+     * @return the current searcher, which has to be given back to
+     *         {@link #release(IndexSearcher)}.
+     * @throws IOException
+     */
+    public IndexSearcher acquire() throws IOException {
+        return searcherManager.acquire();
+    }
+
+    /**
+     * Give back a searcher obtained from {@link #acquire()}.
+     *
+     * @throws IOException
+     */
+    public void release(IndexSearcher searcher) throws IOException {
+        searcherManager.release(searcher);
+    }
+
+    /**
+     * Search the current searcher.
+     *
+     * @return the top <code>n</code> hits for the query
+     * @throws IOException
+     */
+    public TopDocs search(Query query, int n) throws IOException {
+        IndexSearcher searcher = acquire();
+        try {
+            return searcher.search(query, n);
+        } finally {
+            release(searcher);
+        }
+    }
+
+    public Directory getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Stop refreshing and release the current searcher. Searchers still
+     * acquired stay usable until they are released.
+     */
+    @Override
+    public void close() throws IOException {
+        if (refresher != null) {
+            refresher.shutdown();
+            try {
+                refresher.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        searcherManager.close();
+    }
+}
@@ -3,6 +3,17 @@ package org.apache.monitor;
 public enum Counter {
     
     METRIC_MODE_MERGE,
-    METRIC_TOTAL_MODE_MERGE
+    METRIC_TOTAL_MODE_MERGE,
+    METRIC_MERGE_COUNT,
+    METRIC_MERGE_RUNNING,
+    METRIC_MERGE_BYTES,
+    METRIC_MERGE_TIME,
+    METRIC_MERGE_THROTTLE_TIME,
+    METRIC_SEARCH_COUNT,
+    METRIC_SEARCH_TIME,
+    METRIC_SEARCH_QUEUE_TIME,
+    METRIC_SEARCH_QUEUED,
+    METRIC_SEARCH_REJECTED,
+    METRIC_SEARCH_TIMEOUTS
 
 }
@@ -33,14 +33,89 @@ public class OpentrackerClientMonitor implements OpentrackerClientMonitorMBean {
     }
     
 
+    /**
+     * @return the value of the counter, or 0 if this monitor type does not
+     *         register it.
+     */
+    private long get(Counter counterType) {
+        AtomicLong counter = counters.get(counterType);
+        return counter == null ? 0 : counter.longValue();
+    }
+
     @Override
     public long getMetricModeMerge() {
-        return counters.get(Counter.METRIC_MODE_MERGE).longValue();
+        return get(Counter.METRIC_MODE_MERGE);
     }
 
     @Override
     public double getTotalMetricModeMerge() {
-        return counters.get(Counter.METRIC_TOTAL_MODE_MERGE).doubleValue();
+        return get(Counter.METRIC_TOTAL_MODE_MERGE);
+    }
+
+    @Override
+    public long getMergeCount() {
+        return get(Counter.METRIC_MERGE_COUNT);
+    }
+
+    @Override
+    public long getRunningMerges() {
+        return get(Counter.METRIC_MERGE_RUNNING);
+    }
+
+    @Override
+    public long getMergeBytes() {
+        return get(Counter.METRIC_MERGE_BYTES);
+    }
+
+    @Override
+    public long getMergeTimeMillis() {
+        return get(Counter.METRIC_MERGE_TIME);
+    }
+
+    @Override
+    public double getMergeMBPerSec() {
+        long time = get(Counter.METRIC_MERGE_TIME);
+        if (time == 0) {
+            return 0;
+        }
+        return get(Counter.METRIC_MERGE_BYTES) / 1024. / 1024. / (time / 1000.);
+    }
+
+    @Override
+    public long getMergeThrottleTimeMillis() {
+        return get(Counter.METRIC_MERGE_THROTTLE_TIME);
+    }
+
+    @Override
+    public long getSearchCount() {
+        return get(Counter.METRIC_SEARCH_COUNT);
+    }
+
+    @Override
+    public double getSearchMeanMillis() {
+        long count = get(Counter.METRIC_SEARCH_COUNT);
+        return count == 0 ? 0 : (double) get(Counter.METRIC_SEARCH_TIME) / count;
+    }
+
+    @Override
+    public double getSearchQueueMeanMillis() {
+        long count = get(Counter.METRIC_SEARCH_COUNT);
+        return count == 0 ? 0 : (double) get(Counter.METRIC_SEARCH_QUEUE_TIME) / count;
+    }
+
+    @Override
+    public long getQueuedSearches() {
+        return get(Counter.METRIC_SEARCH_QUEUED);
+    }
+
+    @Override
+    public long getRejectedSearches() {
+        return get(Counter.METRIC_SEARCH_REJECTED);
+    }
+
+    @Override
+    public long getSearchTimeouts() {
+        return get(Counter.METRIC_SEARCH_TIMEOUTS);
     }
 
 }
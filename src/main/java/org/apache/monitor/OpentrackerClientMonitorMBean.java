@@ -6,4 +6,28 @@ public interface OpentrackerClientMonitorMBean {
     
     public double getTotalMetricModeMerge();
 
+    public long getMergeCount();
+
+    public long getRunningMerges();
+
+    public long getMergeBytes();
+
+    public long getMergeTimeMillis();
+
+    public double getMergeMBPerSec();
+
+    public long getMergeThrottleTimeMillis();
+
+    public long getSearchCount();
+
+    public double getSearchMeanMillis();
+
+    public double getSearchQueueMeanMillis();
+
+    public long getQueuedSearches();
+
+    public long getRejectedSearches();
+
+    public long getSearchTimeouts();
+
 }
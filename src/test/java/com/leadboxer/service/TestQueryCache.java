@@ -0,0 +1,100 @@
+package com.leadboxer.service;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Properties;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.store.SearchService;
+import org.junit.Test;
+
+import com.leadboxer.util.LuceneSettings;
+
+public class TestQueryCache {
+
+    @Test
+    public void testKey() {
+        Properties first = new Properties();
+        first.setProperty("type", "Contract");
+        first.setProperty("location", "London ");
+        Properties second = new Properties();
+        second.setProperty("location", "London");
+        second.setProperty("type", "Contract");
+        assertEquals(QueryCache.getKey(first), QueryCache.getKey(second));
+
+        // a value cannot be mistaken for another field.
+        Properties third = new Properties();
+        third.setProperty("location", "London4:type8:Contract");
+        assertFalse(QueryCache.getKey(third).equals(QueryCache.getKey(second)));
+    }
+
+    @Test
+    public void testQueries() {
+        QueryCache cache = new QueryCache(2, 2);
+        Query a = new TermQuery(new Term("type", "a"));
+        cache.putQuery("a", a);
+        cache.putQuery("b", new TermQuery(new Term("type", "b")));
+        assertSame(a, cache.getQuery("a"));
+        // b is the least recently used.
+        cache.putQuery("c", new TermQuery(new Term("type", "c")));
+        assertNull(cache.getQuery("b"));
+        assertSame(a, cache.getQuery("a"));
+    }
+
+    @Test
+    public void testResultsAreDroppedOnRefresh() {
+        try {
+            RAMDirectory dir = new RAMDirectory();
+            IndexWriter writer =
+                    new IndexWriter(dir, new IndexWriterConfig(
+                            LuceneSettings.currentVersion, new StandardAnalyzer(
+                                    LuceneSettings.currentVersion)));
+            Document doc = new Document();
+            doc.add(new TextField("contents", "hello", Field.Store.YES));
+            writer.addDocument(doc);
+            writer.commit();
+
+            QueryCache cache = new QueryCache(16, 16);
+            SearchService service =
+                    new SearchService(dir, 0, Collections.<Query> emptyList());
+            service.addRefreshListener(cache);
+            Query hello = new TermQuery(new Term("contents", "hello"));
+
+            IndexSearcher searcher = service.acquire();
+            assertNull(cache.getResults(searcher, hello, 10));
+            TopDocs topDocs = searcher.search(hello, 10);
+            QueryCache.Results results = new QueryCache.Results(topDocs,
+                    new Document[] { searcher.doc(topDocs.scoreDocs[0].doc) });
+            cache.putResults(searcher, hello, 10, results);
+            assertSame(results, cache.getResults(searcher, hello, 10));
+            assertNull(cache.getResults(searcher, hello, 5));
+            service.release(searcher);
+
+            writer.addDocument(doc);
+            writer.commit();
+            assertTrue(service.maybeRefresh());
+            searcher = service.acquire();
+            assertNull(cache.getResults(searcher, hello, 10));
+            service.release(searcher);
+
+            service.close();
+            writer.close();
+        } catch (IOException e) {
+            fail("exception is not expected ");
+        }
+    }
+
+}
@@ -0,0 +1,123 @@
+package com.leadboxer.service;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.monitor.OpentrackerClientMonitor;
+import org.junit.Test;
+
+public class TestSearchExecutor {
+
+    private static Callable<String> await(final CountDownLatch latch) {
+        return new Callable<String>() {
+            @Override
+            public String call() throws InterruptedException {
+                latch.await();
+                return "done";
+            }
+        };
+    }
+
+    @Test
+    public void testExecute() {
+        try {
+            OpentrackerClientMonitor monitor = SearchMonitor.getMonitor();
+            long searches = monitor.getSearchCount();
+            SearchExecutor executor = new SearchExecutor(2, 2, 10000);
+            assertEquals("done", executor.execute(await(new CountDownLatch(0))));
+            assertEquals(searches + 1, monitor.getSearchCount());
+
+            try {
+                executor.execute(new Callable<String>() {
+                    @Override
+                    public String call() throws IOException {
+                        throw new IOException("failed");
+                    }
+                });
+                fail("IOException is expected");
+            } catch (IOException e) {
+                assertEquals("failed", e.getMessage());
+            }
+            executor.close();
+        } catch (IOException e) {
+            fail("exception is not expected ");
+        } catch (TimeoutException e) {
+            fail("exception is not expected ");
+        }
+    }
+
+    @Test
+    public void testTimeout() {
+        SearchExecutor executor = new SearchExecutor(1, 1, 50);
+        OpentrackerClientMonitor monitor = SearchMonitor.getMonitor();
+        long timeouts = monitor.getSearchTimeouts();
+        CountDownLatch latch = new CountDownLatch(1);
+        try {
+            executor.execute(await(latch));
+            fail("TimeoutException is expected");
+        } catch (TimeoutException e) {
+            assertEquals(timeouts + 1, monitor.getSearchTimeouts());
+        } catch (IOException e) {
+            fail("exception is not expected ");
+        }
+        latch.countDown();
+        executor.close();
+    }
+
+    @Test
+    public void testShedding() {
+        final SearchExecutor executor = new SearchExecutor(1, 1, 10000);
+        OpentrackerClientMonitor monitor = SearchMonitor.getMonitor();
+        long rejected = monitor.getRejectedSearches();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch latch = new CountDownLatch(1);
+        try {
+            // one search holds the only thread, another one waits in the only
+            // place of the queue.
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        executor.execute(new Callable<String>() {
+                            @Override
+                            public String call() throws InterruptedException {
+                                started.countDown();
+                                latch.await();
+                                return "done";
+                            }
+                        });
+                    } catch (Exception e) {
+                    }
+                }
+            }.start();
+            started.await();
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        executor.execute(await(latch));
+                    } catch (Exception e) {
+                    }
+                }
+            }.start();
+            for (int i = 0; i < 200 && executor.getQueueLength() == 0; i++) {
+                Thread.sleep(5);
+            }
+            assertEquals(1, executor.getQueueLength());
+            executor.execute(await(latch));
+            fail("RejectedExecutionException is expected");
+        } catch (RejectedExecutionException e) {
+            assertEquals(rejected + 1, monitor.getRejectedSearches());
+        } catch (Exception e) {
+            fail("exception is not expected ");
+        }
+        latch.countDown();
+        executor.close();
+    }
+
+}
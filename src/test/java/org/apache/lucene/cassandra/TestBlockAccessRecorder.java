@@ -0,0 +1,73 @@
+package org.apache.lucene.cassandra;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class TestBlockAccessRecorder {
+
+    @Test
+    public void testTopBlocks() {
+        BlockAccessRecorder recorder = new BlockAccessRecorder(1, 16);
+        for (int i = 0; i < 10; i++) {
+            recorder.record("_0.tim", 3);
+            recorder.record("_0.doc", 1);
+        }
+        recorder.record("_0.doc", 7);
+        Map<String, Set<Integer>> top = recorder.getTopBlocks(2);
+        assertEquals(2, top.size());
+        assertTrue(top.get("_0.tim").contains(3));
+        assertEquals(1, top.get("_0.doc").size());
+        assertTrue(top.get("_0.doc").contains(1));
+        assertEquals(2, recorder.getTopBlocks(10).get("_0.doc").size());
+    }
+
+    @Test
+    public void testColdBlocksAgeOut() {
+        BlockAccessRecorder recorder = new BlockAccessRecorder(1, 4);
+        recorder.record("_0.doc", 0);
+        // 40 samples halve the counts, which drops the block read once.
+        for (int i = 0; i < 40; i++) {
+            recorder.record("_1.doc", i % 2);
+        }
+        Map<String, Set<Integer>> top = recorder.getTopBlocks(10);
+        assertNull(top.get("_0.doc"));
+        assertEquals(2, top.get("_1.doc").size());
+    }
+
+    @Test
+    public void testSaveAndLoad() {
+        try {
+            BlockAccessRecorder recorder = new BlockAccessRecorder(1, 16);
+            for (int i = 0; i < 5; i++) {
+                recorder.record("_0.tim", i);
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            recorder.writeTo(out);
+
+            BlockAccessRecorder loaded = new BlockAccessRecorder(1, 16);
+            assertEquals(5, loaded.readFrom(new ByteArrayInputStream(
+                    (new String(out.toByteArray()) + "garbage\n").getBytes())));
+            assertEquals(recorder.getTopBlocks(5), loaded.getTopBlocks(5));
+
+            File file = File.createTempFile("hotblocks", ".txt");
+            file.delete();
+            loaded = new BlockAccessRecorder(1, 16);
+            assertEquals(0, loaded.load(file));
+            recorder.save(file);
+            assertEquals(5, loaded.load(file));
+            assertEquals(recorder.getTopBlocks(5), loaded.getTopBlocks(5));
+            file.delete();
+        } catch (IOException e) {
+            fail("exception is not expected ");
+        }
+    }
+
+}
@@ -0,0 +1,225 @@
+package org.apache.lucene.cassandra;
+
+import static org.junit.Assert.*;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.lucene.store.IndexInput;
+import org.junit.Test;
+
+public class TestCassandraBlockIndexInput {
+
+    // 10 bytes 0..9 in blocks of 4, 4 and 2 bytes.
+    private static final byte[] DATA = { 0, 1, 2, 3, 4, 5, 6, 7, 8, 9 };
+
+    private static final int BLOCK_SIZE = 4;
+
+    private int fetches = 0;
+
+    private BlockAccessRecorder recorder = null;
+
+    private CassandraBlockIndexInput.BufferCache bufferCache = null;
+
+    private CassandraBlockIndexInput open(int readAheadBlocks)
+            throws IOException {
+        return open(readAheadBlocks, null);
+    }
+
+    private CassandraBlockIndexInput open(int readAheadBlocks,
+            Map<byte[], ByteBuffer> prefetched) throws IOException {
+        FileDescriptor fd = new FileDescriptor("/index0/file", BLOCK_SIZE);
+        LinkedList<FileBlock> blocks = new LinkedList<FileBlock>();
+        for (int i = 0; i * BLOCK_SIZE < DATA.length; i++) {
+            FileBlock block = new FileBlock();
+            block.setBlockName(i);
+            block.setBlockSize(BLOCK_SIZE);
+            block.setDataLength(Math.min(BLOCK_SIZE, DATA.length - i * BLOCK_SIZE));
+            blocks.add(block);
+        }
+        fd.setBlocks(blocks);
+        fd.setLength(DATA.length);
+
+        ColumnOrientedFile columnOrientedFile = new ColumnOrientedFile(null) {
+            @Override
+            public Map<byte[], ByteBuffer> readFileBlockBuffers(
+                    FileDescriptor fileDescriptor, Set<byte[]> blockNames) {
+                fetches++;
+                Map<byte[], ByteBuffer> blockMap =
+                        new TreeMap<byte[], ByteBuffer>(BlockMap.BYTE_ARRAY_COMPARATOR);
+                for (byte[] blockName : blockNames) {
+                    int i = Integer.parseInt(new String(blockName).substring(6));
+                    int end = Math.min(DATA.length, (i + 1) * BLOCK_SIZE);
+                    blockMap.put(blockName, ByteBuffer.wrap(Arrays.copyOfRange(
+                            DATA, i * BLOCK_SIZE, end)));
+                }
+                return blockMap;
+            }
+        };
+        return new CassandraBlockIndexInput("file", fd, columnOrientedFile,
+                readAheadBlocks, null, prefetched, recorder, bufferCache);
+    }
+
+    @Test
+    public void testReadAcrossBlocks() {
+        try {
+            CassandraBlockIndexInput in = open(1);
+            assertEquals(10, in.length());
+            for (int i = 0; i < DATA.length; i++) {
+                assertEquals(i, in.getFilePointer());
+                assertEquals(DATA[i], in.readByte());
+            }
+            assertEquals(3, fetches);
+
+            in.seek(2);
+            byte[] bytes = new byte[7];
+            in.readBytes(bytes, 0, 7);
+            assertArrayEquals(Arrays.copyOfRange(DATA, 2, 9), bytes);
+            assertEquals(9, in.getFilePointer());
+
+            in.seek(2);
+            assertEquals(0x02030405, in.readInt());
+            in.seek(1);
+            assertEquals(0x0102030405060708L, in.readLong());
+
+            in.seek(10);
+            try {
+                in.readByte();
+                fail("EOFException is expected");
+            } catch (EOFException e) {
+            }
+            assertEquals(3, fetches);
+        } catch (IOException e) {
+            fail("exception is not expected ");
+        }
+    }
+
+    @Test
+    public void testReadAhead() {
+        try {
+            CassandraBlockIndexInput in = open(2);
+            in.seek(9);
+            assertEquals(9, in.readByte());
+            in.seek(0);
+            assertEquals(0, in.readByte());
+            assertEquals(2, fetches);
+        } catch (IOException e) {
+            fail("exception is not expected ");
+        }
+    }
+
+    @Test
+    public void testCloneAndSlice() {
+        try {
+            CassandraBlockIndexInput in = open(4);
+            in.seek(3);
+            IndexInput clone = in.clone();
+            assertEquals(3, clone.getFilePointer());
+            assertEquals(3, clone.readByte());
+            assertEquals(3, in.getFilePointer());
+
+            CassandraBlockIndexInput slice = in.slice("slice", 3, 6);
+            assertEquals(6, slice.length());
+            assertEquals(0, slice.getFilePointer());
+            byte[] bytes = new byte[6];
+            slice.readBytes(bytes, 0, 6);
+            assertArrayEquals(Arrays.copyOfRange(DATA, 3, 9), bytes);
+            try {
+                slice.readByte();
+                fail("EOFException is expected");
+            } catch (EOFException e) {
+            }
+
+            IndexInput nested = slice.slice("nested", 2, 2).clone();
+            nested.seek(1);
+            assertEquals(6, nested.readByte());
+            assertEquals(1, fetches);
+        } catch (IOException e) {
+            fail("exception is not expected ");
+        }
+    }
+
+    @Test
+    public void testPrefetched() {
+        try {
+            // what SimpleCassandraDirectory#prefetch fetched for blocks 0 and 2.
+            Map<byte[], ByteBuffer> prefetched =
+                    new TreeMap<byte[], ByteBuffer>(BlockMap.BYTE_ARRAY_COMPARATOR);
+            for (int i : new int[] { 0, 2 }) {
+                FileBlock block = new FileBlock();
+                block.setBlockName(i);
+                int end = Math.min(DATA.length, (i + 1) * BLOCK_SIZE);
+                prefetched.put(block.getBlockName().getBytes(), ByteBuffer
+                        .wrap(Arrays.copyOfRange(DATA, i * BLOCK_SIZE, end)));
+            }
+
+            CassandraBlockIndexInput in = open(1, prefetched);
+            in.seek(8);
+            assertEquals(8, in.readByte());
+            in.seek(0);
+            assertEquals(0, in.readByte());
+            assertEquals(0, fetches);
+            in.seek(4);
+            assertEquals(4, in.readByte());
+            assertEquals(1, fetches);
+        } catch (IOException e) {
+            fail("exception is not expected ");
+        }
+    }
+
+    @Test
+    public void testReadsAreRecorded() {
+        try {
+            recorder = new BlockAccessRecorder(1, 16);
+            CassandraBlockIndexInput in = open(1);
+            in.seek(9);
+            assertEquals(9, in.readByte());
+            assertEquals(Collections.singleton("file"), recorder
+                    .getTopBlocks(10).keySet());
+            assertTrue(recorder.getTopBlocks(10).get("file").contains(2));
+        } catch (IOException e) {
+            fail("exception is not expected ");
+        }
+    }
+
+    @Test
+    public void testBufferCacheEvictsLeastRecentlyRead() {
+        try {
+            // room for two blocks of 4 bytes.
+            bufferCache = new CassandraBlockIndexInput.BufferCache(8);
+            CassandraBlockIndexInput in = open(1);
+            in.seek(0);
+            assertEquals(0, in.readByte());
+            in.seek(4);
+            assertEquals(4, in.readByte());
+            in.seek(0);
+            assertEquals(0, in.readByte());
+            assertEquals(2, fetches);
+            assertEquals(8, bufferCache.getCachedBytes());
+
+            // block 1 was read least recently, and is dropped for block 2.
+            in.seek(8);
+            assertEquals(8, in.readByte());
+            assertEquals(6, bufferCache.getCachedBytes());
+            in.seek(0);
+            assertEquals(0, in.readByte());
+            assertEquals(3, fetches);
+            in.seek(4);
+            assertEquals(4, in.readByte());
+            assertEquals(4, fetches);
+
+            in.close();
+            assertEquals(0, bufferCache.getCachedBytes());
+        } catch (IOException e) {
+            fail("exception is not expected ");
+        }
+    }
+
+}
@@ -0,0 +1,84 @@
+package org.apache.lucene.cassandra;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+public class TestCassandraCommitWatcher {
+
+    // the generation the fake directory reports.
+    private final AtomicLong committed = new AtomicLong(-1);
+
+    private CassandraCommitWatcher open(long pollIntervalMs)
+            throws IOException {
+        ColumnOrientedDirectory columnOrientedDirectory =
+                new ColumnOrientedDirectory(null, 16384) {
+                    @Override
+                    public long getCommitGeneration(String directory) {
+                        assertEquals("/index0/", directory);
+                        return committed.get();
+                    }
+                };
+        return new CassandraCommitWatcher(columnOrientedDirectory, "/index0/",
+                pollIntervalMs);
+    }
+
+    @Test
+    public void testPutCommitGeneration() {
+        Map<ByteBuffer, Map<byte[], byte[]>> rows =
+                new HashMap<ByteBuffer, Map<byte[], byte[]>>();
+        ColumnOrientedDirectory.putCommitGeneration(rows, "/index0/", 42);
+        Map<byte[], byte[]> columns =
+                rows.get(ColumnOrientedDirectory.getCommitKey("/index0/"));
+        assertEquals("42", new String(
+                columns.get(ColumnOrientedDirectory.generationColumn)));
+    }
+
+    @Test
+    public void testPollAndListen() {
+        try {
+            committed.set(3);
+            CassandraCommitWatcher watcher = open(60000);
+            assertEquals(3, watcher.getGeneration());
+
+            final AtomicLong notified = new AtomicLong(-1);
+            watcher.addListener(new CassandraCommitWatcher.Listener() {
+                @Override
+                public void onCommit(long generation) {
+                    notified.set(generation);
+                }
+            });
+            assertEquals(3, watcher.poll());
+            assertEquals(-1, notified.get());
+
+            committed.set(4);
+            assertEquals(4, watcher.poll());
+            assertEquals(4, notified.get());
+            watcher.close();
+        } catch (IOException e) {
+            fail("exception is not expected ");
+        }
+    }
+
+    @Test
+    public void testAwaitGeneration() {
+        try {
+            CassandraCommitWatcher watcher = open(5);
+            assertEquals(-1, watcher.awaitGeneration(-1, 20));
+            committed.set(1);
+            assertEquals(1, watcher.awaitGeneration(-1, 10000));
+            watcher.close();
+        } catch (IOException e) {
+            fail("exception is not expected ");
+        } catch (InterruptedException e) {
+            fail("exception is not expected ");
+        }
+    }
+
+}
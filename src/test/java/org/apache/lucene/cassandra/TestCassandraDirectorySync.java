@@ -0,0 +1,45 @@
+package org.apache.lucene.cassandra;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.junit.Test;
+
+public class TestCassandraDirectorySync {
+
+    @Test
+    public void testSyncSkipsPersistedDescriptors() throws Exception {
+        // persisted when its output was closed.
+        FileDescriptor closed = new FileDescriptor("/index/_0.fdt", 16384);
+        closed.markDirty(1);
+        closed.markFlushed(closed.getVersion());
+        // its write failed when its output was closed.
+        FileDescriptor failed = new FileDescriptor("/index/_0.fdx", 16384);
+        failed.markDirty(2);
+        FileDescriptor deleted = new FileDescriptor("/index/_0.tis", 16384);
+        deleted.markDirty(1);
+        deleted.setDeleted(true);
+
+        Map<ByteBuffer, Map<byte[], byte[]>> rows =
+                new HashMap<ByteBuffer, Map<byte[], byte[]>>();
+        Map<FileDescriptor, Long> versions = CassandraDirectory
+                .putUnflushedDescriptors(rows,
+                        Arrays.asList(closed, failed, deleted));
+        assertEquals(1, rows.size());
+        assertTrue(rows.containsKey(ByteBufferUtil.bytes("/index/_0.fdx")));
+        assertEquals(Long.valueOf(failed.getVersion()), versions.get(failed));
+
+        // once committed, a later sync has nothing left to write.
+        failed.markFlushed(versions.get(failed));
+        rows.clear();
+        assertTrue(CassandraDirectory.putUnflushedDescriptors(rows,
+                Arrays.asList(closed, failed, deleted)).isEmpty());
+        assertTrue(rows.isEmpty());
+    }
+
+}
@@ -0,0 +1,61 @@
+package org.apache.lucene.cassandra;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.monitor.OpentrackerClientMonitor;
+import org.junit.Test;
+
+import com.leadboxer.util.LuceneSettings;
+
+public class TestCassandraMergeScheduler {
+
+    @Test
+    public void testMergesPerNode() {
+        CassandraMergeScheduler scheduler = new CassandraMergeScheduler(3, 2);
+        assertEquals(6, scheduler.getMaxThreadCount());
+        assertEquals(8, scheduler.getMaxMergeCount());
+
+        scheduler = new CassandraMergeScheduler(0, 2);
+        assertEquals(1, scheduler.getMaxThreadCount());
+    }
+
+    @Test
+    public void testMergesAreRecorded() {
+        try {
+            OpentrackerClientMonitor monitor = CassandraMergeMonitor.getMonitor();
+            long merges = monitor.getMergeCount();
+            long bytes = monitor.getMergeBytes();
+
+            IndexWriterConfig iwc =
+                    new IndexWriterConfig(LuceneSettings.currentVersion,
+                            new StandardAnalyzer(LuceneSettings.currentVersion));
+            iwc.setMergeScheduler(new CassandraMergeScheduler(1, 1));
+            iwc.setMergePolicy(new CassandraMergePolicy());
+            IndexWriter writer = new IndexWriter(new RAMDirectory(), iwc);
+            for (int i = 0; i < 3; i++) {
+                Document doc = new Document();
+                doc.add(new TextField("contents", "hello " + i, Field.Store.NO));
+                writer.addDocument(doc);
+                writer.commit();
+            }
+            writer.forceMerge(1);
+            writer.close();
+
+            assertEquals(merges + 1, monitor.getMergeCount());
+            assertTrue(monitor.getMergeBytes() > bytes);
+            assertEquals(0, monitor.getRunningMerges());
+        } catch (IOException e) {
+            fail("exception is not expected ");
+        }
+    }
+
+}
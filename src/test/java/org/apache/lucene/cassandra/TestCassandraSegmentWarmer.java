@@ -0,0 +1,258 @@
+package org.apache.lucene.cassandra;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexFileNames;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.CompoundFileDirectory;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FilterDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.store.SearchService;
+import org.junit.Test;
+
+import com.leadboxer.util.LuceneSettings;
+
+public class TestCassandraSegmentWarmer {
+
+    // the files the warmer asked for.
+    private final List<String> prefetched = new CopyOnWriteArrayList<String>();
+
+    // the blocks the warmer asked for, by file.
+    private final Map<String, Set<Integer>> prefetchedBlocks =
+            new ConcurrentHashMap<String, Set<Integer>>();
+
+    // the ranges of compound files the warmer looked up.
+    private final List<long[]> compoundRanges = new CopyOnWriteArrayList<long[]>();
+
+    private CassandraSegmentWarmer open(Directory dir) {
+        return new CassandraSegmentWarmer(dir,
+                CassandraSegmentWarmer.parseExtensions("tim, .tip"), 2) {
+            @Override
+            protected long prefetch(String name, Set<Integer> blocks) {
+                prefetched.add(name);
+                if (blocks != null) {
+                    prefetchedBlocks.put(name, blocks);
+                }
+                return 1;
+            }
+
+            @Override
+            protected Set<Integer> getBlocks(String name, List<long[]> ranges) {
+                compoundRanges.addAll(ranges);
+                return Collections.singleton(ranges.size());
+            }
+        };
+    }
+
+    private void addDocument(IndexWriter writer, String text)
+            throws IOException {
+        Document doc = new Document();
+        doc.add(new TextField("contents", text, Field.Store.NO));
+        writer.addDocument(doc);
+        writer.commit();
+    }
+
+    @Test
+    public void testParseExtensions() {
+        Set<String> expected = new HashSet<String>();
+        expected.add("tim");
+        expected.add("nvd");
+        assertEquals(expected, CassandraSegmentWarmer.parseExtensions(" .tim,nvd,"));
+    }
+
+    @Test
+    public void testWarmNewSegments() {
+        try {
+            RAMDirectory dir = new RAMDirectory();
+            IndexWriterConfig iwc =
+                    new IndexWriterConfig(LuceneSettings.currentVersion,
+                            new StandardAnalyzer(LuceneSettings.currentVersion));
+            iwc.setUseCompoundFile(false);
+            iwc.setMergePolicy(NoMergePolicy.NO_COMPOUND_FILES);
+            IndexWriter writer = new IndexWriter(dir, iwc);
+            addDocument(writer, "hello world");
+
+            CassandraSegmentWarmer warmer = open(dir);
+            assertEquals(2, warmer.warmLatestCommit());
+            for (String name : prefetched) {
+                assertTrue(name.startsWith("_0"));
+                String extension = IndexFileNames.getExtension(name);
+                assertTrue(extension.equals("tim") || extension.equals("tip"));
+            }
+            // nothing new.
+            assertEquals(0, warmer.warmLatestCommit());
+
+            Query hello = new TermQuery(new Term("contents", "hello"));
+            SearchService service =
+                    new SearchService(dir, 0, Collections.<Query> emptyList());
+            service.addRefreshListener(warmer);
+            prefetched.clear();
+            addDocument(writer, "hello again");
+            assertTrue(service.maybeRefresh());
+            assertEquals(2, prefetched.size());
+            for (String name : prefetched) {
+                assertTrue(name.startsWith("_1"));
+            }
+            assertEquals(2, service.search(hello, 10).totalHits);
+            assertEquals(4, warmer.getWarmedBytes());
+
+            service.close();
+            warmer.close();
+            writer.close();
+        } catch (IOException e) {
+            fail("exception is not expected ");
+        }
+    }
+
+    @Test
+    public void testWatchedCommitsAreNotListed() {
+        try {
+            final AtomicInteger listings = new AtomicInteger();
+            final Directory dir = new FilterDirectory(new RAMDirectory()) {
+                @Override
+                public String[] listAll() throws IOException {
+                    listings.incrementAndGet();
+                    return super.listAll();
+                }
+            };
+            IndexWriterConfig iwc =
+                    new IndexWriterConfig(LuceneSettings.currentVersion,
+                            new StandardAnalyzer(LuceneSettings.currentVersion));
+            iwc.setUseCompoundFile(false);
+            iwc.setMergePolicy(NoMergePolicy.NO_COMPOUND_FILES);
+            IndexWriter writer = new IndexWriter(dir, iwc);
+            addDocument(writer, "hello world");
+
+            // what sync publishes in the commit row.
+            CassandraCommitWatcher watcher = new CassandraCommitWatcher(
+                    new ColumnOrientedDirectory(null, 16384) {
+                        @Override
+                        public long getCommitGeneration(String directory)
+                                throws IOException {
+                            return SegmentInfos.getLastCommitGeneration(dir);
+                        }
+                    }, "/index0/", 60000);
+            CassandraSegmentWarmer warmer = open(dir);
+            warmer.watch(watcher);
+            listings.set(0);
+
+            assertEquals(2, warmer.warmLatestCommit());
+            warmer.beforeRefresh();
+            assertEquals(0, warmer.warmLatestCommit());
+
+            prefetched.clear();
+            addDocument(writer, "hello again");
+            watcher.poll();
+            listings.set(0);
+            assertEquals(2, warmer.warmLatestCommit());
+            for (String name : prefetched) {
+                assertTrue(name.startsWith("_1"));
+            }
+            assertEquals(0, listings.get());
+
+            watcher.close();
+            warmer.close();
+            writer.close();
+        } catch (IOException e) {
+            fail("exception is not expected ");
+        }
+    }
+
+    @Test
+    public void testWarmCompoundSegments() {
+        try {
+            RAMDirectory dir = new RAMDirectory();
+            IndexWriterConfig iwc =
+                    new IndexWriterConfig(LuceneSettings.currentVersion,
+                            new StandardAnalyzer(LuceneSettings.currentVersion));
+            iwc.setUseCompoundFile(true);
+            IndexWriter writer = new IndexWriter(dir, iwc);
+            addDocument(writer, "hello world");
+            writer.close();
+
+            CassandraSegmentWarmer warmer = open(dir);
+            assertEquals(1, warmer.warmLatestCommit());
+            assertEquals(Collections.singletonList("_0.cfs"), prefetched);
+            // the blocks of the term dictionary and of its index.
+            assertEquals(Collections.singleton(2), prefetchedBlocks.get("_0.cfs"));
+
+            CompoundFileDirectory cfs =
+                    new CompoundFileDirectory(dir, "_0.cfs", IOContext.READONCE, false);
+            long expected = 0;
+            for (String name : cfs.listAll()) {
+                String extension = IndexFileNames.getExtension(name);
+                if (extension.equals("tim") || extension.equals("tip")) {
+                    expected += cfs.fileLength(name);
+                }
+            }
+            cfs.close();
+            long length = 0;
+            for (long[] range : compoundRanges) {
+                assertTrue(range[0] + range[1] <= dir.fileLength("_0.cfs"));
+                length += range[1];
+            }
+            assertEquals(expected, length);
+            warmer.close();
+        } catch (IOException e) {
+            fail("exception is not expected ");
+        }
+    }
+
+    @Test
+    public void testReplay() {
+        try {
+            RAMDirectory dir = new RAMDirectory();
+            IndexWriterConfig iwc =
+                    new IndexWriterConfig(LuceneSettings.currentVersion,
+                            new StandardAnalyzer(LuceneSettings.currentVersion));
+            iwc.setUseCompoundFile(false);
+            IndexWriter writer = new IndexWriter(dir, iwc);
+            addDocument(writer, "hello world");
+            writer.close();
+
+            CassandraSegmentWarmer warmer = open(dir);
+            warmer.warmLatestCommit();
+            prefetched.clear();
+
+            String doc = null;
+            for (String name : dir.listAll()) {
+                if (name.endsWith(".doc")) {
+                    doc = name;
+                }
+            }
+            BlockAccessRecorder recorder = new BlockAccessRecorder(1, 16);
+            recorder.record(doc, 0);
+            recorder.record("_gone.doc", 0);
+            assertEquals(3, warmer.replay(recorder, 10));
+            assertEquals(3, prefetched.size());
+            assertEquals(Collections.singleton(0), prefetchedBlocks.get(doc));
+            assertEquals(1, prefetchedBlocks.size());
+            warmer.close();
+        } catch (IOException e) {
+            fail("exception is not expected ");
+        }
+    }
+
+}
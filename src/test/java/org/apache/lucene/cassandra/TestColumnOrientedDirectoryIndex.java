@@ -0,0 +1,33 @@
+package org.apache.lucene.cassandra;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class TestColumnOrientedDirectoryIndex {
+
+    @Test
+    public void testPutIndexEntryLeavesIndexIncomplete() {
+        Map<ByteBuffer, Map<byte[], byte[]>> rows =
+                new HashMap<ByteBuffer, Map<byte[], byte[]>>();
+        ColumnOrientedDirectory.putIndexEntry(rows, "/index0/write.lock", "id0");
+        Map<byte[], byte[]> entries =
+                rows.get(ColumnOrientedDirectory.getIndexKey("/index0/"));
+        assertEquals("id0", new String(entries.get("/index0/write.lock".getBytes())));
+        // only completeIndex marks the index complete, a new entry of a
+        // directory that predates the index must not hide its old files.
+        assertFalse(entries.containsKey(ColumnOrientedDirectory.indexCompleteColumn));
+
+        rows.clear();
+        ColumnOrientedDirectory.putIndexEntry(rows, "/index0/write.lock", null);
+        entries = rows.get(ColumnOrientedDirectory.getIndexKey("/index0/"));
+        assertTrue(entries.containsKey("/index0/write.lock".getBytes()));
+        assertNull(entries.get("/index0/write.lock".getBytes()));
+        assertFalse(entries.containsKey(ColumnOrientedDirectory.indexCompleteColumn));
+    }
+
+}
@@ -0,0 +1,66 @@
+package org.apache.lucene.cassandra.fs;
+
+import static org.junit.Assert.*;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.junit.Test;
+
+public class TestINodeCache {
+
+    private INode newINode(long mtime) {
+        return new INode("user", "group", FsPermission.getDefault(),
+                INode.FileType.DIRECTORY, null, mtime);
+    }
+
+    @Test
+    public void testGetPut() {
+        INodeCache cache = new INodeCache(60000, 100);
+        Path path = new Path("/user/lucene");
+
+        assertNull(cache.get(path));
+
+        INode inode = newINode(1);
+        assertSame(inode, cache.put(path, inode));
+        assertSame(inode, cache.get(path));
+        assertSame(inode, cache.get(new Path("cfs:///user/lucene")));
+    }
+
+    @Test
+    public void testOlderINodeIsIgnored() {
+        INodeCache cache = new INodeCache(60000, 100);
+        Path path = new Path("/user/lucene");
+
+        INode newer = newINode(2);
+        cache.put(path, newer);
+
+        assertSame(newer, cache.put(path, newINode(1)));
+        assertSame(newer, cache.get(path));
+
+        INode newest = newINode(3);
+        assertSame(newest, cache.put(path, newest));
+        assertSame(newest, cache.get(path));
+    }
+
+    @Test
+    public void testInvalidate() {
+        INodeCache cache = new INodeCache(60000, 100);
+        Path path = new Path("/user/lucene");
+
+        cache.put(path, newINode(1));
+        cache.invalidate(path);
+
+        assertNull(cache.get(path));
+    }
+
+    @Test
+    public void testDisabled() {
+        INodeCache cache = new INodeCache(0, 100);
+        Path path = new Path("/user/lucene");
+
+        INode inode = newINode(1);
+        assertSame(inode, cache.put(path, inode));
+        assertNull(cache.get(path));
+    }
+
+}
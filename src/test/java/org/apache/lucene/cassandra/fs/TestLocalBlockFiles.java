@@ -0,0 +1,47 @@
+package org.apache.lucene.cassandra.fs;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class TestLocalBlockFiles {
+
+    private File newSSTable(byte[] data) throws IOException {
+        File file = File.createTempFile("TestLocalBlockFiles", "-Data.db");
+        file.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    @Test
+    public void testDeletedFileIsForgotten() throws IOException {
+        LocalBlockFiles files = new LocalBlockFiles(16, 4);
+        File sstable = newSSTable(new byte[] { 1, 2, 3, 4 });
+
+        LocalBlockFiles.MappedFile file = files.acquire(sstable.getPath());
+        ByteBuffer bb = file.map(1, 2);
+        assertEquals(2, bb.get());
+        file.close();
+
+        // compacted away: acquiring it again fails rather than serving the
+        // mapping of the deleted file.
+        assertTrue(sstable.delete());
+        try {
+            files.acquire(sstable.getPath());
+            fail("FileNotFoundException is expected");
+        } catch (FileNotFoundException e) {
+        }
+    }
+
+}
@@ -0,0 +1,139 @@
+package org.apache.lucene.store;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.SegmentInfos;
+import org.junit.Test;
+
+import com.leadboxer.util.LuceneSettings;
+
+public class TestBulkLoader {
+
+    private void index(Directory dir, int docs, int commits)
+            throws IOException {
+        IndexWriterConfig iwc =
+                new IndexWriterConfig(LuceneSettings.currentVersion,
+                        new StandardAnalyzer(LuceneSettings.currentVersion));
+        IndexWriter writer = new IndexWriter(dir, iwc);
+        for (int c = 0; c < commits; c++) {
+            for (int i = 0; i < docs; i++) {
+                Document doc = new Document();
+                doc.add(new TextField("contents", "hello " + i, Field.Store.NO));
+                writer.addDocument(doc);
+            }
+            writer.commit();
+        }
+        writer.close();
+    }
+
+    @Test
+    public void testUpload() {
+        try {
+            RAMDirectory local = new RAMDirectory();
+            index(local, 10, 2);
+            RAMDirectory remote = new RAMDirectory();
+            String segmentsFile = new BulkLoader(local, remote, 3).upload();
+            assertEquals(SegmentInfos.getLastCommitSegmentsFileName(local),
+                    segmentsFile);
+
+            DirectoryReader reader = DirectoryReader.open(remote);
+            assertEquals(20, reader.numDocs());
+            reader.close();
+            // only the files of the last commit are uploaded.
+            SegmentInfos infos = new SegmentInfos();
+            infos.read(remote);
+            assertEquals(infos.files(remote, true).size() + 1,
+                    remote.listAll().length);
+        } catch (IOException e) {
+            fail("exception is not expected ");
+        }
+    }
+
+    @Test
+    public void testGenerationAboveTarget() {
+        try {
+            RAMDirectory local = new RAMDirectory();
+            index(local, 5, 1);
+            RAMDirectory remote = new RAMDirectory();
+            // an older commit the new one has to win over.
+            remote.createOutput("segments_7", IOContext.DEFAULT).close();
+            assertEquals("segments_8", new BulkLoader(local, remote, 1).upload());
+            assertEquals(8, SegmentInfos.getLastCommitGeneration(remote));
+        } catch (IOException e) {
+            fail("exception is not expected ");
+        }
+    }
+
+    @Test
+    public void testReplaceIndexWithSameSegmentNames() {
+        try {
+            RAMDirectory local = new RAMDirectory();
+            index(local, 5, 1);
+            RAMDirectory remote = new RAMDirectory();
+            index(remote, 3, 2);
+            Set<String> old = new HashSet<String>(Arrays.asList(remote.listAll()));
+
+            String segmentsFile = new BulkLoader(local, remote, 1).upload();
+            assertEquals(SegmentInfos.getLastCommitSegmentsFileName(remote),
+                    segmentsFile);
+            DirectoryReader reader = DirectoryReader.open(remote);
+            assertEquals(5, reader.numDocs());
+            reader.close();
+            // the superseded commit is gone, and no file was overwritten.
+            SegmentInfos infos = new SegmentInfos();
+            infos.read(remote);
+            Collection<String> files = infos.files(remote, true);
+            assertEquals(files.size() + 1, remote.listAll().length);
+            for (String file : files) {
+                assertFalse(file, old.contains(file));
+            }
+        } catch (IOException e) {
+            fail("exception is not expected ");
+        }
+    }
+
+    @Test
+    public void testDeleteSupersededCommit() {
+        try {
+            RAMDirectory local = new RAMDirectory();
+            index(local, 5, 1);
+            RAMDirectory remote = new RAMDirectory();
+            index(remote, 3, 2);
+            // merged into _2, which a local build of a single segment does
+            // not collide with.
+            IndexWriter writer = new IndexWriter(remote, new IndexWriterConfig(
+                    LuceneSettings.currentVersion, new StandardAnalyzer(
+                            LuceneSettings.currentVersion)));
+            writer.forceMerge(1);
+            writer.close();
+            assertTrue(remote.fileExists("_2.si"));
+
+            String segmentsFile = new BulkLoader(local, remote, 1).upload();
+            DirectoryReader reader = DirectoryReader.open(remote);
+            assertEquals(5, reader.numDocs());
+            reader.close();
+            assertFalse(remote.fileExists("_2.si"));
+            SegmentInfos infos = new SegmentInfos();
+            infos.read(remote);
+            assertEquals(segmentsFile, infos.getSegmentsFileName());
+            assertEquals(infos.files(remote, true).size() + 1,
+                    remote.listAll().length);
+        } catch (IOException e) {
+            fail("exception is not expected ");
+        }
+    }
+
+}
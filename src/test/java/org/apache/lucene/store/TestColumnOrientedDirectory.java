@@ -3,6 +3,7 @@ package org.apache.lucene.store;
 import static org.junit.Assert.*;
 
 import java.io.IOException;
+import java.util.Iterator;
 
 import net.opentracker.test.OpentrackerTestBase;
 
@@ -101,10 +102,31 @@ public class TestColumnOrientedDirectory extends OpentrackerTestBase {
         }
     }
 
+    @Test
+    public void testListNewDirectoryWithoutScan() {
+        String dir = "/testnewdir" + System.currentTimeMillis() + "/";
+        try {
+            FileDescriptor fd = new FileDescriptor(dir + "a", blockSize);
+            cod.setFileDescriptor(fd);
+            assertArrayEquals(new String[] { dir + "a" }, cod.getFileNames(dir));
+
+            // a directory created again after it was deleted.
+            cod.deleteDirectory(dir);
+            assertEquals(0, cod.getFileNames(dir).length);
+            cod.setFileDescriptor(new FileDescriptor(dir + "b", blockSize));
+            assertArrayEquals(new String[] { dir + "b" }, cod.getFileNames(dir));
+            assertEquals(0, cod.scans);
+        } catch (IOException e) {
+            fail("exception is not expected");
+        }
+    }
 
     
     class ColumnOrientedDirectoryTestable extends ColumnOrientedDirectory {
 
+        // number of walks of the whole column family.
+        int scans = 0;
+
         public ColumnOrientedDirectoryTestable(CassandraClient cassandraClient) {
             super(cassandraClient, blockSize);
         }
@@ -132,6 +154,12 @@ public class TestColumnOrientedDirectory extends OpentrackerTestBase {
             return super.getFileDescriptor(fileName, createIfNotFound);
         }
 
+        @Override
+        public Iterator<String> iterateFileNames() {
+            scans++;
+            return super.iterateFileNames();
+        }
+
     }
     
 }
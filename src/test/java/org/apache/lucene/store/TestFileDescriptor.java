@@ -3,9 +3,11 @@ package org.apache.lucene.store;
 import static org.junit.Assert.*;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.LinkedList;
 
+import org.apache.lucene.cassandra.ColumnOrientedFile;
 import org.apache.lucene.cassandra.FileBlock;
 import org.apache.lucene.cassandra.FileDescriptor;
 import org.apache.lucene.cassandra.FileDescriptorUtils;
@@ -232,4 +234,30 @@ public class TestFileDescriptor {
         }
     }
 
+    @Test
+    public void testStripes() {
+        FileDescriptor fd = new FileDescriptor("/index/_0.fdt", 16384);
+        fd.setBlocksPerStripe(4);
+        String fileId = fd.getFileId();
+
+        assertEquals(fileId, ColumnOrientedFile.getDataKey(fd, 0));
+        assertEquals(fileId, ColumnOrientedFile.getDataKey(fd, 3));
+        assertEquals(fileId + ":1", ColumnOrientedFile.getDataKey(fd, 4));
+        assertEquals(fileId + ":2", ColumnOrientedFile.getDataKey(fd, "BLOCK-9".getBytes()));
+
+        for (int i = 0; i < 10; i++) {
+            fd.addLastBlock(fd.createBlock());
+        }
+        assertEquals(Arrays.asList(fileId, fileId + ":1", fileId + ":2"),
+                ColumnOrientedFile.getDataKeys(fd));
+
+        // files in a single row, and files predating file ids, never stripe
+        fd.setBlocksPerStripe(0);
+        assertEquals(fileId, ColumnOrientedFile.getDataKey(fd, 9));
+        fd.setBlocksPerStripe(4);
+        fd.setFileId(fd.getName());
+        assertEquals(fd.getName(), ColumnOrientedFile.getDataKey(fd, 9));
+        assertEquals(Arrays.asList(fd.getName()), ColumnOrientedFile.getDataKeys(fd));
+    }
+
 }
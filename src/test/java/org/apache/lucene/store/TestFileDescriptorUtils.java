@@ -2,6 +2,8 @@ package org.apache.lucene.store;
 
 import static org.junit.Assert.*;
 
+import java.util.Arrays;
+
 import org.apache.lucene.cassandra.FileBlock;
 import org.apache.lucene.cassandra.FileDescriptor;
 import org.apache.lucene.cassandra.FileDescriptorUtils;
@@ -244,4 +246,93 @@ public class TestFileDescriptorUtils {
         }
     }
 
+    @Test
+    public void testFileId() {
+        try {
+            byte[] b = "{\"lastModified\":1395043055774,\"name\":\"_0.cfs\",\"length\":0,\"blocks\":[],\"deleted\":false,\"lastAccessed\":1395043055774}".getBytes();
+            FileDescriptor fd = FileDescriptorUtils.fromBytes(b, 16384);
+
+            // descriptors without a file id keep their blocks in their own row
+            assertEquals("_0.cfs", fd.getFileId());
+            assertTrue(fd.isDataInDescriptorRow());
+
+            fd = new FileDescriptor("_1.cfs", 16384);
+            assertNotNull(fd.getFileId());
+            assertFalse(fd.isDataInDescriptorRow());
+
+            FileDescriptor read = FileDescriptorUtils.fromBytes(FileDescriptorUtils.toBytes(fd), 16384);
+            assertEquals(fd.getFileId(), read.getFileId());
+            assertEquals("_1.cfs", read.getName());
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail("exception is not expected ");
+        }
+    }
+
+    @Test
+    public void testGetDirectory() {
+        assertEquals("/index/", FileDescriptorUtils.getDirectory("/index/_0.cfs"));
+        assertEquals("/", FileDescriptorUtils.getDirectory("/_0.cfs"));
+        assertEquals("", FileDescriptorUtils.getDirectory("_0.cfs"));
+
+        // file ids are prefixed with the directory of the file
+        assertTrue(FileDescriptor.createFileId("/index/_0.cfs").startsWith("/index/#"));
+    }
+
+    @Test
+    public void testInlineBlocks() {
+        try {
+            FileDescriptor fd = new FileDescriptor("/index/segments.gen", 16384);
+            assertTrue(fd.isInline());
+            fd.getInlineBlocks().put("BLOCK-0", new byte[] { 0, 1, 2, (byte) 0xff });
+
+            FileDescriptor read = FileDescriptorUtils.fromBytes(FileDescriptorUtils.toBytes(fd), 16384);
+            assertTrue(read.isInline());
+            assertEquals(1, read.getInlineBlocks().size());
+            assertTrue(Arrays.equals(new byte[] { 0, 1, 2, (byte) 0xff },
+                    read.getInlineBlocks().get("BLOCK-0")));
+
+            // descriptors without inline data keep their blocks in data rows
+            fd.setInlineBlocks(null);
+            read = FileDescriptorUtils.fromBytes(FileDescriptorUtils.toBytes(fd), 16384);
+            assertFalse(read.isInline());
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail("exception is not expected ");
+        }
+    }
+
+    @Test
+    public void testVersion() {
+        try {
+            FileDescriptor fd = new FileDescriptor("/index/_0.cfs", 16384);
+            assertFalse(fd.isDirty());
+
+            fd.markDirty(2);
+            fd.markDirty(1);
+            assertTrue(fd.isDirty());
+            assertEquals(2, fd.getVersion());
+            assertEquals(3, fd.getUnflushedBlocks());
+
+            // a change made while the descriptor was being written keeps it dirty
+            long version = fd.getVersion();
+            fd.markDirty(1);
+            fd.markFlushed(version);
+            assertTrue(fd.isDirty());
+            assertEquals(4, fd.getUnflushedBlocks());
+
+            fd.markFlushed(fd.getVersion());
+            assertFalse(fd.isDirty());
+            assertEquals(0, fd.getUnflushedBlocks());
+
+            // a descriptor read back is as persisted as the one written
+            FileDescriptor read = FileDescriptorUtils.fromBytes(FileDescriptorUtils.toBytes(fd), 16384);
+            assertEquals(3, read.getVersion());
+            assertFalse(read.isDirty());
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail("exception is not expected ");
+        }
+    }
+
 }
@@ -0,0 +1,89 @@
+package org.apache.lucene.store;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.IndexWriterConfig.OpenMode;
+import org.apache.lucene.index.Term;
+import org.junit.Test;
+
+import com.leadboxer.util.LuceneSettings;
+
+public class TestParallelIndexer {
+
+    private File createDocs(int count) throws IOException {
+        File docs = File.createTempFile("docs", "");
+        docs.delete();
+        File sub = new File(docs, "sub");
+        sub.mkdirs();
+        for (int i = 0; i < count; i++) {
+            FileOutputStream out =
+                    new FileOutputStream(new File(i % 2 == 0 ? docs : sub, "doc" + i));
+            out.write(("hello document " + i).getBytes("UTF-8"));
+            out.close();
+        }
+        return docs;
+    }
+
+    private IndexWriter openWriter(Directory dir, OpenMode mode)
+            throws IOException {
+        IndexWriterConfig iwc =
+                new IndexWriterConfig(LuceneSettings.currentVersion,
+                        new StandardAnalyzer(LuceneSettings.currentVersion));
+        iwc.setOpenMode(mode);
+        return new IndexWriter(dir, iwc);
+    }
+
+    @Test
+    public void testIndexAndCommitByCount() {
+        try {
+            File docs = createDocs(50);
+            RAMDirectory dir = new RAMDirectory();
+            IndexWriter writer = openWriter(dir, OpenMode.CREATE);
+            ParallelIndexer indexer =
+                    new ParallelIndexer(writer, 4, 3, 0, 10, -1);
+            assertEquals(50, indexer.index(docs));
+            // commits by count happened while indexing.
+            assertTrue(DirectoryReader.indexExists(dir));
+            writer.close();
+
+            DirectoryReader reader = DirectoryReader.open(dir);
+            assertEquals(50, reader.numDocs());
+            assertEquals(1, reader.docFreq(new Term("contents", "7")));
+            reader.close();
+
+            // documents are replaced rather than added again on update.
+            writer = openWriter(dir, OpenMode.CREATE_OR_APPEND);
+            assertEquals(50, new ParallelIndexer(writer, 2, 1, 0, 0, -1)
+                    .index(docs));
+            writer.close();
+            reader = DirectoryReader.open(dir);
+            assertEquals(50, reader.numDocs());
+            reader.close();
+        } catch (IOException e) {
+            fail("exception is not expected ");
+        }
+    }
+
+    @Test
+    public void testLimit() {
+        try {
+            File docs = createDocs(20);
+            RAMDirectory dir = new RAMDirectory();
+            IndexWriter writer = openWriter(dir, OpenMode.CREATE);
+            assertEquals(5, new ParallelIndexer(writer, 1, 1, 0, 0, 5)
+                    .index(docs));
+            writer.close();
+        } catch (IOException e) {
+            fail("exception is not expected ");
+        }
+    }
+
+}
@@ -0,0 +1,135 @@
+package org.apache.lucene.store;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TermQuery;
+import org.junit.Test;
+
+import com.leadboxer.util.LuceneSettings;
+
+public class TestSearchService {
+
+    private void addDocument(IndexWriter writer, String text)
+            throws IOException {
+        Document doc = new Document();
+        doc.add(new TextField("contents", text, Field.Store.NO));
+        writer.addDocument(doc);
+        writer.commit();
+    }
+
+    @Test
+    public void testRefresh() {
+        try {
+            RAMDirectory dir = new RAMDirectory();
+            IndexWriter writer =
+                    new IndexWriter(dir, new IndexWriterConfig(
+                            LuceneSettings.currentVersion, new StandardAnalyzer(
+                                    LuceneSettings.currentVersion)));
+            addDocument(writer, "hello world");
+
+            final AtomicInteger warmed = new AtomicInteger();
+            Query hello = new TermQuery(new Term("contents", "hello"));
+            SearchService service =
+                    new SearchService(dir, 0, Collections.singletonList(hello)) {
+                        @Override
+                        protected void warm(IndexSearcher searcher)
+                                throws IOException {
+                            super.warm(searcher);
+                            warmed.incrementAndGet();
+                        }
+                    };
+            assertEquals(1, warmed.get());
+            assertEquals(1, service.search(hello, 10).totalHits);
+
+            IndexSearcher old = service.acquire();
+            addDocument(writer, "hello again");
+            assertEquals(1, service.search(hello, 10).totalHits);
+            assertTrue(service.maybeRefresh());
+            assertEquals(2, warmed.get());
+            assertEquals(2, service.search(hello, 10).totalHits);
+
+            // the segment that did not change is shared with the old searcher.
+            IndexSearcher current = service.acquire();
+            AtomicReader first = old.getIndexReader().leaves().get(0).reader();
+            assertSame(first, current.getIndexReader().leaves().get(0).reader());
+            assertEquals(1, old.search(hello, 10).totalHits);
+            service.release(current);
+            service.release(old);
+
+            service.close();
+            writer.close();
+        } catch (IOException e) {
+            fail("exception is not expected ");
+        }
+    }
+
+    @Test
+    public void testBackgroundRefresh() {
+        try {
+            RAMDirectory dir = new RAMDirectory();
+            IndexWriter writer =
+                    new IndexWriter(dir, new IndexWriterConfig(
+                            LuceneSettings.currentVersion, new StandardAnalyzer(
+                                    LuceneSettings.currentVersion)));
+            addDocument(writer, "hello world");
+            Query hello = new TermQuery(new Term("contents", "hello"));
+            SearchService service =
+                    new SearchService(dir, 10, Collections.<Query> emptyList());
+            addDocument(writer, "hello again");
+            for (int i = 0; i < 200 && service.search(hello, 10).totalHits < 2; i++) {
+                Thread.sleep(10);
+            }
+            assertEquals(2, service.search(hello, 10).totalHits);
+            service.close();
+            writer.close();
+        } catch (IOException e) {
+            fail("exception is not expected ");
+        } catch (InterruptedException e) {
+            fail("exception is not expected ");
+        }
+    }
+
+    @Test
+    public void testLoadDocuments() {
+        try {
+            RAMDirectory dir = new RAMDirectory();
+            IndexWriter writer =
+                    new IndexWriter(dir, new IndexWriterConfig(
+                            LuceneSettings.currentVersion, new StandardAnalyzer(
+                                    LuceneSettings.currentVersion)));
+            for (int i = 0; i < 3; i++) {
+                Document doc = new Document();
+                doc.add(new TextField("contents", "doc" + i, Field.Store.YES));
+                writer.addDocument(doc);
+            }
+            writer.close();
+            IndexSearcher searcher = new IndexSearcher(DirectoryReader.open(dir));
+            ScoreDoc[] hits = { new ScoreDoc(2, 3f), new ScoreDoc(0, 2f),
+                    new ScoreDoc(1, 1f) };
+            Document[] documents = SearchService.loadDocuments(searcher, hits);
+            assertEquals("doc2", documents[0].get("contents"));
+            assertEquals("doc0", documents[1].get("contents"));
+            assertEquals("doc1", documents[2].get("contents"));
+            searcher.getIndexReader().close();
+        } catch (IOException e) {
+            fail("exception is not expected ");
+        }
+    }
+
+}